@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Creates synthetic event lists for the benchmarks.  The lists are sorted
+ * the way {@link Event#loadEvents} returns them, and the same seed always
+ * gives the same list so that runs can be compared.
+ */
+class EventGenerator {
+
+    static final int START_DAY = 2455000;
+
+    static final String SPARSE = "sparse";
+    static final String DENSE = "dense";
+    static final String ALL_DAY = "allDay";
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+    // The same order as Instances.SORT_CALENDAR_VIEW: earlier start first
+    // and, for the same start, the longer event first.
+    private static final Comparator<Event> CALENDAR_VIEW_ORDER = new Comparator<Event>() {
+        public int compare(Event a, Event b) {
+            if (a.startMillis != b.startMillis) {
+                return a.startMillis < b.startMillis ? -1 : 1;
+            }
+            if (a.endMillis != b.endMillis) {
+                return a.endMillis > b.endMillis ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private EventGenerator() {
+    }
+
+    /**
+     * Returns the events of the named kind, one of {@link #SPARSE},
+     * {@link #DENSE} or {@link #ALL_DAY}, over numDays days.
+     */
+    static ArrayList<Event> create(String kind, int numDays, long seed) {
+        if (SPARSE.equals(kind)) {
+            return createSparse(numDays, seed);
+        } else if (DENSE.equals(kind)) {
+            return createDense(numDays, seed);
+        } else if (ALL_DAY.equals(kind)) {
+            return createAllDay(numDays, seed);
+        }
+        throw new IllegalArgumentException("unknown kind: " + kind);
+    }
+
+    /**
+     * A personal calendar: zero to four events a day, rarely overlapping,
+     * and an occasional all-day event.
+     */
+    static ArrayList<Event> createSparse(int numDays, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Event> events = new ArrayList<Event>();
+        long id = 1;
+        for (int day = 0; day < numDays; day++) {
+            int numEvents = random.nextInt(5);
+            for (int i = 0; i < numEvents; i++) {
+                int start = (8 + random.nextInt(12)) * 60 + 30 * random.nextInt(2);
+                int length = 30 * (1 + random.nextInt(4));
+                events.add(createTimed(id++, START_DAY + day, start, start + length));
+            }
+            if (random.nextInt(10) == 0) {
+                events.add(createAllDay(id++, START_DAY + day, 1));
+            }
+        }
+        Collections.sort(events, CALENDAR_VIEW_ORDER);
+        return events;
+    }
+
+    /**
+     * A shared conference or room calendar: dozens of talks and bookings a
+     * day in parallel tracks, so the overlap groups are wide.
+     */
+    static ArrayList<Event> createDense(int numDays, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Event> events = new ArrayList<Event>();
+        long id = 1;
+        for (int day = 0; day < numDays; day++) {
+            int numEvents = 40 + random.nextInt(40);
+            for (int i = 0; i < numEvents; i++) {
+                int start = (8 + random.nextInt(10)) * 60 + 15 * random.nextInt(4);
+                int length = 15 * (1 + random.nextInt(12));
+                events.add(createTimed(id++, START_DAY + day, start, start + length));
+            }
+        }
+        Collections.sort(events, CALENDAR_VIEW_ORDER);
+        return events;
+    }
+
+    /**
+     * A calendar full of holidays, birthdays, trips and on-call rotations:
+     * many all-day events, a lot of them spanning several days.
+     */
+    static ArrayList<Event> createAllDay(int numDays, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Event> events = new ArrayList<Event>();
+        long id = 1;
+        for (int day = 0; day < numDays; day++) {
+            int numEvents = random.nextInt(6);
+            for (int i = 0; i < numEvents; i++) {
+                int length = random.nextInt(3) == 0 ? 1 + random.nextInt(7) : 1;
+                events.add(createAllDay(id++, START_DAY + day, length));
+            }
+            if (random.nextInt(3) == 0) {
+                int start = (9 + random.nextInt(8)) * 60;
+                events.add(createTimed(id++, START_DAY + day, start, start + 60));
+            }
+        }
+        Collections.sort(events, CALENDAR_VIEW_ORDER);
+        return events;
+    }
+
+    private static Event createTimed(long id, int julianDay, int startMinute, int endMinute) {
+        Event e = new Event();
+        e.id = id;
+        e.title = "event " + id;
+        e.startDay = julianDay;
+        e.endDay = julianDay;
+        e.startTime = startMinute;
+        e.endTime = Math.min(endMinute, 24 * 60);
+        e.startMillis = (julianDay - START_DAY) * DAY_MILLIS + startMinute * MINUTE_MILLIS;
+        e.endMillis = (julianDay - START_DAY) * DAY_MILLIS + e.endTime * MINUTE_MILLIS;
+        return e;
+    }
+
+    private static Event createAllDay(long id, int julianDay, int numDays) {
+        Event e = new Event();
+        e.id = id;
+        e.title = "all day " + id;
+        e.allDay = true;
+        e.startDay = julianDay;
+        e.endDay = julianDay + numDays - 1;
+        e.startTime = 0;
+        e.endTime = 24 * 60;
+        e.startMillis = (julianDay - START_DAY) * DAY_MILLIS;
+        e.endMillis = e.startMillis + numDays * DAY_MILLIS;
+        return e;
+    }
+}
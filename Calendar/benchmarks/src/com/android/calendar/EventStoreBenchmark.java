@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks finding the events of each cell of the month grid through the
+ * per-day index of EventStore against scanning every event for every cell,
+ * as the draw loops used to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventStoreBenchmark {
+
+    private static final int GRID_NUM_DAYS = 42;
+
+    @Param({ EventGenerator.SPARSE, EventGenerator.DENSE, EventGenerator.ALL_DAY })
+    public String kind;
+
+    private EventStore mStore;
+
+    @Setup
+    public void setUp() {
+        mStore = new EventStore();
+        mStore.set(EventGenerator.create(kind, GRID_NUM_DAYS, 1), EventGenerator.START_DAY,
+                GRID_NUM_DAYS);
+    }
+
+    @Benchmark
+    public int monthGridScan() {
+        EventStore store = mStore;
+        int numEvents = store.size();
+        int found = 0;
+        for (int day = EventGenerator.START_DAY;
+                day < EventGenerator.START_DAY + GRID_NUM_DAYS; day++) {
+            for (int i = 0; i < numEvents; i++) {
+                if (store.startDay[i] <= day && store.endDay[i] >= day) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int monthGridIndex() {
+        EventStore store = mStore;
+        int found = 0;
+        for (int day = EventGenerator.START_DAY;
+                day < EventGenerator.START_DAY + GRID_NUM_DAYS; day++) {
+            found += store.eventsOn(day);
+        }
+        return found;
+    }
+}
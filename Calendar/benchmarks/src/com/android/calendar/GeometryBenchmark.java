@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the per-frame geometry of the week view: placing every event
+ * rectangle, and finding the event nearest to a touch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeometryBenchmark {
+
+    private static final int NUM_DAYS = 7;
+    private static final int NUM_POINTS = 64;
+
+    // Roughly the sizes used by CalendarView on a medium density screen.
+    private static final int CELL_WIDTH = 64;
+    private static final int HOUR_HEIGHT = 50;
+    private static final int HOUR_GAP = 1;
+    private static final int MIN_EVENT_HEIGHT = 15;
+    private static final int CELL_MARGIN = 1;
+
+    @Param({ EventGenerator.SPARSE, EventGenerator.DENSE, EventGenerator.ALL_DAY })
+    public String kind;
+
+    private ArrayList<Event> mEvents;
+    private EventStore mStore;
+    private EventGeometry mGeometry;
+    private float[] mPoints;
+
+    @Setup
+    public void setUp() {
+        mEvents = EventGenerator.create(kind, NUM_DAYS, 1);
+        Event.computePositions(mEvents);
+        mStore = new EventStore();
+        mStore.set(mEvents, EventGenerator.START_DAY, NUM_DAYS);
+
+        mGeometry = new EventGeometry();
+        mGeometry.setCellMargin(CELL_MARGIN);
+        mGeometry.setHourGap(HOUR_GAP);
+        mGeometry.setMinEventHeight(MIN_EVENT_HEIGHT);
+        mGeometry.setHourHeight(HOUR_HEIGHT);
+
+        // Give every event its rectangle, as a draw would.
+        computeEventRects();
+
+        Random random = new Random(3);
+        int width = NUM_DAYS * (CELL_WIDTH + HOUR_GAP);
+        int height = 24 * (HOUR_HEIGHT + HOUR_GAP);
+        mPoints = new float[2 * NUM_POINTS];
+        for (int i = 0; i < NUM_POINTS; i++) {
+            mPoints[2 * i] = random.nextInt(width);
+            mPoints[2 * i + 1] = random.nextInt(height);
+        }
+    }
+
+    @Benchmark
+    public int computeEventRects() {
+        int visible = 0;
+        ArrayList<Event> events = mEvents;
+        int numEvents = events.size();
+        for (int day = 0; day < NUM_DAYS; day++) {
+            int date = EventGenerator.START_DAY + day;
+            int left = day * (CELL_WIDTH + HOUR_GAP);
+            for (int i = 0; i < numEvents; i++) {
+                if (mGeometry.computeEventRect(date, left, 0, CELL_WIDTH, events.get(i))) {
+                    visible++;
+                }
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Places every event rectangle of the week in one pass over the store's
+     * day index, as CalendarView does after a reload or a resize.
+     */
+    @Benchmark
+    public float computeDayRects() {
+        mStore.computeDayRects(mGeometry, 0, CELL_WIDTH + HOUR_GAP, 0, CELL_WIDTH);
+        return mStore.dayRects[EventStore.RECT_BOTTOM];
+    }
+
+    /**
+     * Finds the nearest event to each point by measuring the distance to
+     * every event, as the selection code does for a tap.
+     */
+    @Benchmark
+    public float pointToEvent() {
+        float total = 0;
+        ArrayList<Event> events = mEvents;
+        int numEvents = events.size();
+        for (int p = 0; p < NUM_POINTS; p++) {
+            float x = mPoints[2 * p];
+            float y = mPoints[2 * p + 1];
+            float min = Float.MAX_VALUE;
+            for (int i = 0; i < numEvents; i++) {
+                float dist = mGeometry.pointToEvent(x, y, events.get(i));
+                if (dist < min) {
+                    min = dist;
+                }
+            }
+            total += min;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the column layout that runs on every load, and the tests it
+ * and the views use to find overlapping events.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayoutBenchmark {
+
+    @Param({ EventGenerator.SPARSE, EventGenerator.DENSE, EventGenerator.ALL_DAY })
+    public String kind;
+
+    // A week view and the month grid.
+    @Param({ "7", "42" })
+    public int numDays;
+
+    private ArrayList<Event> mEvents;
+
+    @Setup
+    public void setUp() {
+        mEvents = EventGenerator.create(kind, numDays, 1);
+    }
+
+    @Benchmark
+    public int computePositions() {
+        Event.computePositions(mEvents);
+        return mEvents.get(mEvents.size() - 1).getColumn();
+    }
+
+    /**
+     * Asks, for every hour of every day, which events intersect it, as the
+     * selection code does.
+     */
+    @Benchmark
+    public int intersects() {
+        int count = 0;
+        ArrayList<Event> events = mEvents;
+        int numEvents = events.size();
+        for (int day = 0; day < numDays; day++) {
+            int julianDay = EventGenerator.START_DAY + day;
+            for (int hour = 0; hour < 24; hour++) {
+                int startMinute = hour * 60;
+                int endMinute = startMinute + 60;
+                for (int i = 0; i < numEvents; i++) {
+                    if (events.get(i).intersects(julianDay, startMinute, endMinute)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -42,6 +42,8 @@ public final class R {
         public static final int preferences_alert_type_values=0x7f060005;
         public static final int preferences_default_reminder_labels=0x7f060002;
         public static final int preferences_default_reminder_values=0x7f060003;
+        public static final int preferences_free_slot_length_labels=0x7f060018;
+        public static final int preferences_free_slot_length_values=0x7f060019;
         /**  Choices for the "Reminder minutes" spinner.
          These must be kept in sync with the reminder_minutes_values array.
     
@@ -327,6 +329,12 @@ public final class R {
         /**  the title of the alert/notification activity 
          */
         public static final int alert_title=0x7f080027;
+        /**  This is shown in the all-day area of the day and week views, on each
+         day with more all-day events than there is room for.  For example,
+         if 2 of a day's all-day events could not be shown, it reads '+2'.
+         It should be as short as possible to fit in a narrow day column. 
+         */
+        public static final int all_day_plus_N=0x7f080077;
         /**  This is the label underneath the icon for Calendar 
          */
         public static final int app_label=0x7f080002;
@@ -448,6 +456,16 @@ public final class R {
          repeats every weekday (Monday through Friday) 
          */
         public static final int every_weekday=0x7f08004c;
+        /**  This is a label on a menu item in the Day and Week views.  Pressing
+         this menu item finds the next stretch of free time, with no events
+         in it, on the days shown.  Its length is set in the Settings. 
+         */
+        public static final int find_free_slot=0x7f080078;
+        /**  This message is shown briefly after pressing the "Find free time"
+         menu item.  The parameter is the time range that is free, such as
+         "10:15am - 11:15am". 
+         */
+        public static final int free_slot_found=0x7f08007a;
         /**  fwr687 
  fwr687 
          */
@@ -543,6 +561,10 @@ public final class R {
         /**  Body of alert shown if the user tries to create an event and has no calendars 
          */
         public static final int no_calendars_found=0x7f080038;
+        /**  This message is shown briefly if there is no free time left on the
+         days shown after pressing the "Find free time" menu item. 
+         */
+        public static final int no_free_slot=0x7f080079;
         /**  Title of alert shown if the user tries to create an event and has no calendars 
          */
         public static final int no_syncable_calendars=0x7f080037;
@@ -620,6 +642,17 @@ public final class R {
         /**  List item label for setting the default number of reminder minutes 
          */
         public static final int preferences_default_reminder_title=0x7f080064;
+        /**  DO NOT TRANSLATE 
+         */
+        public static final int preferences_free_slot_length_default=0x7f08007d;
+        /**  Title of dialog for setting how long a stretch of free time the
+         "Find free time" menu item looks for 
+         */
+        public static final int preferences_free_slot_length_dialog=0x7f08007c;
+        /**  List item label for setting how long a stretch of free time the
+         "Find free time" menu item looks for 
+         */
+        public static final int preferences_free_slot_length_title=0x7f08007b;
         /**  This is the title of a section in the Settings screen for settings
          related to viewing calendar events 
          */
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.util.Arrays;
+
+/**
+ * Packs the all-day events shown by the day and week views into rows.
+ *
+ * Each event is clipped to the days shown and placed, first-fit, in the
+ * lowest row that is free on all of those days.  The events are placed in
+ * order of their first shown day, longest first, which uses as few rows as
+ * the busiest day needs.  The row of each all-day event is set as its
+ * column, both in the Event and in the store's column array.
+ *
+ * At most a given number of rows are shown.  If more are needed, the last
+ * shown row is kept for a count of the events that did not fit on each
+ * day, so that rows never shrink below a readable height.
+ *
+ * The arrays are only grown, never shrunk, so packing the events of a new
+ * week does not allocate once it has seen the busiest week.
+ */
+class AllDayLayout {
+
+    private int mFirstDay;
+    private int mNumDays;
+    private int mNumRows;
+    private int mNumEventRows;
+
+    // The store indices of the shown all-day events, in store order.
+    private int[] mVisible = new int[0];
+    private int mNumVisible;
+
+    // Indexed by day offset: all the all-day events on that day, and how
+    // many of them are hidden.
+    private int[] mDayCounts = new int[0];
+    private int[] mOverflow = new int[0];
+
+    // (start << 48 | (numDays - length) << 32 | index) of each event to
+    // place, sorted into placement order.
+    private long[] mOrder = new long[0];
+
+    // The last day offset taken in each row so far.
+    private int[] mRowEnds = new int[0];
+
+    /**
+     * Packs the all-day events of the store that are shown on the numDays
+     * days starting at the Julian day firstDay, showing at most maxRows
+     * rows.
+     */
+    void layout(EventStore store, int firstDay, int numDays, int maxRows) {
+        mFirstDay = firstDay;
+        mNumDays = numDays;
+        if (mDayCounts.length < numDays) {
+            mDayCounts = new int[numDays];
+            mOverflow = new int[numDays];
+        }
+        for (int d = 0; d < numDays; d++) {
+            mDayCounts[d] = 0;
+            mOverflow[d] = 0;
+        }
+
+        int size = store.size();
+        if (mOrder.length < size) {
+            int capacity = Math.max(size, mOrder.length * 3 / 2);
+            mOrder = new long[capacity];
+            mVisible = new int[capacity];
+        }
+        int lastDay = firstDay + numDays - 1;
+        int numEvents = 0;
+        for (int i = 0; i < size; i++) {
+            if (!store.allDay[i] || store.startDay[i] > lastDay || store.endDay[i] < firstDay) {
+                continue;
+            }
+            int start = Math.max(store.startDay[i], firstDay) - firstDay;
+            int end = Math.min(store.endDay[i], lastDay) - firstDay;
+            mOrder[numEvents++] = ((long) start << 48)
+                    | ((long) (numDays - (end - start + 1)) << 32) | i;
+            for (int d = start; d <= end; d++) {
+                mDayCounts[d]++;
+            }
+        }
+        Arrays.sort(mOrder, 0, numEvents);
+
+        // First fit: since the events come in order of their first day, a
+        // row is free for one if the row's last event ended before that.
+        int numRows = 0;
+        for (int k = 0; k < numEvents; k++) {
+            int i = (int) mOrder[k];
+            int start = (int) (mOrder[k] >>> 48);
+            int end = Math.min(store.endDay[i], lastDay) - firstDay;
+            int row = 0;
+            while (row < numRows && mRowEnds[row] >= start) {
+                row++;
+            }
+            if (row == numRows) {
+                if (mRowEnds.length == numRows) {
+                    int[] rowEnds = new int[Math.max(4, numRows * 2)];
+                    System.arraycopy(mRowEnds, 0, rowEnds, 0, numRows);
+                    mRowEnds = rowEnds;
+                }
+                numRows++;
+            }
+            mRowEnds[row] = end;
+
+            // Keep the store's copy in step for readers of its arrays.
+            store.column[i] = row;
+            store.getEvent(i).setColumn(row);
+        }
+
+        // Keep the last shown row for the overflow counts if not all fit.
+        if (numRows > maxRows) {
+            mNumRows = maxRows;
+            mNumEventRows = maxRows - 1;
+        } else {
+            mNumRows = numRows;
+            mNumEventRows = numRows;
+        }
+
+        int numVisible = 0;
+        for (int i = 0; i < size; i++) {
+            if (!store.allDay[i] || store.startDay[i] > lastDay || store.endDay[i] < firstDay) {
+                continue;
+            }
+            Event event = store.getEvent(i);
+            if (event.getColumn() < mNumEventRows) {
+                mVisible[numVisible++] = i;
+                continue;
+            }
+            int start = Math.max(store.startDay[i], firstDay) - firstDay;
+            int end = Math.min(store.endDay[i], lastDay) - firstDay;
+            for (int d = start; d <= end; d++) {
+                mOverflow[d]++;
+            }
+        }
+        mNumVisible = numVisible;
+    }
+
+    /**
+     * Returns the number of rows shown, including the row of overflow
+     * counts if there is one.  This is 0 if there are no all-day events.
+     */
+    int getNumRows() {
+        return mNumRows;
+    }
+
+    /**
+     * Returns the number of rows that show events.  An all-day event is
+     * shown if its column is less than this.
+     */
+    int getNumEventRows() {
+        return mNumEventRows;
+    }
+
+    /**
+     * Returns true if the given event is an all-day event with a row shown.
+     */
+    boolean isVisible(Event event) {
+        return event.allDay && event.getColumn() < mNumEventRows;
+    }
+
+    /**
+     * Returns the number of shown all-day events; their store indices are
+     * the first entries of {@link #getVisible}.
+     */
+    int getNumVisible() {
+        return mNumVisible;
+    }
+
+    int[] getVisible() {
+        return mVisible;
+    }
+
+    /**
+     * Returns the number of all-day events on the given day, shown or not.
+     */
+    int getNumEvents(int julianDay) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        return mDayCounts[d];
+    }
+
+    /**
+     * Returns the number of all-day events on the given day that did not
+     * fit in the rows shown.
+     */
+    int getOverflow(int julianDay) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        return mOverflow[d];
+    }
+}
@@ -74,6 +74,7 @@ public class CalendarActivity extends Activity implements Navigator {
             if (action.equals(Intent.ACTION_TIME_CHANGED)
                     || action.equals(Intent.ACTION_DATE_CHANGED)
                     || action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+                mEventLoader.clearCache();
                 eventsChanged();
             }
         }
@@ -90,7 +91,10 @@ public class CalendarActivity extends Activity implements Navigator {
 
         @Override
         public void onChange(boolean selfChange) {
-            eventsChanged();
+            // The shared cache has its own observer, but it may not have
+            // been notified yet.
+            mEventLoader.clearCache();
+            eventsChangedInProvider();
         }
     };
 
@@ -236,6 +240,16 @@ public class CalendarActivity extends Activity implements Navigator {
         return view.mSelectionAllDay;
     }
 
+    /**
+     * Called when the calendar provider reports a change.  Only the instances
+     * that actually changed are replaced in the current view.
+     */
+    void eventsChangedInProvider() {
+        CalendarView view = (CalendarView) mViewSwitcher.getCurrentView();
+        ((CalendarView) mViewSwitcher.getNextView()).clearCachedEvents();
+        view.reloadChangedEvents();
+    }
+
     void eventsChanged() {
         CalendarView view = (CalendarView) mViewSwitcher.getCurrentView();
         view.clearCachedEvents();
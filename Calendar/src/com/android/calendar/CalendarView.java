@@ -30,7 +30,6 @@ import android.content.res.TypedArray;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PorterDuff;
@@ -64,11 +63,10 @@ import android.view.ContextMenu.ContextMenuInfo;
 import android.widget.ImageView;
 import android.widget.PopupWindow;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This is the base class for a set of classes that implement views (day view
@@ -140,7 +138,7 @@ public class CalendarView extends View
     private Time mCurrentTime;
     //Update the current time line every five minutes if the window is left open that long
     private static final int UPDATE_CURRENT_TIME_DELAY = 300000;
-    private UpdateCurrentTime mUpdateCurrentTime = new UpdateCurrentTime();
+    UpdateCurrentTime mUpdateCurrentTime = new UpdateCurrentTime();
     private int mTodayJulianDay;
 
     private Typeface mBold = Typeface.DEFAULT_BOLD;
@@ -163,7 +161,28 @@ public class CalendarView extends View
      */
     private long mLastReloadMillis;
 
+    // The first and last Julian day touched by the last merged reload.
+    private final int[] mChangedDays = new int[2];
+
     private ArrayList<Event> mEvents = new ArrayList<Event>();
+
+    // The draw-time fields of mEvents in primitive arrays.
+    private final EventStore mEventStore = new EventStore();
+
+    // The drawn event rectangles by day and hour, for touch hit-testing.
+    private final HitGrid mHitGrid = new HitGrid();
+
+    // The keyboard and trackball links between the selected events.
+    private final NeighborIndex mNeighborIndex = new NeighborIndex();
+
+    // The busy time of each day shown.
+    private final FreeBusy mFreeBusy = new FreeBusy();
+
+    // The rows of the all-day events shown.
+    private final AllDayLayout mAllDayLayout = new AllDayLayout();
+    private String mAllDayMoreFormat;
+    // The "+N" labels drawn under the all-day rows, indexed by N
+    private String[] mAllDayMoreLabels = new String[0];
     private int mSelectionDay;        // Julian day
     private int mSelectionHour;
 
@@ -179,6 +198,7 @@ public class CalendarView extends View
     private RectF mRectF = new RectF();
     private Rect mSrcRect = new Rect();
     private Rect mDestRect = new Rect();
+    private Rect mDirtyRect = new Rect();
     private Paint mPaint = new Paint();
     private Paint mPaintBorder = new Paint();
     private Paint mEventTextPaint = new Paint();
@@ -195,17 +215,35 @@ public class CalendarView extends View
     private static final int POPUP_DISMISS_DELAY = 3000;
     private DismissPopup mDismissPopup = new DismissPopup();
 
-    // For drawing to an off-screen Canvas
-    private Bitmap mBitmap;
-    private Canvas mCanvas;
+    // For drawing the scrollable area to off-screen tiles of a few hours
+    // each
+    private static final int TILE_HOURS = 2;
+    private final GridTiles mGridTiles = new GridTiles(new GridTiles.Renderer() {
+        public void drawTile(Canvas canvas, int top, int bottom) {
+            doDraw(canvas, top, bottom);
+        }
+    });
     private boolean mRedrawScreen = true;
     private boolean mRemeasure = true;
 
+    // The grid and hour labels under the events, which only change with
+    // the size or the hour format.  One bitmap holds an hour row of the
+    // grid and the other the column of hour labels for the whole day.
+    private Bitmap mGridRowBitmap;
+    private Bitmap mHourLabelsBitmap;
+    private boolean mGridLayerValid;
+    private int mGridLayerWidth;
+    private int mGridLayerCellHeight;
+
     private final EventLoader mEventLoader;
     protected final EventGeometry mEventGeometry;
 
     private static final int DAY_GAP = 1;
     private static final int HOUR_GAP = 1;
+
+    // How far, in pixels, from a touch an event may be and still be hit.
+    private static final int SELECTION_SLOP = 10;
+
     private static int SINGLE_ALLDAY_HEIGHT = 20;
     private static int MAX_ALLDAY_HEIGHT = 72;
     private static int ALLDAY_TOP_MARGIN = 3;
@@ -295,6 +333,8 @@ public class CalendarView extends View
     private boolean mIs24HourFormat;
 
     private float[] mCharWidths = new float[MAX_EVENT_TEXT_LEN];
+    private final TextLayoutCache mTextLayoutCache = new TextLayoutCache();
+    private final EventPalette mPalette = new EventPalette();
     private ArrayList<Event> mSelectedEvents = new ArrayList<Event>();
     private boolean mComputeSelectedEvents;
     private Event mSelectedEvent;
@@ -425,6 +465,7 @@ public class CalendarView extends View
         mWeek_sundayColor = mResources.getColor(R.color.week_sunday);
         mCalendarDateBannerTextColor = mResources.getColor(R.color.calendar_date_banner_text_color);
         mCalendarAllDayBackground = mResources.getColor(R.color.calendar_all_day_background);
+        mAllDayMoreFormat = mResources.getString(R.string.all_day_plus_N);
         mCalendarAmPmLabel = mResources.getColor(R.color.calendar_ampm_label);
         mCalendarDateBannerBackground = mResources.getColor(R.color.calendar_date_banner_background);
         mCalendarDateSelected = mResources.getColor(R.color.calendar_date_selected);
@@ -437,6 +478,8 @@ public class CalendarView extends View
         mCalendarHourSelected = mResources.getColor(R.color.calendar_hour_selected);
         mSelectionColor = mResources.getColor(R.color.selection);
         mPressedColor = mResources.getColor(R.color.pressed);
+        mPalette.addColor(mSelectionColor);
+        mPalette.addColor(mPressedColor);
         mSelectedEventTextColor = mResources.getColor(R.color.calendar_event_selected_text_color);
         mEventTextColor = mResources.getColor(R.color.calendar_event_text_color);
         mCurrentTimeMarkerColor = mResources.getColor(R.color.current_time_marker);
@@ -545,7 +588,12 @@ public class CalendarView extends View
 
     public void updateIs24HourFormat() {
         mIs24HourFormat = DateFormat.is24HourFormat(mParentActivity);
-        mHourStrs = mIs24HourFormat ? CalendarData.s24Hours : CalendarData.s12HoursNoAmPm;
+        String[] hourStrs = mIs24HourFormat ? CalendarData.s24Hours : CalendarData.s12HoursNoAmPm;
+        if (hourStrs != mHourStrs) {
+            mHourStrs = hourStrs;
+            mGridLayerValid = false;
+            mRedrawScreen = true;
+        }
     }
 
     /**
@@ -737,35 +785,22 @@ public class CalendarView extends View
             mHasAllDayEvent[day] = false;
         }
 
-        // Compute the space needed for the all-day events, if any.
-        // Make a pass over all the events, and keep track of the maximum
-        // number of all-day events in any one day.  Also, keep track of
-        // the earliest event in each day.
-        int maxAllDayEvents = 0;
+        // Compute the space needed for the all-day events, if any, by
+        // packing them into as many rows as fit.  Also, keep track of the
+        // earliest event in each day.
+        mAllDayLayout.layout(mEventStore, mFirstJulianDay, mNumDays,
+                MAX_ALLDAY_HEIGHT / MAX_ALLDAY_EVENT_HEIGHT);
+        int maxAllDayEvents = mAllDayLayout.getNumRows();
+        for (int day = 0; day < mNumDays; day++) {
+            mHasAllDayEvent[day] = mAllDayLayout.getNumEvents(mFirstJulianDay + day) > 0;
+        }
         ArrayList<Event> events = mEvents;
         int len = events.size();
         for (int ii = 0; ii < len; ii++) {
             Event event = events.get(ii);
             if (event.startDay > mLastJulianDay || event.endDay < mFirstJulianDay)
                 continue;
-            if (event.allDay) {
-                int max = event.getColumn() + 1;
-                if (maxAllDayEvents < max) {
-                    maxAllDayEvents = max;
-                }
-                int daynum = event.startDay - mFirstJulianDay;
-                int durationDays = event.endDay - event.startDay + 1;
-                if (daynum < 0) {
-                    durationDays += daynum;
-                    daynum = 0;
-                }
-                if (daynum + durationDays > mNumDays) {
-                    durationDays = mNumDays - daynum;
-                }
-                for (int day = daynum; durationDays > 0; day++, durationDays--) {
-                    mHasAllDayEvent[day] = true;
-                }
-            } else {
+            if (!event.allDay) {
                 int daynum = event.startDay - mFirstJulianDay;
                 int hour = event.startTime / 60;
                 if (daynum >= 0 && hour < mEarliestStartHour[daynum]) {
@@ -809,16 +844,15 @@ public class CalendarView extends View
         int usedGridAreaHeight = (mCellHeight + HOUR_GAP) * mNumHours + HOUR_GAP;
         int bottomSpace = mGridAreaHeight - usedGridAreaHeight;
         mEventGeometry.setHourHeight(mCellHeight);
+        mEventStore.invalidateDayRects();
+        mHitGrid.setRowHeight(mCellHeight + HOUR_GAP);
 
-        // Create an off-screen bitmap that we can draw into.
+        // Size the off-screen tiles that we draw into.  The whole day is
+        // still laid out as one tall area, mBitmapHeight pixels high.
         mBitmapHeight = HOUR_GAP + 24 * (mCellHeight + HOUR_GAP) + bottomSpace;
-        if ((mBitmap == null || mBitmap.getHeight() < mBitmapHeight) && width > 0 &&
-                mBitmapHeight > 0) {
-            if (mBitmap != null) {
-                mBitmap.recycle();
-            }
-            mBitmap = Bitmap.createBitmap(width, mBitmapHeight, Bitmap.Config.RGB_565);
-            mCanvas = new Canvas(mBitmap);
+        if (width > 0 && mCellHeight > 0) {
+            mGridTiles.setSize(width, mBitmapHeight, TILE_HOURS * (mCellHeight + HOUR_GAP),
+                    mGridAreaHeight);
         }
         mMaxViewStartY = mBitmapHeight - mGridAreaHeight;
 
@@ -979,8 +1013,7 @@ public class CalendarView extends View
                     // the "selected" state.  We treat short-press and
                     // long-press the same here because nothing was selected.
                     mSelectionMode = SELECTION_SELECTED;
-                    mRedrawScreen = true;
-                    invalidate();
+                    invalidateSelection();
                     break;
                 }
 
@@ -989,8 +1022,7 @@ public class CalendarView extends View
                     switchViews(true /* trackball */);
                 } else {
                     mSelectionMode = SELECTION_LONGPRESS;
-                    mRedrawScreen = true;
-                    invalidate();
+                    invalidateSelection();
                     performLongClick();
                 }
                 break;
@@ -1014,24 +1046,35 @@ public class CalendarView extends View
                 // Display the selection box but don't move or select it
                 // on this key press.
                 mSelectionMode = SELECTION_SELECTED;
-                mRedrawScreen = true;
-                invalidate();
+                computeSelectedEvents();
+                invalidateSelection();
                 return true;
             } else if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER) {
                 // Display the selection box but don't select it
                 // on this key press.
                 mSelectionMode = SELECTION_PRESSED;
-                mRedrawScreen = true;
-                invalidate();
+                computeSelectedEvents();
+                invalidateSelection();
                 return true;
             }
         }
 
+        if (keyCode == KeyEvent.KEYCODE_DPAD_RIGHT || keyCode == KeyEvent.KEYCODE_DPAD_LEFT
+                || keyCode == KeyEvent.KEYCODE_DPAD_UP || keyCode == KeyEvent.KEYCODE_DPAD_DOWN) {
+            // Redraw where the selection was.  Where it moves to is redrawn
+            // once the selected event there is known.
+            invalidateSelection();
+        }
+
         mSelectionMode = SELECTION_SELECTED;
         mScrolling = false;
         boolean redraw;
         int selectionDay = mSelectionDay;
 
+        // Moving the hour selection may scroll the grid, see adjustHourSelection().
+        int viewStartY = mViewStartY;
+        int firstHour = mFirstHour;
+
         switch (keyCode) {
         case KeyEvent.KEYCODE_DEL:
             // Delete the selected event, if any
@@ -1141,8 +1184,13 @@ public class CalendarView extends View
         mComputeSelectedEvents = true;
 
         if (redraw) {
-            mRedrawScreen = true;
-            invalidate();
+            computeSelectedEvents();
+            if (mViewStartY != viewStartY || mFirstHour != firstHour) {
+                // The whole grid moved, not just the selection.
+                invalidate();
+            } else {
+                invalidateSelection();
+            }
             return true;
         }
 
@@ -1250,6 +1298,92 @@ public class CalendarView extends View
         }
     };
 
+    private void setEvents(ArrayList<Event> events, int firstDay) {
+        mEvents = events;
+        mEventStore.set(events, firstDay, mNumDays);
+        mPalette.addColors(mEventStore);
+        mFreeBusy.set(mEventStore);
+        mHitGrid.reset(firstDay, mNumDays, mCellHeight + HOUR_GAP);
+        mNeighborIndex.invalidate();
+    }
+
+    private void setEvents(ArrayList<Event> events) {
+        mEvents = events;
+        mEventStore.set(events);
+        mPalette.addColors(mEventStore);
+        mHitGrid.invalidate();
+        mNeighborIndex.invalidate();
+    }
+
+    int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    /**
+     * Shows the given events, which must have their columns computed, on
+     * the days now shown.  Package private so that tests can draw known
+     * events.
+     */
+    void showEvents(ArrayList<Event> events) {
+        setEvents(events, mFirstJulianDay);
+        mRemeasure = true;
+        mRedrawScreen = true;
+    }
+
+    /**
+     * Draws the whole day into the given canvas, as redrawing every tile
+     * does.  Package private so that tests can measure a full redraw.
+     */
+    void drawWholeDay(Canvas canvas) {
+        if (mRemeasure) {
+            remeasure(getWidth(), getHeight());
+            mRemeasure = false;
+        }
+        doDraw(canvas, 0, mBitmapHeight);
+    }
+
+    /**
+     * Re-reads the displayed range after the provider reported a change and
+     * merges the result into the events on screen.  Nothing is redrawn if
+     * no displayed instance changed, and the selection is kept unless the
+     * selected day was affected.
+     */
+    void reloadChangedEvents() {
+        if (mParentActivity == null || mLastReloadMillis == 0) {
+            reloadEvents();
+            return;
+        }
+
+        final ArrayList<Event> events = new ArrayList<Event>();
+        mEventLoader.reloadChangedEventsInBackground(mNumDays, Event.PROFILE_GRID, events,
+                mLastReloadMillis,
+                new Runnable() {
+            public void run() {
+                int[] changedDays = mChangedDays;
+                if (Event.mergeEvents(mEvents, events, changedDays) == 0) {
+                    return;
+                }
+                // Redraw only the tiles showing events on the changed days,
+                // both where they were and where they are now.
+                invalidateEventBands(changedDays[0], changedDays[1]);
+                setEvents(events);
+                mFreeBusy.update(mEventStore, changedDays[0], changedDays[1]);
+                computeEventRects();
+                invalidateEventBands(changedDays[0], changedDays[1]);
+
+                if (mSelectionDay >= changedDays[0] && mSelectionDay <= changedDays[1]) {
+                    mSelectedEvent = null;
+                    mPrevSelectedEvent = null;
+                    mSelectedEvents.clear();
+                    mComputeSelectedEvents = true;
+                    mRedrawScreen = true;
+                }
+                mRemeasure = true;
+                invalidate();
+            }
+        }, mCancelCallback);
+    }
+
     void reloadEvents() {
         // Protect against this being called before this view has been
         // initialized.
@@ -1274,13 +1408,27 @@ public class CalendarView extends View
             return;
         }
         mLastReloadMillis = millis;
+        final int firstDay = Time.getJulianDay(millis, weekStart.gmtoff);
+
+        // The ranges on either side, prefetched once this one is showing
+        weekStart.monthDay -= mNumDays;
+        final long previousMillis = weekStart.normalize(true /* ignore isDst */);
+        weekStart.monthDay += 2 * mNumDays;
+        final long nextMillis = weekStart.normalize(true /* ignore isDst */);
 
         // load events in the background
         mParentActivity.startProgressSpinner();
         final ArrayList<Event> events = new ArrayList<Event>();
-        mEventLoader.loadEventsInBackground(mNumDays, events, millis, new Runnable() {
+        mEventLoader.loadEventsInBackground(mNumDays, Event.PROFILE_GRID, events, millis,
+                new Runnable() {
             public void run() {
-                mEvents = events;
+                // Drop every reference to the old events before they go
+                // back to the pool.
+                mSelectedEvent = null;
+                mPrevSelectedEvent = null;
+                mSelectedEvents.clear();
+                Event.recycleEvents(mEvents);
+                setEvents(events, firstDay);
                 mRemeasure = true;
                 mRedrawScreen = true;
                 mComputeSelectedEvents = true;
@@ -1293,6 +1441,8 @@ public class CalendarView extends View
                 mTitleTextView.setText(mDateRange);
 
                 invalidate();
+                mEventLoader.prefetchEventsInBackground(mNumDays, Event.PROFILE_GRID,
+                        previousMillis, nextMillis);
             }
         }, mCancelCallback);
     }
@@ -1304,8 +1454,9 @@ public class CalendarView extends View
             mRemeasure = false;
         }
 
-        if (mRedrawScreen && mCanvas != null) {
-            doDraw(mCanvas);
+        if (mRedrawScreen) {
+            computeSelectedEvents();
+            mGridTiles.invalidateAll();
             mRedrawScreen = false;
         }
 
@@ -1327,9 +1478,7 @@ public class CalendarView extends View
             canvas.translate(-mViewStartX, 0);
         }
 
-        if (mBitmap != null) {
-            drawCalendarView(canvas);
-        }
+        drawCalendarView(canvas);
 
         // Draw the fixed areas (that don't scroll) directly to the canvas.
         drawAfterScroll(canvas);
@@ -1342,15 +1491,9 @@ public class CalendarView extends View
 
     private void drawCalendarView(Canvas canvas) {
 
-        // Copy the scrollable region from the big bitmap to the canvas.
-        Rect src = mSrcRect;
+        // Copy the scrollable region from the tiles to the canvas, drawing
+        // the tiles that are not up to date.
         Rect dest = mDestRect;
-
-        src.top = mViewStartY;
-        src.bottom = mViewStartY + mGridAreaHeight;
-        src.left = 0;
-        src.right = mViewWidth;
-
         dest.top = mFirstCell;
         dest.bottom = mViewHeight;
         dest.left = 0;
@@ -1359,7 +1502,7 @@ public class CalendarView extends View
         canvas.save();
         canvas.clipRect(dest);
         canvas.drawColor(0, PorterDuff.Mode.CLEAR);
-        canvas.drawBitmap(mBitmap, src, dest, null);
+        mGridTiles.draw(canvas, mViewStartY, mGridAreaHeight, mFirstCell);
         canvas.restore();
     }
 
@@ -1506,26 +1649,29 @@ public class CalendarView extends View
         canvas.drawRect(r, p);
     }
 
-    private void doDraw(Canvas canvas) {
+    /**
+     * Draws the band of the scrollable area from y = top to y = bottom.
+     * Only the events and the current time line in the band are drawn.
+     */
+    private void doDraw(Canvas canvas, int top, int bottom) {
         Paint p = mPaint;
         Rect r = mRect;
-        int lineY = mCurrentTime.hour*(mCellHeight + HOUR_GAP)
-            + ((mCurrentTime.minute * mCellHeight) / 60)
-            + 1;
+        int lineY = getCurrentTimeLineY();
 
-        drawGridBackground(r, canvas, p);
-        drawHours(r, canvas, p);
+        drawGridLayer(r, top, bottom, canvas, p);
+        drawSelection(r, canvas, p);
 
         // Draw each day
         int x = mHoursWidth;
         int deltaX = mCellWidth + DAY_GAP;
         int cell = mFirstJulianDay;
         for (int day = 0; day < mNumDays; day++, cell++) {
-            drawEvents(cell, x, HOUR_GAP, canvas, p);
+            drawEvents(cell, x, HOUR_GAP, top, bottom, canvas, p);
             //If this is today
             if(cell == mTodayJulianDay) {
-                //And the current time shows up somewhere on the screen
-                if(lineY >= mViewStartY && lineY < mViewStartY + mViewHeight - 2) {
+                //And the current time shows up somewhere in the band
+                if (lineY + CURRENT_TIME_MARKER_HEIGHT >= top
+                        && lineY - CURRENT_TIME_MARKER_HEIGHT < bottom) {
                     //draw both the marker and the line
                     drawCurrentTimeMarker(lineY, canvas, p);
                     drawCurrentTimeLine(r, x, lineY, canvas, p);
@@ -1535,7 +1681,83 @@ public class CalendarView extends View
         }
     }
 
-    private void drawHours(Rect r, Canvas canvas, Paint p) {
+    /**
+     * Draws the band of the grid and hour labels from y = top to y = bottom
+     * from the cached bitmaps, drawing those first if needed.
+     */
+    private void drawGridLayer(Rect r, int top, int bottom, Canvas canvas, Paint p) {
+        ensureGridLayer();
+        Bitmap row = mGridRowBitmap;
+        int rowHeight = mCellHeight + HOUR_GAP;
+        int lastHour = Math.min((bottom - 1) / rowHeight, 23);
+        for (int hour = top / rowHeight; hour <= lastHour; hour++) {
+            canvas.drawBitmap(row, 0, hour * rowHeight, null);
+        }
+
+        // Below the last hour there is only its bottom grid line, which is
+        // the top line of a row, and the default grid background.
+        int y = 24 * rowHeight;
+        if (bottom > y) {
+            Rect src = mSrcRect;
+            src.left = 0;
+            src.right = mViewWidth;
+            src.top = 0;
+            src.bottom = HOUR_GAP;
+            r.left = 0;
+            r.right = mViewWidth;
+            r.top = y;
+            r.bottom = y + HOUR_GAP;
+            canvas.drawBitmap(row, src, r, null);
+
+            p.setColor(mCalendarGridAreaBackground);
+            r.top = r.bottom;
+            r.bottom = mBitmapHeight;
+            canvas.drawRect(r, p);
+        }
+
+        // The hour labels down the left
+        Rect src = mSrcRect;
+        src.left = 0;
+        src.right = mHoursWidth;
+        src.top = top;
+        src.bottom = Math.min(bottom, y + HOUR_GAP);
+        if (src.top < src.bottom) {
+            r.left = 0;
+            r.right = mHoursWidth;
+            r.top = src.top;
+            r.bottom = src.bottom;
+            canvas.drawBitmap(mHourLabelsBitmap, src, r, null);
+        }
+    }
+
+    /**
+     * Draws an hour row of the grid and the column of hour labels into
+     * their bitmaps, unless the size and hour format are unchanged since.
+     */
+    private void ensureGridLayer() {
+        int rowHeight = mCellHeight + HOUR_GAP;
+        if (mGridLayerValid && mGridLayerWidth == mViewWidth
+                && mGridLayerCellHeight == mCellHeight) {
+            return;
+        }
+        if (mGridRowBitmap != null) {
+            mGridRowBitmap.recycle();
+            mHourLabelsBitmap.recycle();
+        }
+        Paint p = new Paint();
+        Rect r = new Rect();
+        mGridRowBitmap = Bitmap.createBitmap(mViewWidth, rowHeight, Bitmap.Config.RGB_565);
+        drawGridBackground(r, new Canvas(mGridRowBitmap), p);
+        mHourLabelsBitmap = Bitmap.createBitmap(mHoursWidth, 24 * rowHeight + HOUR_GAP,
+                Bitmap.Config.RGB_565);
+        drawHourLabels(r, new Canvas(mHourLabelsBitmap), p);
+
+        mGridLayerWidth = mViewWidth;
+        mGridLayerCellHeight = mCellHeight;
+        mGridLayerValid = true;
+    }
+
+    private void drawHourLabels(Rect r, Canvas canvas, Paint p) {
         // Draw the background for the hour labels
         p.setColor(mCalendarHourBackground);
         r.top = 0;
@@ -1544,13 +1766,30 @@ public class CalendarView extends View
         r.right = mHoursWidth;
         canvas.drawRect(r, p);
 
-        // Fill the bottom left corner with the default grid background
-        r.top = r.bottom;
-        r.bottom = mBitmapHeight;
-        p.setColor(mCalendarGridAreaBackground);
-        canvas.drawRect(r, p);
+        setHourLabelPaint(p);
+        int right = mHoursWidth - HOURS_RIGHT_MARGIN;
+        int y = HOUR_GAP + mHoursTextHeight;
+
+        for (int i = 0; i < 24; i++) {
+            String time = mHourStrs[i];
+            canvas.drawText(time, right, y, p);
+            y += mCellHeight + HOUR_GAP;
+        }
+    }
+
+    private void setHourLabelPaint(Paint p) {
+        p.setColor(mCalendarHourLabel);
+        p.setTextSize(HOURS_FONT_SIZE);
+        p.setTypeface(mBold);
+        p.setTextAlign(Paint.Align.RIGHT);
+        p.setAntiAlias(true);
+    }
 
-        // Draw a highlight on the selected hour (if needed)
+    /**
+     * Draws the highlight on the selected hour, over the grid and its
+     * label, if there is one.
+     */
+    private void drawSelection(Rect r, Canvas canvas, Paint p) {
         if (mSelectionMode != SELECTION_HIDDEN && !mSelectionAllDay) {
             p.setColor(mCalendarHourSelected);
             r.top = mSelectionHour * (mCellHeight + HOUR_GAP);
@@ -1576,19 +1815,16 @@ public class CalendarView extends View
             saveSelectionPosition(r.left, r.top, r.right, r.bottom);
         }
 
-        p.setColor(mCalendarHourLabel);
-        p.setTextSize(HOURS_FONT_SIZE);
-        p.setTypeface(mBold);
-        p.setTextAlign(Paint.Align.RIGHT);
-        p.setAntiAlias(true);
-
-        int right = mHoursWidth - HOURS_RIGHT_MARGIN;
-        int y = HOUR_GAP + mHoursTextHeight;
-
-        for (int i = 0; i < 24; i++) {
-            String time = mHourStrs[i];
-            canvas.drawText(time, right, y, p);
-            y += mCellHeight + HOUR_GAP;
+        setHourLabelPaint(p);
+        if (mSelectionMode != SELECTION_HIDDEN && !mSelectionAllDay) {
+            // Put back the labels the highlight covers, which reaches a
+            // pixel into the next hour.
+            int right = mHoursWidth - HOURS_RIGHT_MARGIN;
+            int lastHour = Math.min(mSelectionHour + 1, 23);
+            for (int i = mSelectionHour; i <= lastHour; i++) {
+                int y = HOUR_GAP + mHoursTextHeight + i * (mCellHeight + HOUR_GAP);
+                canvas.drawText(mHourStrs[i], right, y, p);
+            }
         }
     }
 
@@ -1774,30 +2010,21 @@ public class CalendarView extends View
         int y = mBannerPlusMargin + ALLDAY_TOP_MARGIN;
         float left = mHoursWidth;
         int lastDay = firstDay + numDays - 1;
-        ArrayList<Event> events = mEvents;
-        int numEvents = events.size();
-        float drawHeight = mAllDayHeight;
-        float numRectangles = mMaxAllDayEvents;
+        EventStore store = mEventStore;
+        AllDayLayout allDayLayout = mAllDayLayout;
+        int numEvents = allDayLayout.getNumVisible();
+        int[] visible = allDayLayout.getVisible();
+        float height = getAllDayRowHeight();
         for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
-            if (!event.allDay)
-                continue;
+            Event event = store.getEvent(visible[i]);
             int startDay = event.startDay;
             int endDay = event.endDay;
-            if (startDay > lastDay || endDay < firstDay)
-                continue;
             if (startDay < firstDay)
                 startDay = firstDay;
             if (endDay > lastDay)
                 endDay = lastDay;
             int startIndex = startDay - firstDay;
             int endIndex = endDay - firstDay;
-            float height = drawHeight / numRectangles;
-
-            // Prevent a single event from getting too big
-            if (height > MAX_ALLDAY_EVENT_HEIGHT) {
-                height = MAX_ALLDAY_EVENT_HEIGHT;
-            }
 
             // Leave a one-pixel space between the vertical day lines and the
             // event rectangle.
@@ -1819,6 +2046,19 @@ public class CalendarView extends View
             }
         }
 
+        // Show how many events did not fit on each day in the last row.
+        if (allDayLayout.getNumEventRows() < allDayLayout.getNumRows()) {
+            eventTextPaint.setColor(mCalendarHourLabel);
+            float textY = y + height * allDayLayout.getNumEventRows() + mEventTextAscent;
+            for (int day = 0; day < numDays; day++) {
+                int overflow = allDayLayout.getOverflow(firstDay + day);
+                if (overflow > 0) {
+                    float textX = left + day * (mCellWidth + DAY_GAP) + 4;
+                    canvas.drawText(getAllDayMoreLabel(overflow), textX, textY, eventTextPaint);
+                }
+            }
+        }
+
         if (mSelectionAllDay) {
             // Compute the neighbors for the list of all-day events that
             // intersect the selected day.
@@ -1850,25 +2090,29 @@ public class CalendarView extends View
         }
     }
 
+    /**
+     * Returns the height of a row of all-day events, including the gap
+     * below it.
+     */
+    private float getAllDayRowHeight() {
+        float height = (float) mAllDayHeight / mMaxAllDayEvents;
+
+        // Prevent a single event from getting too big
+        if (height > MAX_ALLDAY_EVENT_HEIGHT) {
+            height = MAX_ALLDAY_EVENT_HEIGHT;
+        }
+        return height;
+    }
+
     private void computeAllDayNeighbors() {
         int len = mSelectedEvents.size();
         if (len == 0 || mSelectedEvent != null) {
             return;
         }
 
-        // First, clear all the links
-        for (int ii = 0; ii < len; ii++) {
-            Event ev = mSelectedEvents.get(ii);
-            ev.nextUp = null;
-            ev.nextDown = null;
-            ev.nextLeft = null;
-            ev.nextRight = null;
-        }
-
-        // For each event in the selected event list "mSelectedEvents", find
-        // its neighbors in the up and down directions.  This could be done
-        // more efficiently by sorting on the Event.getColumn() field, but
-        // the list is expected to be very small.
+        // Link each event in the selected event list "mSelectedEvents" to
+        // its neighbors in the up and down directions.
+        mNeighborIndex.computeAllDayLinks(mSelectedEvents);
 
         // Find the event in the same row as the previously selected all-day
         // event, if any.
@@ -1888,18 +2132,6 @@ public class CalendarView extends View
                 maxPositionEvent = ev;
                 maxPosition = position;
             }
-            for (int jj = 0; jj < len; jj++) {
-                if (jj == ii) {
-                    continue;
-                }
-                Event neighbor = mSelectedEvents.get(jj);
-                int neighborPosition = neighbor.getColumn();
-                if (neighborPosition == position - 1) {
-                    ev.nextUp = neighbor;
-                } else if (neighborPosition == position + 1) {
-                    ev.nextDown = neighbor;
-                }
-            }
         }
         if (startEvent != null) {
             mSelectedEvent = startEvent;
@@ -1908,6 +2140,24 @@ public class CalendarView extends View
         }
     }
 
+    /**
+     * Returns the "+N" label for the all-day area, formatting it only the
+     * first time a count is seen so that redrawing does not allocate.
+     */
+    private String getAllDayMoreLabel(int count) {
+        if (count >= mAllDayMoreLabels.length) {
+            String[] labels = new String[count + 1];
+            System.arraycopy(mAllDayMoreLabels, 0, labels, 0, mAllDayMoreLabels.length);
+            mAllDayMoreLabels = labels;
+        }
+        String label = mAllDayMoreLabels[count];
+        if (label == null) {
+            label = String.format(mAllDayMoreFormat, count);
+            mAllDayMoreLabels[count] = label;
+        }
+        return label;
+    }
+
     RectF drawAllDayEventRect(Event event, Canvas canvas, Paint p, Paint eventTextPaint) {
         // If this event is selected, then use the selection color
         if (mSelectedEvent == event) {
@@ -1933,31 +2183,23 @@ public class CalendarView extends View
         return rf;
     }
 
-    private void drawEvents(int date, int left, int top, Canvas canvas, Paint p) {
+    // Draws the events of the given day that fall between bandTop and
+    // bandBottom.
+    private void drawEvents(int date, int left, int top, int bandTop, int bandBottom,
+            Canvas canvas, Paint p) {
         Paint eventTextPaint = mEventTextPaint;
-        int cellWidth = mCellWidth;
-        int cellHeight = mCellHeight;
-
-        // Use the selected hour as the selection region
-        Rect selectionArea = mRect;
-        selectionArea.top = top + mSelectionHour * (cellHeight + HOUR_GAP);
-        selectionArea.bottom = selectionArea.top + cellHeight;
-        selectionArea.left = left;
-        selectionArea.right = selectionArea.left + cellWidth;
-
-        ArrayList<Event> events = mEvents;
-        int numEvents = events.size();
-        EventGeometry geometry = mEventGeometry;
+        EventStore store = mEventStore;
+        computeEventRects();
 
-        for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
-            if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
+        for (int entry = store.dayStart(date), end = store.dayEnd(date); entry < end;
+                entry++) {
+            if (!store.hasDayRect(entry)) {
                 continue;
             }
-
-            if (date == mSelectionDay && !mSelectionAllDay && mComputeSelectedEvents
-                    && geometry.eventIntersectsSelection(event, selectionArea)) {
-                mSelectedEvents.add(event);
+            Event event = store.getEvent(store.eventAt(entry));
+            store.copyDayRectTo(entry, event);
+            if (event.bottom < bandTop || event.top > bandBottom) {
+                continue;
             }
 
             RectF rf = drawEventRect(event, canvas, p, eventTextPaint);
@@ -1966,7 +2208,6 @@ public class CalendarView extends View
 
         if (date == mSelectionDay && !mSelectionAllDay && isFocused()
                 && mSelectionMode != SELECTION_HIDDEN) {
-            computeNeighbors();
             if (mSelectedEvent != null) {
                 RectF rf = drawEventRect(mSelectedEvent, canvas, p, eventTextPaint);
                 drawEventText(mSelectedEvent, rf, canvas, eventTextPaint, NORMAL_TEXT_TOP_MARGIN);
@@ -1974,6 +2215,196 @@ public class CalendarView extends View
         }
     }
 
+    /**
+     * Collects the timed events at the selected hour into mSelectedEvents,
+     * if they need computing, and picks the selected event among them.
+     * This is done once before the tiles are drawn, since a redraw may
+     * draw the selected day in several tiles or in none, and when the
+     * selection moves, so that what it moves to is known to be redrawn.
+     */
+    private void computeSelectedEvents() {
+        EventStore store = mEventStore;
+        computeEventRects();
+        if (mComputeSelectedEvents && !mSelectionAllDay) {
+            // Use the selected hour as the selection region
+            Rect selectionArea = mRect;
+            selectionArea.top = HOUR_GAP + mSelectionHour * (mCellHeight + HOUR_GAP);
+            selectionArea.bottom = selectionArea.top + mCellHeight;
+            selectionArea.left = mHoursWidth + (mSelectionDay - mFirstJulianDay)
+                    * (mCellWidth + DAY_GAP);
+            selectionArea.right = selectionArea.left + mCellWidth;
+
+            // Only the events in the selected hour can meet its band.
+            EventGeometry geometry = mEventGeometry;
+            int startMinute = mSelectionHour * 60;
+            int numEvents = store.eventsOverlapping(mSelectionDay, startMinute,
+                    startMinute + 60);
+            int[] hits = store.hits;
+            int[] hitEntries = store.hitEntries;
+            for (int h = 0; h < numEvents; h++) {
+                int entry = hitEntries[h];
+                if (!store.hasDayRect(entry)) {
+                    continue;
+                }
+                Event event = store.getEvent(hits[h]);
+                store.copyDayRectTo(entry, event);
+                if (geometry.eventIntersectsSelection(event, selectionArea)) {
+                    mSelectedEvents.add(event);
+                }
+            }
+            mComputeSelectedEvents = false;
+        }
+
+        if (!mSelectionAllDay && isFocused() && mSelectionMode != SELECTION_HIDDEN) {
+            computeNeighbors();
+        }
+    }
+
+    /**
+     * Computes the rectangle of every timed event on every day shown into
+     * the store and files them in the hit grid, unless that was done since
+     * the events or the geometry last changed.
+     */
+    private void computeEventRects() {
+        EventStore store = mEventStore;
+        if (store.areDayRectsValid()) {
+            return;
+        }
+        store.computeDayRects(mEventGeometry, mHoursWidth, mCellWidth + DAY_GAP, HOUR_GAP,
+                mCellWidth);
+        int date = mFirstJulianDay;
+        for (int day = 0; day < mNumDays; day++, date++) {
+            mHitGrid.setDay(date, store);
+        }
+    }
+
+    /**
+     * Marks the tiles showing the timed events of the days from firstDay to
+     * lastDay for redrawing, going by the rectangles last computed.  If
+     * there are none, all the tiles are redrawn.
+     */
+    private void invalidateEventBands(int firstDay, int lastDay) {
+        EventStore store = mEventStore;
+        if (!store.areDayRectsValid()) {
+            mRedrawScreen = true;
+            return;
+        }
+        float top = Float.MAX_VALUE;
+        float bottom = -1;
+        float[] rects = store.dayRects;
+        int last = Math.min(lastDay, mLastJulianDay);
+        for (int date = Math.max(firstDay, mFirstJulianDay); date <= last; date++) {
+            for (int entry = store.dayStart(date), end = store.dayEnd(date); entry < end;
+                    entry++) {
+                if (store.hasDayRect(entry)) {
+                    int offset = entry * EventStore.RECT_SIZE;
+                    top = Math.min(top, rects[offset + EventStore.RECT_TOP]);
+                    bottom = Math.max(bottom, rects[offset + EventStore.RECT_BOTTOM]);
+                }
+            }
+        }
+
+        // Leave a pixel either side for the event borders.
+        if (bottom >= 0) {
+            mGridTiles.invalidate((int) top - 1, (int) bottom + 2);
+        }
+    }
+
+    /**
+     * Marks the band of the scrollable area from y = top to y = bottom for
+     * redrawing, in the tiles and in the part of the screen showing it.
+     */
+    private void invalidateBand(int top, int bottom) {
+        mGridTiles.invalidate(top, bottom);
+        Rect dirty = mDirtyRect;
+        dirty.top = Math.max(getScreenY(top), mFirstCell);
+        dirty.bottom = Math.min(getScreenY(bottom), mViewHeight);
+        if (dirty.top < dirty.bottom) {
+            dirty.left = 0;
+            dirty.right = mViewWidth;
+            invalidate(dirty);
+        }
+    }
+
+    /**
+     * Marks what shows the selection for redrawing: the selected hour, the
+     * selected event and the headers above the grid.  This is called both
+     * before and after the selection changes, so that moving the selection
+     * redraws where it was and where it is rather than the whole day.
+     */
+    private void invalidateSelection() {
+        // The day headers and the all-day events are drawn straight to the
+        // screen on every draw.
+        Rect dirty = mDirtyRect;
+        dirty.top = 0;
+        dirty.bottom = mFirstCell;
+        dirty.left = 0;
+        dirty.right = mViewWidth;
+        invalidate(dirty);
+
+        if (mSelectionMode == SELECTION_HIDDEN || mSelectionAllDay) {
+            return;
+        }
+
+        // The highlight reaches a pixel into the next hour.
+        int top = getHourTop(mSelectionHour);
+        invalidateBand(top, top + mCellHeight + 2 * HOUR_GAP + 1);
+
+        Event selected = mSelectedEvent;
+        EventStore store = mEventStore;
+        if (selected == null || !store.areDayRectsValid()) {
+            return;
+        }
+        int date = mSelectionDay;
+        float[] rects = store.dayRects;
+        for (int entry = store.dayStart(date), end = store.dayEnd(date); entry < end;
+                entry++) {
+            if (store.hasDayRect(entry) && store.getEvent(store.eventAt(entry)) == selected) {
+                int offset = entry * EventStore.RECT_SIZE;
+                invalidateBand((int) rects[offset + EventStore.RECT_TOP] - 1,
+                        (int) rects[offset + EventStore.RECT_BOTTOM] + 2);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Marks the band the current time marker and line are drawn in for
+     * redrawing.
+     */
+    private void invalidateCurrentTime() {
+        int lineY = getCurrentTimeLineY();
+        invalidateBand(lineY - CURRENT_TIME_MARKER_HEIGHT,
+                lineY + CURRENT_TIME_MARKER_HEIGHT + 1);
+    }
+
+    /**
+     * Returns the y coordinate of the current time line in the scrollable
+     * area.
+     */
+    int getCurrentTimeLineY() {
+        return getHourTop(mCurrentTime.hour)
+                + ((mCurrentTime.minute * mCellHeight) / 60)
+                + 1;
+    }
+
+    /**
+     * Returns the y coordinate of the top of the given hour in the
+     * scrollable area.
+     */
+    int getHourTop(int hour) {
+        return hour * (mCellHeight + HOUR_GAP);
+    }
+
+    /**
+     * Returns where the given y coordinate of the scrollable area is on
+     * screen, which may be above or below the grid.  Package private, as
+     * are the two methods above, so that tests can check what is redrawn.
+     */
+    int getScreenY(int y) {
+        return y - mViewStartY + mFirstCell;
+    }
+
     // Computes the "nearest" neighbor event in four directions (left, right,
     // up, down) for each of the events in the mSelectedEvents array.
     private void computeNeighbors() {
@@ -1982,15 +2413,6 @@ public class CalendarView extends View
             return;
         }
 
-        // First, clear all the links
-        for (int ii = 0; ii < len; ii++) {
-            Event ev = mSelectedEvents.get(ii);
-            ev.nextUp = null;
-            ev.nextDown = null;
-            ev.nextLeft = null;
-            ev.nextRight = null;
-        }
-
         Event startEvent = mSelectedEvents.get(0);
         int startEventDistance1 = 100000;  // any large number
         int startEventDistance2 = 100000;  // any large number
@@ -2052,14 +2474,11 @@ public class CalendarView extends View
             prevCenter = (prevLeft + prevRight) / 2;
         }
 
-        // For each event in the selected event list "mSelectedEvents", search
-        // all the other events in that list for the nearest neighbor in 4
-        // directions.
+        // Pick the event to start from: the one closest to the previously
+        // selected event, if any.
         for (int ii = 0; ii < len; ii++) {
             Event ev = mSelectedEvents.get(ii);
 
-            int startTime = ev.startTime;
-            int endTime = ev.endTime;
             int left = (int) ev.left;
             int right = (int) ev.right;
             int top = (int) ev.top;
@@ -2081,15 +2500,6 @@ public class CalendarView extends View
                 Log.i("Cal", "left: " + left + " right: " + right + " top: " + top
                         + " bottom: " + bottom + " ev: " + timeRange + " " + ev.title);
             }
-            int upDistanceMin = 10000;     // any large number
-            int downDistanceMin = 10000;   // any large number
-            int leftDistanceMin = 10000;   // any large number
-            int rightDistanceMin = 10000;  // any large number
-            Event upEvent = null;
-            Event downEvent = null;
-            Event leftEvent = null;
-            Event rightEvent = null;
-
             // Pick the starting event closest to the previously selected event,
             // if any.  distance1 takes precedence over distance2.
             int distance1 = 0;
@@ -2129,154 +2539,19 @@ public class CalendarView extends View
                 startEventDistance1 = distance1;
                 startEventDistance2 = distance2;
             }
-
-            // For each neighbor, figure out if it is above or below or left
-            // or right of me and compute the distance.
-            for (int jj = 0; jj < len; jj++) {
-                if (jj == ii) {
-                    continue;
-                }
-                Event neighbor = mSelectedEvents.get(jj);
-                int neighborLeft = (int) neighbor.left;
-                int neighborRight = (int) neighbor.right;
-                if (neighbor.endTime <= startTime) {
-                    // This neighbor is entirely above me.
-                    // If we overlap the same column, then compute the distance.
-                    if (neighborLeft < right && neighborRight > left) {
-                        int distance = startTime - neighbor.endTime;
-                        if (distance < upDistanceMin) {
-                            upDistanceMin = distance;
-                            upEvent = neighbor;
-                        } else if (distance == upDistanceMin) {
-                            int center = (left + right) / 2;
-                            int currentDistance = 0;
-                            int currentLeft = (int) upEvent.left;
-                            int currentRight = (int) upEvent.right;
-                            if (currentRight <= center) {
-                                currentDistance = center - currentRight;
-                            } else if (currentLeft >= center) {
-                                currentDistance = currentLeft - center;
-                            }
-
-                            int neighborDistance = 0;
-                            if (neighborRight <= center) {
-                                neighborDistance = center - neighborRight;
-                            } else if (neighborLeft >= center) {
-                                neighborDistance = neighborLeft - center;
-                            }
-                            if (neighborDistance < currentDistance) {
-                                upDistanceMin = distance;
-                                upEvent = neighbor;
-                            }
-                        }
-                    }
-                } else if (neighbor.startTime >= endTime) {
-                    // This neighbor is entirely below me.
-                    // If we overlap the same column, then compute the distance.
-                    if (neighborLeft < right && neighborRight > left) {
-                        int distance = neighbor.startTime - endTime;
-                        if (distance < downDistanceMin) {
-                            downDistanceMin = distance;
-                            downEvent = neighbor;
-                        } else if (distance == downDistanceMin) {
-                            int center = (left + right) / 2;
-                            int currentDistance = 0;
-                            int currentLeft = (int) downEvent.left;
-                            int currentRight = (int) downEvent.right;
-                            if (currentRight <= center) {
-                                currentDistance = center - currentRight;
-                            } else if (currentLeft >= center) {
-                                currentDistance = currentLeft - center;
-                            }
-
-                            int neighborDistance = 0;
-                            if (neighborRight <= center) {
-                                neighborDistance = center - neighborRight;
-                            } else if (neighborLeft >= center) {
-                                neighborDistance = neighborLeft - center;
-                            }
-                            if (neighborDistance < currentDistance) {
-                                downDistanceMin = distance;
-                                downEvent = neighbor;
-                            }
-                        }
-                    }
-                }
-
-                if (neighborLeft >= right) {
-                    // This neighbor is entirely to the right of me.
-                    // Take the closest neighbor in the y direction.
-                    int center = (top + bottom) / 2;
-                    int distance = 0;
-                    int neighborBottom = (int) neighbor.bottom;
-                    int neighborTop = (int) neighbor.top;
-                    if (neighborBottom <= center) {
-                        distance = center - neighborBottom;
-                    } else if (neighborTop >= center) {
-                        distance = neighborTop - center;
-                    }
-                    if (distance < rightDistanceMin) {
-                        rightDistanceMin = distance;
-                        rightEvent = neighbor;
-                    } else if (distance == rightDistanceMin) {
-                        // Pick the closest in the x direction
-                        int neighborDistance = neighborLeft - right;
-                        int currentDistance = (int) rightEvent.left - right;
-                        if (neighborDistance < currentDistance) {
-                            rightDistanceMin = distance;
-                            rightEvent = neighbor;
-                        }
-                    }
-                } else if (neighborRight <= left) {
-                    // This neighbor is entirely to the left of me.
-                    // Take the closest neighbor in the y direction.
-                    int center = (top + bottom) / 2;
-                    int distance = 0;
-                    int neighborBottom = (int) neighbor.bottom;
-                    int neighborTop = (int) neighbor.top;
-                    if (neighborBottom <= center) {
-                        distance = center - neighborBottom;
-                    } else if (neighborTop >= center) {
-                        distance = neighborTop - center;
-                    }
-                    if (distance < leftDistanceMin) {
-                        leftDistanceMin = distance;
-                        leftEvent = neighbor;
-                    } else if (distance == leftDistanceMin) {
-                        // Pick the closest in the x direction
-                        int neighborDistance = left - neighborRight;
-                        int currentDistance = left - (int) leftEvent.right;
-                        if (neighborDistance < currentDistance) {
-                            leftDistanceMin = distance;
-                            leftEvent = neighbor;
-                        }
-                    }
-                }
-            }
-            ev.nextUp = upEvent;
-            ev.nextDown = downEvent;
-            ev.nextLeft = leftEvent;
-            ev.nextRight = rightEvent;
         }
+
+        // Link each event to its nearest neighbor in 4 directions.
+        mNeighborIndex.computeLinks(mSelectedEvents, box.top, box.bottom);
         mSelectedEvent = startEvent;
     }
 
 
     private RectF drawEventRect(Event event, Canvas canvas, Paint p, Paint eventTextPaint) {
 
-        int color = event.color;
-
         // Fade visible boxes if event was declined.
         boolean declined = (event.selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED);
-        if (declined) {
-            int alpha = color & 0xff000000;
-            color &= 0x00ffffff;
-            int red = (color & 0x00ff0000) >> 16;
-            int green = (color & 0x0000ff00) >> 8;
-            int blue = (color & 0x0000ff);
-            color = ((red >> 1) << 16) | ((green >> 1) << 8) | (blue >> 1);
-            color += 0x7F7F7F + alpha;
-        }
+        int color = mPalette.getFillColor(event.color, declined);
 
         // If this event is selected, then use the selection color
         if (mSelectedEvent == event) {
@@ -2315,11 +2590,7 @@ public class CalendarView extends View
         canvas.drawRoundRect(rf, SMALL_ROUND_RADIUS, SMALL_ROUND_RADIUS, p);
 
         // Draw a darker border
-        float[] hsv = new float[3];
-        Color.colorToHSV(p.getColor(), hsv);
-        hsv[1] = 1.0f;
-        hsv[2] *= 0.75f;
-        mPaintBorder.setColor(Color.HSVToColor(hsv));
+        mPaintBorder.setColor(mPalette.getBorderColor(p.getColor()));
         canvas.drawRoundRect(rf, SMALL_ROUND_RADIUS, SMALL_ROUND_RADIUS, mPaintBorder);
 
         rf.left += 2;
@@ -2328,17 +2599,6 @@ public class CalendarView extends View
         return rf;
     }
 
-    private Pattern drawTextSanitizerFilter = Pattern.compile("[\t\n],");
-
-    // Sanitize a string before passing it to drawText or else we get little
-    // squares. For newlines and tabs before a comma, delete the character.
-    // Otherwise, just replace them with a space.
-    private String drawTextSanitizer(String string) {
-        Matcher m = drawTextSanitizerFilter.matcher(string);
-        string = m.replaceAll(",").replace('\n', ' ').replace('\n', ' ');
-        return string;
-    }
-
     private void drawEventText(Event event, RectF rf, Canvas canvas, Paint p, int topMargin) {
         if (!mDrawTextInEventRect) {
             return;
@@ -2355,77 +2615,26 @@ public class CalendarView extends View
             return;
         }
 
-        // Truncate the event title to a known (large enough) limit
-        String text = event.getTitleAndLocation();
-
-        text = drawTextSanitizer(text);
-
-        int len = text.length();
-        if (len > MAX_EVENT_TEXT_LEN) {
-            text = text.substring(0, MAX_EVENT_TEXT_LEN);
-            len = MAX_EVENT_TEXT_LEN;
+        // Break the text into the lines that fit in the rectangle, unless
+        // that was done for this text and size of rectangle already.
+        String text = event.getDrawText();
+        float textSize = p.getTextSize();
+        TextLayoutCache.Layout layout = mTextLayoutCache.get(event.id, text, width, height,
+                textSize);
+        if (layout == null) {
+            // Truncate the event title to a known (large enough) limit
+            int len = Math.min(text.length(), MAX_EVENT_TEXT_LEN);
+            p.getTextWidths(text, 0, len, mCharWidths);
+            layout = mTextLayoutCache.put(event.id, text, width, height, textSize,
+                    mCharWidths, len, lineHeight);
         }
 
-        // Figure out how much space the event title will take, and create a
-        // String fragment that will fit in the rectangle.  Use multiple lines,
-        // if available.
-        p.getTextWidths(text, mCharWidths);
-        String fragment = text;
         float top = rf.top + mEventTextAscent + topMargin;
-        int start = 0;
-
-        // Leave one pixel extra space at the bottom
-        while (start < len && height >= (lineHeight + 1)) {
-            boolean lastLine = (height < 2 * lineHeight + 1);
-            // Skip leading spaces at the beginning of each line
-            do {
-                char c = text.charAt(start);
-                if (c != ' ') break;
-                start += 1;
-            } while (start < len);
-
-            float sum = 0;
-            int end = start;
-            for (int ii = start; ii < len; ii++) {
-                char c = text.charAt(ii);
-
-                // If we found the end of a word, then remember the ending
-                // position.
-                if (c == ' ') {
-                    end = ii;
-                }
-                sum += mCharWidths[ii];
-                // If adding this character would exceed the width and this
-                // isn't the last line, then break the line at the previous
-                // word.  If there was no previous word, then break this word.
-                if (sum > width) {
-                    if (end > start && !lastLine) {
-                        // There was a previous word on this line.
-                        fragment = text.substring(start, end);
-                        start = end;
-                        break;
-                    }
-
-                    // This is the only word and it is too long to fit on
-                    // the line (or this is the last line), so take as many
-                    // characters of this word as will fit.
-                    fragment = text.substring(start, ii);
-                    start = ii;
-                    break;
-                }
-            }
-
-            // If sum <= width, then we can fit the rest of the text on
-            // this line.
-            if (sum <= width) {
-                fragment = text.substring(start, len);
-                start = len;
-            }
-
-            canvas.drawText(fragment, rf.left + 1, top, p);
-
+        int[] lineStarts = layout.lineStarts;
+        int[] lineEnds = layout.lineEnds;
+        for (int k = 0; k < layout.numLines; k++) {
+            canvas.drawText(text, lineStarts[k], lineEnds[k], rf.left + 1, top, p);
             top += lineHeight;
-            height -= lineHeight;
         }
     }
 
@@ -2444,6 +2653,8 @@ public class CalendarView extends View
         // Remove any outstanding callbacks to dismiss the popup.
         getHandler().removeCallbacks(mDismissPopup);
 
+        // The grid profile has everything the popup shows, so nothing is
+        // queried while drawing.
         Event event = mSelectedEvent;
         TextView titleView = (TextView) mPopupView.findViewById(R.id.event_title);
         titleView.setText(event.title);
@@ -2497,6 +2708,7 @@ public class CalendarView extends View
         int selectedDay = mSelectionDay;
         int selectedHour = mSelectionHour;
 
+        invalidateSelection();
         boolean validPosition = setSelectionFromPosition(x, y);
         if (!validPosition) {
             // return if the touch wasn't on an area of concern
@@ -2504,8 +2716,7 @@ public class CalendarView extends View
         }
 
         mSelectionMode = SELECTION_SELECTED;
-        mRedrawScreen = true;
-        invalidate();
+        invalidateSelection();
 
         boolean launchNewView = false;
         if (mSelectedEvent != null) {
@@ -2528,6 +2739,7 @@ public class CalendarView extends View
         int x = (int) ev.getX();
         int y = (int) ev.getY();
 
+        invalidateSelection();
         boolean validPosition = setSelectionFromPosition(x, y);
         if (!validPosition) {
             // return if the touch wasn't on an area of concern
@@ -2535,8 +2747,7 @@ public class CalendarView extends View
         }
 
         mSelectionMode = SELECTION_LONGPRESS;
-        mRedrawScreen = true;
-        invalidate();
+        invalidateSelection();
         performLongClick();
     }
 
@@ -2615,8 +2826,8 @@ public class CalendarView extends View
         mScrolling = true;
 
         if (mSelectionMode != SELECTION_HIDDEN) {
+            invalidateSelection();
             mSelectionMode = SELECTION_HIDDEN;
-            mRedrawScreen = true;
         }
         invalidate();
     }
@@ -2735,8 +2946,7 @@ public class CalendarView extends View
         // and change the selection to the long-press state.
         if (mSelectionMode != SELECTION_LONGPRESS) {
             mSelectionMode = SELECTION_LONGPRESS;
-            mRedrawScreen = true;
-            invalidate();
+            invalidateSelection();
         }
 
         final long startMillis = getSelectedTimeInMillis();
@@ -2840,9 +3050,84 @@ public class CalendarView extends View
             }
         }
 
+        // Any view can look for free time from the selected hour on.
+        item = menu.add(0, MenuHelper.MENU_FIND_FREE_SLOT, 0, R.string.find_free_slot);
+        item.setOnMenuItemClickListener(mContextMenuHandler);
+        item.setIcon(android.R.drawable.ic_menu_search);
+        item.setAlphabeticShortcut('f');
+
         mPopup.dismiss();
     }
 
+    /**
+     * Returns the length, in minutes, of the free time to look for, as set
+     * in the preferences.
+     */
+    private int getFreeSlotLength() {
+        String length = CalendarPreferenceActivity.getSharedPreferences(mParentActivity)
+                .getString(CalendarPreferenceActivity.KEY_FREE_SLOT_LENGTH,
+                        mResources.getString(R.string.preferences_free_slot_length_default));
+        return Integer.parseInt(length);
+    }
+
+    /**
+     * Finds the first free stretch of the given number of minutes, from the
+     * start of the selection on and within the days shown.  Selects the
+     * hour it starts in and shows the exact time, since the selection is by
+     * the hour.  Says so if there is none.
+     */
+    private void selectFreeSlot(int duration) {
+        int minute = mSelectionAllDay ? 0 : mSelectionHour * MINUTES_PER_HOUR;
+        for (int day = mSelectionDay; day <= mLastJulianDay; day++, minute = 0) {
+            int start = mFreeBusy.findFreeSlot(day, minute, duration);
+            if (start < 0) {
+                continue;
+            }
+            selectHour(day, start / MINUTES_PER_HOUR);
+
+            Time time = new Time();
+            time.setJulianDay(day);
+            time.minute = start;
+            long startMillis = time.normalize(true /* ignore isDst */);
+            time.minute += duration;
+            long endMillis = time.normalize(true /* ignore isDst */);
+            int flags = DateUtils.FORMAT_SHOW_TIME;
+            if (mIs24HourFormat) {
+                flags |= DateUtils.FORMAT_24HOUR;
+            }
+            String timeRange = DateUtils.formatDateRange(mParentActivity, startMillis,
+                    endMillis, flags);
+            Toast.makeText(mParentActivity,
+                    mResources.getString(R.string.free_slot_found, timeRange),
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Toast.makeText(mParentActivity, R.string.no_free_slot, Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Moves the selection to the given hour of the given day, scrolling it
+     * into view if needed.
+     */
+    private void selectHour(int julianDay, int hour) {
+        invalidateSelection();
+        mSelectionDay = julianDay;
+        mSelectionHour = hour;
+        mSelectionAllDay = false;
+        mSelectedEvent = null;
+        mPrevSelectedEvent = null;
+        mSelectedEvents.clear();
+        mComputeSelectedEvents = true;
+        if (hour < mFirstHour || hour >= mFirstHour + mNumHours - 1) {
+            initFirstHour();
+            mFirstHourOffset = 0;
+            mViewStartY = mFirstHour * (mCellHeight + HOUR_GAP);
+            invalidate();
+        }
+        computeSelectedEvents();
+        invalidateSelection();
+    }
+
     private class ContextMenuHandler implements MenuItem.OnMenuItemClickListener {
         public boolean onMenuItemClick(MenuItem item) {
             switch (item.getItemId()) {
@@ -2893,6 +3178,10 @@ public class CalendarView extends View
                     mParentActivity.startActivity(intent);
                     break;
                 }
+                case MenuHelper.MENU_FIND_FREE_SLOT: {
+                    selectFreeSlot(getFreeSlotLength());
+                    break;
+                }
                 case MenuHelper.MENU_EVENT_DELETE: {
                     if (mSelectedEvent != null) {
                         Event selectedEvent = mSelectedEvent;
@@ -2913,6 +3202,7 @@ public class CalendarView extends View
 
     private static int getEventAccessLevel(Context context, Event e) {
         ContentResolver cr = context.getContentResolver();
+        e.loadDetails(context);
 
         int visibility = Calendars.NO_ACCESS;
         int relationship = Attendees.RELATIONSHIP_ORGANIZER;
@@ -3014,51 +3304,42 @@ public class CalendarView extends View
 
     private void findSelectedEvent(int x, int y) {
         int date = mSelectionDay;
-        int cellWidth = mCellWidth;
-        ArrayList<Event> events = mEvents;
-        int numEvents = events.size();
-        int left = mHoursWidth + (mSelectionDay - mFirstJulianDay) * (cellWidth + DAY_GAP);
-        int top = 0;
+        EventStore store = mEventStore;
         mSelectedEvent = null;
 
         mSelectedEvents.clear();
         if (mSelectionAllDay) {
+            int numEvents = store.eventsOverlapping(date, 0, MINUTES_PER_DAY);
+            int[] hits = store.hits;
             float yDistance;
             float minYdistance = 10000.0f;  // any large number
             Event closestEvent = null;
-            float drawHeight = mAllDayHeight;
+            float height = getAllDayRowHeight();
             int yOffset = mBannerPlusMargin + ALLDAY_TOP_MARGIN;
-            for (int i = 0; i < numEvents; i++) {
-                Event event = events.get(i);
-                if (!event.allDay) {
+            for (int h = 0; h < numEvents; h++) {
+                Event event = store.getEvent(hits[h]);
+                if (!mAllDayLayout.isVisible(event)) {
                     continue;
                 }
 
-                if (event.startDay <= mSelectionDay && event.endDay >= mSelectionDay) {
-                    float numRectangles = event.getMaxColumns();
-                    float height = drawHeight / numRectangles;
-                    if (height > MAX_ALLDAY_EVENT_HEIGHT) {
-                        height = MAX_ALLDAY_EVENT_HEIGHT;
+                float eventTop = yOffset + height * event.getColumn();
+                float eventBottom = eventTop + height;
+                if (eventTop < y && eventBottom > y) {
+                    // If the touch is inside the event rectangle, then
+                    // add the event.
+                    mSelectedEvents.add(event);
+                    closestEvent = event;
+                    break;
+                } else {
+                    // Find the closest event
+                    if (eventTop >= y) {
+                        yDistance = eventTop - y;
+                    } else {
+                        yDistance = y - eventBottom;
                     }
-                    float eventTop = yOffset + height * event.getColumn();
-                    float eventBottom = eventTop + height;
-                    if (eventTop < y && eventBottom > y) {
-                        // If the touch is inside the event rectangle, then
-                        // add the event.
-                        mSelectedEvents.add(event);
+                    if (yDistance < minYdistance) {
+                        minYdistance = yDistance;
                         closestEvent = event;
-                        break;
-                    } else {
-                        // Find the closest event
-                        if (eventTop >= y) {
-                            yDistance = eventTop - y;
-                        } else {
-                            yDistance = y - eventBottom;
-                        }
-                        if (yDistance < minYdistance) {
-                            minYdistance = yDistance;
-                            closestEvent = event;
-                        }
                     }
                 }
             }
@@ -3071,19 +3352,21 @@ public class CalendarView extends View
 
         // Use a region around (x,y) for the selection region
         Rect region = mRect;
-        region.left = x - 10;
-        region.right = x + 10;
-        region.top = y - 10;
-        region.bottom = y + 10;
+        region.left = x - SELECTION_SLOP;
+        region.right = x + SELECTION_SLOP;
+        region.top = y - SELECTION_SLOP;
+        region.bottom = y + SELECTION_SLOP;
 
         EventGeometry geometry = mEventGeometry;
 
-        for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
-            // Compute the event rectangle.
-            if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
-                continue;
-            }
+        // Only the events drawn in the hours around the touch can be hit.
+        computeEventRects();
+        int numNear = mHitGrid.eventsNear(date, y, SELECTION_SLOP);
+        int[] near = mHitGrid.hits;
+        for (int h = 0; h < numNear; h++) {
+            int p = near[h];
+            Event event = store.getEvent(store.eventAt(p));
+            store.copyDayRectTo(p, event);
 
             // If the event intersects the selection region, then add it to
             // mSelectedEvents.
@@ -3097,10 +3380,11 @@ public class CalendarView extends View
         if (mSelectedEvents.size() > 0) {
             int len = mSelectedEvents.size();
             Event closestEvent = null;
-            float minDist = mViewWidth + mViewHeight;  // some large distance
+            float maxDist = mViewWidth + mViewHeight;  // some large distance
+            float minDist = maxDist * maxDist;
             for (int index = 0; index < len; index++) {
                 Event ev = mSelectedEvents.get(index);
-                float dist = geometry.pointToEvent(x, y, ev);
+                float dist = geometry.pointToEventSquared(x, y, ev);
                 if (dist < minDist) {
                     minDist = dist;
                     closestEvent = ev;
@@ -3247,9 +3531,13 @@ public class CalendarView extends View
 
     @Override protected void onDetachedFromWindow() {
         cleanup();
-        if (mBitmap != null) {
-            mBitmap.recycle();
-            mBitmap = null;
+        mGridTiles.recycle();
+        if (mGridRowBitmap != null) {
+            mGridRowBitmap.recycle();
+            mHourLabelsBitmap.recycle();
+            mGridRowBitmap = null;
+            mHourLabelsBitmap = null;
+            mGridLayerValid = false;
         }
         super.onDetachedFromWindow();
     }
@@ -3288,14 +3576,15 @@ public class CalendarView extends View
     }
     class UpdateCurrentTime implements Runnable {
         public void run() {
+            // Redraw only the old and the new current time line.
+            invalidateCurrentTime();
             long currentTime = System.currentTimeMillis();
             mCurrentTime.set(currentTime);
             //% causes update to occur on 5 minute marks (11:10, 11:15, 11:20, etc.)
             postDelayed(mUpdateCurrentTime,
                     UPDATE_CURRENT_TIME_DELAY - (currentTime % UPDATE_CURRENT_TIME_DELAY));
             mTodayJulianDay = Time.getJulianDay(currentTime, mCurrentTime.gmtoff);
-            mRedrawScreen = true;
-            invalidate();
+            invalidateCurrentTime();
         }
     }
 }
@@ -16,6 +16,7 @@
 
 package com.android.calendar;
 
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
@@ -31,55 +32,103 @@ import android.text.format.Time;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 // TODO: should Event be Parcelable so it can be passed via Intents?
 public class Event implements Comparable, Cloneable {
 
     private static final boolean PROFILE = false;
 
-    private static final String[] PROJECTION = new String[] {
-            Instances.TITLE,                 // 0
-            Instances.EVENT_LOCATION,        // 1
-            Instances.ALL_DAY,               // 2
-            Instances.COLOR,                 // 3
-            Instances.EVENT_TIMEZONE,        // 4
-            Instances.EVENT_ID,              // 5
-            Instances.BEGIN,                 // 6
-            Instances.END,                   // 7
-            Instances._ID,                   // 8
-            Instances.START_DAY,             // 9
-            Instances.END_DAY,               // 10
-            Instances.START_MINUTE,          // 11
-            Instances.END_MINUTE,            // 12
-            Instances.HAS_ALARM,             // 13
-            Instances.RRULE,                 // 14
-            Instances.RDATE,                 // 15
-            Instances.SELF_ATTENDEE_STATUS,  // 16
-            Events.ORGANIZER,                // 17
-            Events.GUESTS_CAN_MODIFY,        // 18
+    /**
+     * Which columns of an instance to load.  The busy-bits profile has what
+     * is needed to place an instance in time, which is all the month grid
+     * draws, and the title its popup shows.  The grid profile adds what the
+     * day and week views draw and show in their popup.  The full profile
+     * adds the columns that are only used by the context menu.  Events
+     * loaded with a smaller profile get the rest from {@link #loadDetails},
+     * which queries the provider and so must not be called while drawing.
+     */
+    static final int PROFILE_BUSY_BITS = 0;
+    static final int PROFILE_GRID = 1;
+    static final int PROFILE_FULL = 2;
+
+    // Package-private so that tests can build cursors with the same columns.
+    // The columns are ordered so that each profile's projection is a prefix
+    // of this one.
+    static final String[] PROJECTION = new String[] {
+            Instances.ALL_DAY,               // 0
+            Instances.EVENT_ID,              // 1
+            Instances.BEGIN,                 // 2
+            Instances.END,                   // 3
+            Instances.START_DAY,             // 4
+            Instances.END_DAY,               // 5
+            Instances.START_MINUTE,          // 6
+            Instances.END_MINUTE,            // 7
+            Instances.SELF_ATTENDEE_STATUS,  // 8
+            Instances.TITLE,                 // 9, the last busy-bits column
+            Instances.EVENT_LOCATION,        // 10
+            Instances.COLOR,                 // 11
+            Instances.HAS_ALARM,             // 12
+            Instances.RRULE,                 // 13
+            Instances.RDATE,                 // 14, the last grid column
+            Events.ORGANIZER,                // 15
+            Events.GUESTS_CAN_MODIFY,        // 16
     };
 
     // The indices for the projection array above.
-    private static final int PROJECTION_TITLE_INDEX = 0;
-    private static final int PROJECTION_LOCATION_INDEX = 1;
-    private static final int PROJECTION_ALL_DAY_INDEX = 2;
-    private static final int PROJECTION_COLOR_INDEX = 3;
-    private static final int PROJECTION_TIMEZONE_INDEX = 4;
-    private static final int PROJECTION_EVENT_ID_INDEX = 5;
-    private static final int PROJECTION_BEGIN_INDEX = 6;
-    private static final int PROJECTION_END_INDEX = 7;
-    private static final int PROJECTION_START_DAY_INDEX = 9;
-    private static final int PROJECTION_END_DAY_INDEX = 10;
-    private static final int PROJECTION_START_MINUTE_INDEX = 11;
-    private static final int PROJECTION_END_MINUTE_INDEX = 12;
-    private static final int PROJECTION_HAS_ALARM_INDEX = 13;
-    private static final int PROJECTION_RRULE_INDEX = 14;
-    private static final int PROJECTION_RDATE_INDEX = 15;
-    private static final int PROJECTION_SELF_ATTENDEE_STATUS_INDEX = 16;
-    private static final int PROJECTION_ORGANIZER_INDEX = 17;
-    private static final int PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX = 18;
+    private static final int PROJECTION_ALL_DAY_INDEX = 0;
+    private static final int PROJECTION_EVENT_ID_INDEX = 1;
+    private static final int PROJECTION_BEGIN_INDEX = 2;
+    private static final int PROJECTION_END_INDEX = 3;
+    private static final int PROJECTION_START_DAY_INDEX = 4;
+    private static final int PROJECTION_END_DAY_INDEX = 5;
+    private static final int PROJECTION_START_MINUTE_INDEX = 6;
+    private static final int PROJECTION_END_MINUTE_INDEX = 7;
+    private static final int PROJECTION_SELF_ATTENDEE_STATUS_INDEX = 8;
+    private static final int PROJECTION_TITLE_INDEX = 9;
+    private static final int PROJECTION_LOCATION_INDEX = 10;
+    private static final int PROJECTION_COLOR_INDEX = 11;
+    private static final int PROJECTION_HAS_ALARM_INDEX = 12;
+    private static final int PROJECTION_RRULE_INDEX = 13;
+    private static final int PROJECTION_RDATE_INDEX = 14;
+    private static final int PROJECTION_ORGANIZER_INDEX = 15;
+    private static final int PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX = 16;
+
+    // The number of columns of PROJECTION that each profile loads.
+    private static final int[] PROFILE_NUM_COLUMNS = new int[] {
+            PROJECTION_TITLE_INDEX + 1,                 // PROFILE_BUSY_BITS
+            PROJECTION_RDATE_INDEX + 1,                 // PROFILE_GRID
+            PROJECTION.length,                          // PROFILE_FULL
+    };
+
+    private static final String[][] PROFILE_PROJECTIONS = new String[][] {
+            getProjection(PROFILE_BUSY_BITS),
+            getProjection(PROFILE_GRID),
+            PROJECTION,
+    };
+
+    // The columns that loadDetails() reads for a single event.
+    private static final String[] DETAILS_PROJECTION = new String[] {
+            Events.TITLE,               // 0
+            Events.EVENT_LOCATION,      // 1
+            Events.HAS_ALARM,           // 2
+            Events.RRULE,               // 3
+            Events.RDATE,               // 4
+            Events.ORGANIZER,           // 5
+            Events.GUESTS_CAN_MODIFY,   // 6
+    };
+    private static final int DETAILS_TITLE_INDEX = 0;
+    private static final int DETAILS_LOCATION_INDEX = 1;
+    private static final int DETAILS_HAS_ALARM_INDEX = 2;
+    private static final int DETAILS_RRULE_INDEX = 3;
+    private static final int DETAILS_RDATE_INDEX = 4;
+    private static final int DETAILS_ORGANIZER_INDEX = 5;
+    private static final int DETAILS_GUESTS_CAN_MODIFY_INDEX = 6;
 
     public long id;
     public int color;
@@ -96,9 +145,16 @@ public class Event implements Comparable, Cloneable {
 
     public long startMillis;   // UTC milliseconds since the epoch
     public long endMillis;     // UTC milliseconds since the epoch
+
+    // The title and location as drawn in the event rectangles, computed on
+    // first use.
+    private String mDrawText;
     private int mColumn;
     private int mMaxColumns;
 
+    // The profile this event was loaded with.
+    private int mProfile = PROFILE_FULL;
+
     public boolean hasAlarm;
     public boolean isRepeating;
     
@@ -119,6 +175,100 @@ public class Event implements Comparable, Cloneable {
 
     private static final int MIDNIGHT_IN_MINUTES = 24 * 60;
 
+    // How many cursor rows are read between checks for a newer load request.
+    static final int CANCEL_CHECK_INTERVAL = 32;
+
+    // Recycled events, linked through mPoolNext.  Events are obtained on the
+    // loader threads and recycled on the UI thread.
+    private static final int MAX_POOL_SIZE = 1000;
+    private static final Object sPoolSync = new Object();
+    private static Event sPool;
+    private static int sPoolSize;
+    private Event mPoolNext;
+
+    /**
+     * Returns an Event from the pool of recycled events, or a new one if the
+     * pool is empty.  All fields have their default values.
+     */
+    static Event obtain() {
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                Event e = sPool;
+                sPool = e.mPoolNext;
+                e.mPoolNext = null;
+                sPoolSize--;
+                return e;
+            }
+        }
+        return new Event();
+    }
+
+    /**
+     * Returns this event to the pool.  The caller must not use it, or keep
+     * a reference to it, afterwards.
+     */
+    void recycle() {
+        id = 0;
+        color = 0;
+        title = null;
+        location = null;
+        allDay = false;
+        organizer = null;
+        guestsCanModify = false;
+        startDay = 0;
+        endDay = 0;
+        startTime = 0;
+        endTime = 0;
+        startMillis = 0;
+        endMillis = 0;
+        mDrawText = null;
+        mColumn = 0;
+        mMaxColumns = 0;
+        mProfile = PROFILE_FULL;
+        hasAlarm = false;
+        isRepeating = false;
+        selfAttendeeStatus = 0;
+        left = 0;
+        right = 0;
+        top = 0;
+        bottom = 0;
+        nextRight = null;
+        nextLeft = null;
+        nextUp = null;
+        nextDown = null;
+
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mPoolNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events waiting in the pool.
+     */
+    static int getPoolSize() {
+        synchronized (sPoolSync) {
+            return sPoolSize;
+        }
+    }
+
+    /**
+     * Recycles all the events in the list and clears it.
+     */
+    static void recycleEvents(ArrayList<Event> events) {
+        if (events == null) {
+            return;
+        }
+        int size = events.size();
+        for (int i = 0; i < size; i++) {
+            events.get(i).recycle();
+        }
+        events.clear();
+    }
+
     @Override
     public final Object clone() throws CloneNotSupportedException {
         super.clone();
@@ -139,6 +289,7 @@ public class Event implements Comparable, Cloneable {
         e.selfAttendeeStatus = selfAttendeeStatus;
         e.organizer = organizer;
         e.guestsCanModify = guestsCanModify;
+        e.mProfile = mProfile;
 
         return e;
     }
@@ -155,11 +306,87 @@ public class Event implements Comparable, Cloneable {
         dest.endTime = endTime;
         dest.startMillis = startMillis;
         dest.endMillis = endMillis;
+        dest.mDrawText = mDrawText;
         dest.hasAlarm = hasAlarm;
         dest.isRepeating = isRepeating;
         dest.selfAttendeeStatus = selfAttendeeStatus;
         dest.organizer = organizer;
         dest.guestsCanModify = guestsCanModify;
+        dest.mColumn = mColumn;
+        dest.mMaxColumns = mMaxColumns;
+        dest.mProfile = mProfile;
+    }
+
+    private static String[] getProjection(int profile) {
+        String[] projection = new String[PROFILE_NUM_COLUMNS[profile]];
+        System.arraycopy(PROJECTION, 0, projection, 0, projection.length);
+        return projection;
+    }
+
+    /**
+     * Returns the profile this event was loaded with.
+     */
+    int getProfile() {
+        return mProfile;
+    }
+
+    /**
+     * Fills in the columns left out by the profile this event was loaded
+     * with, so that all the fields are set.  This queries the provider for
+     * this one event, so call it only for the few events that are shown in
+     * a popup or a context menu.  Does nothing if the event is already
+     * complete.  The color is not filled in.
+     */
+    void loadDetails(Context context) {
+        if (mProfile == PROFILE_FULL) {
+            return;
+        }
+
+        Cursor c = context.getContentResolver().query(
+                ContentUris.withAppendedId(Events.CONTENT_URI, id), DETAILS_PROJECTION,
+                null /* selection */, null /* selectionArgs */, null /* sort */);
+        if (c == null) {
+            return;
+        }
+        try {
+            if (!c.moveToFirst()) {
+                return;
+            }
+            title = c.getString(DETAILS_TITLE_INDEX);
+            if (title == null || title.length() == 0) {
+                title = context.getResources().getString(R.string.no_title_label);
+            }
+            location = c.getString(DETAILS_LOCATION_INDEX);
+            mDrawText = null;
+            hasAlarm = c.getInt(DETAILS_HAS_ALARM_INDEX) != 0;
+            isRepeating = !TextUtils.isEmpty(c.getString(DETAILS_RRULE_INDEX))
+                    || !TextUtils.isEmpty(c.getString(DETAILS_RDATE_INDEX));
+            organizer = c.getString(DETAILS_ORGANIZER_INDEX);
+            guestsCanModify = c.getInt(DETAILS_GUESTS_CAN_MODIFY_INDEX) != 0;
+            mProfile = PROFILE_FULL;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Clears the fields that the given profile does not load, so that this
+     * event compares equal to a fresh copy loaded with that profile.
+     */
+    private void dropDetails(int profile) {
+        if (mProfile <= profile) {
+            return;
+        }
+        if (profile < PROFILE_GRID) {
+            location = null;
+            mDrawText = null;
+            color = 0;
+            hasAlarm = false;
+            isRepeating = false;
+        }
+        organizer = null;
+        guestsCanModify = false;
+        mProfile = profile;
     }
 
     public static final Event newInstance() {
@@ -260,7 +487,21 @@ public class Event implements Comparable, Cloneable {
      * Loads <i>days</i> days worth of instances starting at <i>start</i>.
      */
     public static void loadEvents(Context context, ArrayList<Event> events,
-            long start, int days, int requestId, AtomicInteger sequenceNumber) {
+            long start, int days, int profile, int requestId, AtomicInteger sequenceNumber) {
+        loadEvents(context, events, start, days, profile, true /* compute positions */,
+                requestId, sequenceNumber);
+    }
+
+    /**
+     * Like {@link #loadEvents(Context, ArrayList, long, int, int, int, AtomicInteger)},
+     * but the columns of the events are only computed if computePositions
+     * is true.  A list that is merged into the displayed events with
+     * {@link #mergeEvents} does not need them, since the merge lays out the
+     * groups that changed and keeps the columns of the rest.
+     */
+    static void loadEvents(Context context, ArrayList<Event> events, long start, int days,
+            int profile, boolean computePositions, int requestId,
+            AtomicInteger sequenceNumber) {
 
         if (PROFILE) {
             Debug.startMethodTracing("loadEvents");
@@ -268,7 +509,7 @@ public class Event implements Comparable, Cloneable {
 
         Cursor c = null;
 
-        events.clear();
+        recycleEvents(events);
         try {
             Time local = new Time();
             int count;
@@ -280,6 +521,11 @@ public class Event implements Comparable, Cloneable {
             local.monthDay += days;
             long end = local.normalize(true /* ignore isDst */);
 
+            // Don't start a query for a request that is already stale.
+            if (requestId != sequenceNumber.get()) {
+                return;
+            }
+
             // Widen the time range that we query by one day on each end
             // so that we can catch all-day events.  All-day events are
             // stored starting at midnight in UTC but should be included
@@ -307,7 +553,7 @@ public class Event implements Comparable, Cloneable {
                 where = Instances.SELF_ATTENDEE_STATUS + "!=" + Attendees.ATTENDEE_STATUS_DECLINED;
             }
 
-            c = Instances.query(context.getContentResolver(), PROJECTION,
+            c = Instances.query(context.getContentResolver(), PROFILE_PROJECTIONS[profile],
                     start - DateUtils.DAY_IN_MILLIS, end + DateUtils.DAY_IN_MILLIS, where, orderBy);
 
             if (c == null) {
@@ -327,43 +573,86 @@ public class Event implements Comparable, Cloneable {
                 return;
             }
 
+            // Resolve the resources once rather than for every row.
             Resources res = context.getResources();
-            while (c.moveToNext()) {
-                Event e = new Event();
+            if (!readEvents(c, events, profile, startDay, endDay,
+                    res.getString(R.string.no_title_label),
+                    res.getColor(R.color.event_center), requestId, sequenceNumber)) {
+                // Nobody will look at a partial list.
+                recycleEvents(events);
+                return;
+            }
 
-                e.id = c.getLong(PROJECTION_EVENT_ID_INDEX);
-                e.title = c.getString(PROJECTION_TITLE_INDEX);
-                e.location = c.getString(PROJECTION_LOCATION_INDEX);
-                e.allDay = c.getInt(PROJECTION_ALL_DAY_INDEX) != 0;
-                e.organizer = c.getString(PROJECTION_ORGANIZER_INDEX);
-                e.guestsCanModify = c.getInt(PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX) != 0;
+            // Going back to a range usually loads exactly the same instances.
+            if (computePositions) {
+                LayoutCache.getInstance().computePositions(events, startDay, days);
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+            if (PROFILE) {
+                Debug.stopMethodTracing();
+            }
+        }
+    }
+
+    /**
+     * Reads the instances from a cursor with the columns of the given profile
+     * into <i>events</i>, skipping the ones outside [startDay, endDay].  The
+     * events come from the pool, so reading the same rows into a recycled
+     * list allocates no Event objects.
+     *
+     * Every {@link #CANCEL_CHECK_INTERVAL} rows, starting with the first,
+     * this checks whether a newer request has been made and if so stops.
+     *
+     * @return true if all the rows were read, false if the request was
+     *  abandoned because it is no longer the most recent one
+     */
+    static boolean readEvents(Cursor c, ArrayList<Event> events, int profile, int startDay,
+            int endDay, String noTitleLabel, int defaultColor, int requestId,
+            AtomicInteger sequenceNumber) {
+        int row = 0;
+        while (c.moveToNext()) {
+            if (row++ % CANCEL_CHECK_INTERVAL == 0 && requestId != sequenceNumber.get()) {
+                return false;
+            }
 
-                String timezone = c.getString(PROJECTION_TIMEZONE_INDEX);
+            int eStartDay = c.getInt(PROJECTION_START_DAY_INDEX);
+            int eEndDay = c.getInt(PROJECTION_END_DAY_INDEX);
+            if (eStartDay > endDay || eEndDay < startDay) {
+                continue;
+            }
 
-                if (e.title == null || e.title.length() == 0) {
-                    e.title = res.getString(R.string.no_title_label);
-                }
+            Event e = obtain();
+            e.mProfile = profile;
 
-                if (!c.isNull(PROJECTION_COLOR_INDEX)) {
-                    // Read the color from the database
-                    e.color = c.getInt(PROJECTION_COLOR_INDEX);
-                } else {
-                    e.color = res.getColor(R.color.event_center);
-                }
+            e.id = c.getLong(PROJECTION_EVENT_ID_INDEX);
+            e.allDay = c.getInt(PROJECTION_ALL_DAY_INDEX) != 0;
 
-                long eStart = c.getLong(PROJECTION_BEGIN_INDEX);
-                long eEnd = c.getLong(PROJECTION_END_INDEX);
+            e.startMillis = c.getLong(PROJECTION_BEGIN_INDEX);
+            e.startTime = c.getInt(PROJECTION_START_MINUTE_INDEX);
+            e.startDay = eStartDay;
 
-                e.startMillis = eStart;
-                e.startTime = c.getInt(PROJECTION_START_MINUTE_INDEX);
-                e.startDay = c.getInt(PROJECTION_START_DAY_INDEX);
+            e.endMillis = c.getLong(PROJECTION_END_INDEX);
+            e.endTime = c.getInt(PROJECTION_END_MINUTE_INDEX);
+            e.endDay = eEndDay;
 
-                e.endMillis = eEnd;
-                e.endTime = c.getInt(PROJECTION_END_MINUTE_INDEX);
-                e.endDay = c.getInt(PROJECTION_END_DAY_INDEX);
+            e.selfAttendeeStatus = c.getInt(PROJECTION_SELF_ATTENDEE_STATUS_INDEX);
 
-                if (e.startDay > endDay || e.endDay < startDay) {
-                    continue;
+            e.title = c.getString(PROJECTION_TITLE_INDEX);
+            if (e.title == null || e.title.length() == 0) {
+                e.title = noTitleLabel;
+            }
+
+            if (profile >= PROFILE_GRID) {
+                e.location = c.getString(PROJECTION_LOCATION_INDEX);
+
+                if (!c.isNull(PROJECTION_COLOR_INDEX)) {
+                    // Read the color from the database
+                    e.color = c.getInt(PROJECTION_COLOR_INDEX);
+                } else {
+                    e.color = defaultColor;
                 }
 
                 e.hasAlarm = c.getInt(PROJECTION_HAS_ALARM_INDEX) != 0;
@@ -376,21 +665,146 @@ public class Event implements Comparable, Cloneable {
                 } else {
                     e.isRepeating = false;
                 }
-                
-                e.selfAttendeeStatus = c.getInt(PROJECTION_SELF_ATTENDEE_STATUS_INDEX);
+            }
 
-                events.add(e);
+            if (profile >= PROFILE_FULL) {
+                e.organizer = c.getString(PROJECTION_ORGANIZER_INDEX);
+                e.guestsCanModify = c.getInt(PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX) != 0;
             }
 
-            computePositions(events);
-        } finally {
-            if (c != null) {
-                c.close();
+            events.add(e);
+        }
+        return true;
+    }
+
+    /**
+     * Merges a freshly loaded list of instances into the list that is
+     * currently displayed.  Instances are matched by event id and start
+     * time.  Every instance in <i>loaded</i> that did not change is replaced
+     * by the matching Event object from <i>current</i>, so that references
+     * held by the view (such as the selected event) stay valid.  The events
+     * of <i>current</i> that are not reused, and the loaded events they
+     * replace, are recycled, so <i>current</i> must not be used afterwards.
+     *
+     * The columns of <i>loaded</i> are then recomputed with
+     * {@link #computeChangedPositions} for the overlap groups that the
+     * added, removed and changed instances touch.  The loaded list need not
+     * have been laid out, since every other group is made of reused events
+     * that keep their columns.
+     *
+     * @param current the events currently displayed, or null
+     * @param loaded the events just loaded for the same range; patched in place
+     * @param changedDays if not null, receives the first and last Julian
+     *  day touched by an added, removed or changed instance
+     * @return the number of instances that were added, removed or changed
+     */
+    static int mergeEvents(ArrayList<Event> current, ArrayList<Event> loaded,
+            int[] changedDays) {
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        int numChanged = 0;
+        HashSet<Long> changedIds = null;
+        ArrayList<Event> staleEvents = null;
+
+        HashMap<Long, ArrayList<Event>> byId = new HashMap<Long, ArrayList<Event>>();
+        int numCurrent = (current == null) ? 0 : current.size();
+        for (int i = 0; i < numCurrent; i++) {
+            Event e = current.get(i);
+            ArrayList<Event> instances = byId.get(e.id);
+            if (instances == null) {
+                instances = new ArrayList<Event>(1);
+                byId.put(e.id, instances);
             }
-            if (PROFILE) {
-                Debug.stopMethodTracing();
+            instances.add(e);
+        }
+
+        int numLoaded = loaded.size();
+        for (int i = 0; i < numLoaded; i++) {
+            Event e = loaded.get(i);
+            Event old = null;
+            ArrayList<Event> instances = byId.get(e.id);
+            if (instances != null) {
+                int numInstances = instances.size();
+                for (int j = 0; j < numInstances; j++) {
+                    if (instances.get(j).startMillis == e.startMillis) {
+                        old = instances.remove(j);
+                        break;
+                    }
+                }
+            }
+
+            // Details fetched for a popup since the last load may be stale,
+            // and would make the instance look changed.
+            if (old != null) {
+                old.dropDetails(e.mProfile);
+            }
+            if (old != null && old.isSameInstance(e)) {
+                loaded.set(i, old);
+                e.recycle();
+                continue;
+            }
+
+            // Added or changed.  A changed instance may have moved, so the
+            // days it used to cover are affected too.
+            numChanged++;
+            firstDay = Math.min(firstDay, e.startDay);
+            lastDay = Math.max(lastDay, e.endDay);
+            if (changedIds == null) {
+                changedIds = new HashSet<Long>();
+                staleEvents = new ArrayList<Event>();
+            }
+            changedIds.add(e.id);
+            if (old != null) {
+                firstDay = Math.min(firstDay, old.startDay);
+                lastDay = Math.max(lastDay, old.endDay);
+                staleEvents.add(old);
             }
         }
+
+        // Whatever is left over was removed.
+        for (ArrayList<Event> instances : byId.values()) {
+            int numInstances = instances.size();
+            for (int j = 0; j < numInstances; j++) {
+                Event old = instances.get(j);
+                numChanged++;
+                firstDay = Math.min(firstDay, old.startDay);
+                lastDay = Math.max(lastDay, old.endDay);
+                if (changedIds == null) {
+                    changedIds = new HashSet<Long>();
+                    staleEvents = new ArrayList<Event>();
+                }
+                staleEvents.add(old);
+            }
+        }
+
+        // The reused events kept the columns of the old layout, which only
+        // the groups around the changes can have invalidated.
+        if (changedIds != null) {
+            computeChangedPositions(loaded, changedIds, staleEvents);
+            recycleEvents(staleEvents);
+        }
+
+        if (changedDays != null) {
+            changedDays[0] = firstDay;
+            changedDays[1] = lastDay;
+        }
+        return numChanged;
+    }
+
+    /**
+     * Returns true if the given event is the same instance as this one with
+     * nothing displayed changed.  The layout columns are not compared; they
+     * are recomputed after the merge wherever they may have changed.
+     */
+    private boolean isSameInstance(Event e) {
+        return id == e.id
+                && startMillis == e.startMillis
+                && endMillis == e.endMillis
+                && color == e.color
+                && hasAlarm == e.hasAlarm
+                && isRepeating == e.isRepeating
+                && selfAttendeeStatus == e.selfAttendeeStatus
+                && compareTo(e) == 0;
     }
 
     /**
@@ -411,85 +825,40 @@ public class Event implements Comparable, Cloneable {
             return;
 
         // Compute the column positions separately for the all-day events
-        doComputePositions(eventsList, false);
-        doComputePositions(eventsList, true);
+        new EventLayout().computePositions(eventsList);
     }
 
-    private static void doComputePositions(ArrayList<Event> eventsList,
-            boolean doAllDayEvents) {
-        ArrayList<Event> activeList = new ArrayList<Event>();
-        ArrayList<Event> groupList = new ArrayList<Event>();
-
-        long colMask = 0;
-        int maxCols = 0;
-        for (Event event : eventsList) {
-            // Process all-day events separately
-            if (event.allDay != doAllDayEvents)
-                continue;
-
-            long start = event.getStartMillis();
-            if (false && event.allDay) {
-                Event e = event;
-                Log.i("Cal", "event start,end day: " + e.startDay + "," + e.endDay
-                        + " start,end time: " + e.startTime + "," + e.endTime
-                        + " start,end millis: " + e.getStartMillis() + "," + e.getEndMillis()
-                        + " "  + e.title);
-            }
-
-            // Remove the inactive events. An event on the active list
-            // becomes inactive when its end time is less than or equal to
-            // the current event's start time.
-            Iterator<Event> iter = activeList.iterator();
-            while (iter.hasNext()) {
-                Event active = iter.next();
-                if (active.getEndMillis() <= start) {
-                    if (false && event.allDay) {
-                        Event e = active;
-                        Log.i("Cal", "  removing: start,end day: " + e.startDay + "," + e.endDay
-                                + " start,end time: " + e.startTime + "," + e.endTime
-                                + " start,end millis: " + e.getStartMillis() + "," + e.getEndMillis()
-                                + " "  + e.title);
-                    }
-                    colMask &= ~(1L << active.getColumn());
-                    iter.remove();
-                }
-            }
-
-            // If the active list is empty, then reset the max columns, clear
-            // the column bit mask, and empty the groupList.
-            if (activeList.isEmpty()) {
-                for (Event ev : groupList) {
-                    ev.setMaxColumns(maxCols);
-                }
-                maxCols = 0;
-                colMask = 0;
-                groupList.clear();
-            }
+    /**
+     * Like {@link #computePositions(ArrayList)} for a list loaded for
+     * numDays days.  Long spans with many events are laid out in parallel,
+     * with the same result.
+     */
+    static void computePositions(ArrayList<Event> eventsList, int numDays) {
+        if (eventsList == null)
+            return;
 
-            // Find the first empty column.  Empty columns are represented by
-            // zero bits in the column mask "colMask".
-            int col = findFirstZeroBit(colMask);
-            if (col == 64)
-                col = 63;
-            colMask |= (1L << col);
-            event.setColumn(col);
-            activeList.add(event);
-            groupList.add(event);
-            int len = activeList.size();
-            if (maxCols < len)
-                maxCols = len;
-        }
-        for (Event ev : groupList) {
-            ev.setMaxColumns(maxCols);
+        if (EventLayout.isWorthParallel(eventsList.size(), numDays)) {
+            new EventLayout().computePositions(eventsList, EventLayout.getExecutor(),
+                    EventLayout.NUM_CPUS);
+        } else {
+            computePositions(eventsList);
         }
     }
 
-    public static int findFirstZeroBit(long val) {
-        for (int ii = 0; ii < 64; ++ii) {
-            if ((val & (1L << ii)) == 0)
-                return ii;
-        }
-        return 64;
+    /**
+     * Recomputes the positions of the events in the overlap groups that
+     * contain an added or changed event, or that overlap where a removed or
+     * changed event used to be.  Every other event keeps the column and
+     * maximum number of columns it already has, so the list must have been
+     * laid out by {@link #computePositions} before the changes.
+     *
+     * @param eventsList the list of events, sorted into increasing time order
+     * @param changedIds the ids of the added and changed events
+     * @param staleEvents the old copies of the removed and changed events
+     */
+    static void computeChangedPositions(ArrayList<Event> eventsList, Set<Long> changedIds,
+            ArrayList<Event> staleEvents) {
+        new EventLayout().computeChangedPositions(eventsList, changedIds, staleEvents);
     }
 
     /**
@@ -566,6 +935,17 @@ public class Event implements Comparable, Cloneable {
 
     public final boolean intersects(int julianDay, int startMinute,
             int endMinute) {
+        return intersects(startDay, endDay, startTime, endTime, julianDay, startMinute,
+                endMinute);
+    }
+
+    /**
+     * Returns true if an event with the given start and end days and times
+     * intersects the span from startMinute to endMinute on julianDay.  Used
+     * by {@link EventStore} to answer the same question without the Event.
+     */
+    static boolean intersects(int startDay, int endDay, int startTime, int endTime,
+            int julianDay, int startMinute, int endMinute) {
         if (endDay < julianDay) {
             return false;
         }
@@ -616,6 +996,29 @@ public class Event implements Comparable, Cloneable {
         return text;
     }
 
+    /**
+     * Returns the title and location as drawn in the day and week views,
+     * sanitized for drawText().  It is computed the first time the event is
+     * drawn and kept for as long as the event is shown, rather than on
+     * every redraw.  The title and location must not change afterwards.
+     */
+    String getDrawText() {
+        if (mDrawText == null) {
+            mDrawText = sanitizeForDrawing(getTitleAndLocation());
+        }
+        return mDrawText;
+    }
+
+    private static final Pattern DRAW_TEXT_SANITIZER = Pattern.compile("[\t\n],");
+
+    // Sanitize a string before passing it to drawText or else we get little
+    // squares. For newlines and tabs before a comma, delete the character.
+    // Otherwise, just replace them with a space.
+    static String sanitizeForDrawing(String string) {
+        Matcher m = DRAW_TEXT_SANITIZER.matcher(string);
+        return m.replaceAll(",").replace('\n', ' ').replace('\t', ' ');
+    }
+
     public void setColumn(int column) {
         mColumn = column;
     }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.provider.Calendar.Events;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of loaded event lists, keyed by the Julian day range
+ * that was loaded and the {@link Event} projection profile it was loaded
+ * with.  The Day, Week and Month views all share one instance so
+ * that paging back to a range that was just displayed does not need another
+ * round trip to the calendar provider.
+ *
+ * The cache holds at most {@link #MAX_CACHED_EVENTS} events in total and
+ * evicts the least recently used ranges first.  It is flushed whenever the
+ * calendar provider reports a change or the timezone changes.
+ *
+ * The cache also keeps, per span of Julian days, the set of days that have
+ * at least one event.  These are small bitsets, so overviews such as the
+ * month grid can be drawn without loading any Event objects.
+ *
+ * Callers never see the cached Event objects themselves.  The views write
+ * their screen coordinates and navigation pointers into the events they draw,
+ * so every put and get makes a copy.  The copies come from the Event pool
+ * and are recycled when a range is evicted.
+ */
+public class EventCache {
+
+    /**
+     * The maximum number of events, summed over all cached ranges, that are
+     * kept in memory.  A busy month is a few hundred events.
+     */
+    static final int MAX_CACHED_EVENTS = 2000;
+
+    private static EventCache sInstance;
+
+    // The access-ordered map makes the first entry the least recently used.
+    private final LinkedHashMap<Long, ArrayList<Event>> mRanges =
+            new LinkedHashMap<Long, ArrayList<Event>>(16, 0.75f, true /* accessOrder */);
+    private int mNumCachedEvents;
+
+    /**
+     * The maximum number of event-day spans that are kept.  A span of a
+     * whole year needs only six longs.
+     */
+    static final int MAX_CACHED_EVENT_DAY_SPANS = 24;
+
+    private final LinkedHashMap<Long, BitSet> mEventDaySpans =
+            new LinkedHashMap<Long, BitSet>(16, 0.75f, true /* accessOrder */);
+
+    // Bumped on every flush so that loads which started before the flush
+    // do not put stale results back into the cache.
+    private int mGeneration;
+
+    // Tests create their own instance, without the change observers.
+    EventCache() {
+    }
+
+    /**
+     * Returns the shared cache, creating it on first use.  Must be called
+     * from the UI thread the first time so that the change observers are
+     * attached to the main looper.
+     */
+    static synchronized EventCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EventCache();
+            sInstance.registerObservers(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private void registerObservers(Context context) {
+        Handler handler = new Handler();
+        context.getContentResolver().registerContentObserver(Events.CONTENT_URI, true,
+                new ContentObserver(handler) {
+                    @Override
+                    public boolean deliverSelfNotifications() {
+                        return true;
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        clear();
+                    }
+                });
+
+        // The start and end days stored in each Event depend on the local
+        // timezone, so a timezone change invalidates everything.
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                clear();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+    }
+
+    private static long makeKey(int startDay, int numDays, int profile,
+            boolean hideDeclined) {
+        long key = ((long) startDay << 32) | (numDays << 3) | (profile << 1);
+        if (hideDeclined) {
+            key |= 1;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the current generation.  Pass it back to {@link #put} so that
+     * results from a load that raced with a flush are dropped.
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the cached events for the given range into <i>events</i>.
+     *
+     * @return true if the range was cached, false otherwise (in which case
+     *  <i>events</i> is left untouched)
+     */
+    synchronized boolean get(int startDay, int numDays, int profile, boolean hideDeclined,
+            ArrayList<Event> events) {
+        ArrayList<Event> cached = mRanges.get(makeKey(startDay, numDays, profile,
+                hideDeclined));
+        if (cached == null) {
+            return false;
+        }
+        Event.recycleEvents(events);
+        copyEvents(cached, events);
+        return true;
+    }
+
+    /**
+     * Returns true if the range is cached.  Unlike {@link #get} this does not
+     * count as a use of the range.
+     */
+    synchronized boolean contains(int startDay, int numDays, int profile,
+            boolean hideDeclined) {
+        return mRanges.containsKey(makeKey(startDay, numDays, profile, hideDeclined));
+    }
+
+    /**
+     * Stores a copy of the events loaded for the given range.  Ranges larger
+     * than the whole cache are not stored.
+     */
+    synchronized void put(int startDay, int numDays, int profile, boolean hideDeclined,
+            ArrayList<Event> events, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        int size = events.size();
+        if (size > MAX_CACHED_EVENTS) {
+            return;
+        }
+
+        ArrayList<Event> copy = new ArrayList<Event>(size);
+        copyEvents(events, copy);
+        ArrayList<Event> old = mRanges.put(makeKey(startDay, numDays, profile, hideDeclined),
+                copy);
+        if (old != null) {
+            mNumCachedEvents -= old.size();
+            Event.recycleEvents(old);
+        }
+        mNumCachedEvents += size;
+        trimToSize();
+    }
+
+    private static long makeSpanKey(int startDay, int numDays, boolean hideDeclined) {
+        long key = ((long) startDay << 32) | (numDays << 1);
+        if (hideDeclined) {
+            key |= 1;
+        }
+        return key;
+    }
+
+    /**
+     * Copies the cached event days of the given span into <i>eventDays</i>.
+     * Bit i is set if day startDay + i has an event, not counting declined
+     * events if hideDeclined is true.
+     *
+     * @return true if the span was cached, false otherwise (in which case
+     *  <i>eventDays</i> is left untouched)
+     */
+    synchronized boolean getEventDays(int startDay, int numDays, boolean hideDeclined,
+            BitSet eventDays) {
+        BitSet cached = mEventDaySpans.get(makeSpanKey(startDay, numDays, hideDeclined));
+        if (cached == null) {
+            return false;
+        }
+        eventDays.clear();
+        eventDays.or(cached);
+        return true;
+    }
+
+    /**
+     * Stores a copy of the event days loaded for the given span.
+     */
+    synchronized void putEventDays(int startDay, int numDays, boolean hideDeclined,
+            BitSet eventDays, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mEventDaySpans.put(makeSpanKey(startDay, numDays, hideDeclined),
+                (BitSet) eventDays.clone());
+
+        Iterator<BitSet> iter = mEventDaySpans.values().iterator();
+        while (mEventDaySpans.size() > MAX_CACHED_EVENT_DAY_SPANS && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Drops all cached ranges and event-day spans.
+     */
+    synchronized void clear() {
+        for (ArrayList<Event> events : mRanges.values()) {
+            Event.recycleEvents(events);
+        }
+        mRanges.clear();
+        mNumCachedEvents = 0;
+        mEventDaySpans.clear();
+        mGeneration++;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Long, ArrayList<Event>>> iter = mRanges.entrySet().iterator();
+        while (mNumCachedEvents > MAX_CACHED_EVENTS && iter.hasNext()) {
+            ArrayList<Event> events = iter.next().getValue();
+            mNumCachedEvents -= events.size();
+            Event.recycleEvents(events);
+            iter.remove();
+        }
+    }
+
+    private static void copyEvents(ArrayList<Event> from, ArrayList<Event> to) {
+        int size = from.size();
+        to.ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            Event e = Event.obtain();
+            from.get(i).copyTo(e);
+            to.add(e);
+        }
+    }
+}
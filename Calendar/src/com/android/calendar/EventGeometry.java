@@ -43,6 +43,9 @@ public class EventGeometry {
         mMinuteHeight = height / 60.0f;
     }
 
+    // Holds the rectangle computed for a single Event.
+    private final float[] mRect = new float[EventStore.RECT_SIZE];
+
     // Computes the rectangle coordinates of the given event on the screen.
     // Returns true if the rectangle is visible on the screen.
     boolean computeEventRect(int date, int left, int top, int cellWidth, Event event) {
@@ -50,16 +53,38 @@ public class EventGeometry {
             return false;
         }
 
-        float cellMinuteHeight = mMinuteHeight;
-        int startDay = event.startDay;
-        int endDay = event.endDay;
+        float[] rect = mRect;
+        if (!computeRect(date, left, top, cellWidth, event.startDay, event.endDay,
+                event.startTime, event.endTime, event.getColumn(), event.getMaxColumns(),
+                rect, 0)) {
+            return false;
+        }
+        event.left = rect[EventStore.RECT_LEFT];
+        event.top = rect[EventStore.RECT_TOP];
+        event.right = rect[EventStore.RECT_RIGHT];
+        event.bottom = rect[EventStore.RECT_BOTTOM];
+        return true;
+    }
 
-        if (startDay > date || endDay < date) {
+    // Computes the rectangle coordinates of the event at the given index of
+    // the store and writes them into rect at the given offset.  Returns true
+    // if the rectangle is visible on the screen.
+    boolean computeEventRect(int date, int left, int top, int cellWidth, EventStore store,
+            int index, float[] rect, int offset) {
+        if (store.allDay[index]) {
             return false;
         }
+        return computeRect(date, left, top, cellWidth, store.startDay[index],
+                store.endDay[index], store.startTime[index], store.endTime[index],
+                store.column[index], store.maxColumns[index], rect, offset);
+    }
 
-        int startTime = event.startTime;
-        int endTime = event.endTime;
+    private boolean computeRect(int date, int left, int top, int cellWidth, int startDay,
+            int endDay, int startTime, int endTime, int col, int maxCols, float[] rect,
+            int offset) {
+        if (startDay > date || endDay < date) {
+            return false;
+        }
 
         // If the event started on a previous day, then show it starting
         // at the beginning of this day.
@@ -73,8 +98,18 @@ public class EventGeometry {
             endTime = CalendarView.MINUTES_PER_DAY;
         }
 
-        int col = event.getColumn();
-        int maxCols = event.getMaxColumns();
+        float colWidth = (float) (cellWidth - 2 * mCellMargin) / (float) maxCols;
+        float eventLeft = left + mCellMargin + col * colWidth;
+        computeSpanRect(eventLeft, top, colWidth, startTime, endTime, rect, offset);
+        return true;
+    }
+
+    // Computes the rectangle of the span of a day from startTime to endTime,
+    // in minutes since midnight, in a column of the given left edge and
+    // width, and writes it into rect at the given offset.
+    void computeSpanRect(float left, int top, float width, int startTime, int endTime,
+            float[] rect, int offset) {
+        float cellMinuteHeight = mMinuteHeight;
         int startHour = startTime / 60;
         int endHour = endTime / 60;
 
@@ -84,23 +119,23 @@ public class EventGeometry {
         if (endHour * 60 == endTime)
             endHour -= 1;
 
-        event.top = top;
-        event.top += (int) (startTime * cellMinuteHeight);
-        event.top += startHour * mHourGap;
+        float eventTop = top;
+        eventTop += (int) (startTime * cellMinuteHeight);
+        eventTop += startHour * mHourGap;
 
-        event.bottom = top;
-        event.bottom += (int) (endTime * cellMinuteHeight);
-        event.bottom += endHour * mHourGap;
+        float eventBottom = top;
+        eventBottom += (int) (endTime * cellMinuteHeight);
+        eventBottom += endHour * mHourGap;
 
         // Make the rectangle be at least mMinEventHeight pixels high
-        if (event.bottom < event.top + mMinEventHeight) {
-            event.bottom = event.top + mMinEventHeight;
+        if (eventBottom < eventTop + mMinEventHeight) {
+            eventBottom = eventTop + mMinEventHeight;
         }
 
-        float colWidth = (float) (cellWidth - 2 * mCellMargin) / (float) maxCols;
-        event.left = left + mCellMargin + col * colWidth;
-        event.right = event.left + colWidth;
-        return true;
+        rect[offset + EventStore.RECT_LEFT] = left;
+        rect[offset + EventStore.RECT_TOP] = eventTop;
+        rect[offset + EventStore.RECT_RIGHT] = left + width;
+        rect[offset + EventStore.RECT_BOTTOM] = eventBottom;
     }
 
     /**
@@ -114,6 +149,26 @@ public class EventGeometry {
         return false;
     }
 
+    /**
+     * Computes the squared distance from the given point to the given
+     * event.  Use this to compare distances; it avoids the square root.
+     */
+    float pointToEventSquared(float x, float y, Event event) {
+        float dx = 0;
+        if (x < event.left) {
+            dx = event.left - x;
+        } else if (x > event.right) {
+            dx = x - event.right;
+        }
+        float dy = 0;
+        if (y < event.top) {
+            dy = event.top - y;
+        } else if (y > event.bottom) {
+            dy = y - event.bottom;
+        }
+        return dx * dx + dy * dy;
+    }
+
     /**
      * Computes the distance from the given point to the given event.
      */
@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assigns the column and the number of columns of each event, as described
+ * in {@link Event#computePositions}.  The events are visited in start time
+ * order.  The events that have not ended yet are kept in a min-heap on their
+ * end time, and the columns they released in a min-heap of column numbers,
+ * so each event costs O(log n) and there is no limit on the number of
+ * columns.
+ *
+ * A layout object holds its heaps between calls, so reusing one for every
+ * load does not allocate once the heaps have grown.  It is not thread-safe.
+ *
+ * Overlap groups never cross a point in time where nothing is active, so a
+ * long span can be cut into runs of whole groups and the runs laid out at
+ * the same time, each with its own EventLayout.  The result is the same as
+ * laying out the whole list in one pass.
+ */
+class EventLayout {
+
+    /**
+     * The smallest span, in days, and number of events for which
+     * {@link Event#computePositions(ArrayList, int)} lays out in parallel.
+     * Below that the hand-off costs more than it saves.
+     */
+    static final int PARALLEL_MIN_DAYS = 28;
+    static final int PARALLEL_MIN_EVENTS = 512;
+
+    static final int NUM_CPUS = Runtime.getRuntime().availableProcessors();
+
+    // Idle threads exit after this long, so the pool costs nothing between
+    // loads.
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private static ThreadPoolExecutor sExecutor;
+
+    // Min-heap of the active events, on end time.
+    private Event[] mActive = new Event[16];
+    private int mNumActive;
+
+    // Min-heap of the columns released within the current group.  Every
+    // column below mNextColumn that is not in this heap is taken.
+    private int[] mFreeColumns = new int[16];
+    private int mNumFreeColumns;
+    private int mNextColumn;
+
+    /**
+     * Lays out the timed events and, separately, the all-day events of the
+     * given list, which must be sorted into increasing start time order.
+     */
+    void computePositions(ArrayList<Event> events) {
+        int numEvents = events.size();
+        layout(events, 0, numEvents, false);
+        layout(events, 0, numEvents, true);
+    }
+
+    /**
+     * Returns true if a list of numEvents events loaded for numDays days is
+     * big enough to lay out in parallel on this device.
+     */
+    static boolean isWorthParallel(int numEvents, int numDays) {
+        return NUM_CPUS > 1 && numDays >= PARALLEL_MIN_DAYS
+                && numEvents >= PARALLEL_MIN_EVENTS;
+    }
+
+    /**
+     * Returns the shared pool for parallel layouts.  It has a thread per CPU
+     * at most and none when idle.  When every thread is busy, the caller
+     * lays out the partition itself.
+     */
+    static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            ThreadFactory factory = new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "EventLayout");
+                }
+            };
+            sExecutor = new ThreadPoolExecutor(0, NUM_CPUS, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory,
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Like {@link #computePositions(ArrayList)} but cuts each kind of event
+     * into about numPartitions runs of whole overlap groups and lays the
+     * runs out on the executor.  The calling thread lays out the last run
+     * and then waits for the others.
+     */
+    void computePositions(ArrayList<Event> events, Executor executor, int numPartitions) {
+        ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+        addPartitions(events, false, numPartitions, tasks);
+        addPartitions(events, true, numPartitions, tasks);
+        int numTasks = tasks.size();
+        if (numTasks == 0) {
+            return;
+        }
+
+        final CountDownLatch done = new CountDownLatch(numTasks - 1);
+        for (int i = 0; i < numTasks - 1; i++) {
+            final Runnable task = tasks.get(i);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        tasks.get(numTasks - 1).run();
+
+        // The other runs are still writing into the events, so wait for
+        // them even if interrupted.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a task for each run of about size / numPartitions list entries
+     * that starts and ends on an overlap group boundary of the given kind.
+     */
+    private static void addPartitions(ArrayList<Event> events, boolean allDay,
+            int numPartitions, ArrayList<Runnable> tasks) {
+        int numEvents = events.size();
+        int target = Math.max(1, numEvents / numPartitions);
+        int runStart = -1;
+        long groupEndMillis = 0;
+        for (int i = 0; i < numEvents; i++) {
+            Event event = events.get(i);
+            if (event.allDay != allDay) {
+                continue;
+            }
+
+            long start = event.getStartMillis();
+            long end = event.getEndMillis();
+            if (runStart < 0) {
+                runStart = i;
+                groupEndMillis = end;
+            } else if (start >= groupEndMillis) {
+                // A new group starts here.
+                if (i - runStart >= target) {
+                    tasks.add(new Partition(events, runStart, i, allDay));
+                    runStart = i;
+                }
+                groupEndMillis = end;
+            } else if (groupEndMillis < end) {
+                groupEndMillis = end;
+            }
+        }
+        if (runStart >= 0) {
+            tasks.add(new Partition(events, runStart, numEvents, allDay));
+        }
+    }
+
+    private static class Partition implements Runnable {
+        private final ArrayList<Event> mEvents;
+        private final int mFrom;
+        private final int mTo;
+        private final boolean mAllDay;
+
+        Partition(ArrayList<Event> events, int from, int to, boolean allDay) {
+            mEvents = events;
+            mFrom = from;
+            mTo = to;
+            mAllDay = allDay;
+        }
+
+        public void run() {
+            new EventLayout().layout(mEvents, mFrom, mTo, mAllDay);
+        }
+    }
+
+    /**
+     * Like {@link #computePositions(ArrayList)} but only lays out the
+     * overlap groups that may have changed since the list was last laid
+     * out.  That is a group with an event whose id is in changedIds, or one
+     * that overlaps the old position of a stale event, which may have held
+     * the group together or taken up a column.  The other events keep their
+     * columns.
+     *
+     * @param events the events, sorted into increasing start time order
+     * @param changedIds the ids of the events that were added or changed
+     * @param staleEvents the old copies of the events that were removed or
+     *  changed
+     */
+    void computeChangedPositions(ArrayList<Event> events, Set<Long> changedIds,
+            ArrayList<Event> staleEvents) {
+        layoutChanged(events, false, changedIds, staleEvents);
+        layoutChanged(events, true, changedIds, staleEvents);
+    }
+
+    private void layoutChanged(ArrayList<Event> events, boolean allDay, Set<Long> changedIds,
+            ArrayList<Event> staleEvents) {
+        // Find the groups without the heaps: an event starts a new group
+        // when every earlier event has ended by its start time.
+        int groupStart = -1;
+        long groupStartMillis = 0;
+        long groupEndMillis = 0;
+        boolean dirty = false;
+        int numEvents = events.size();
+        for (int i = 0; i < numEvents; i++) {
+            Event event = events.get(i);
+            if (event.allDay != allDay) {
+                continue;
+            }
+
+            long start = event.getStartMillis();
+            long end = event.getEndMillis();
+            if (groupStart < 0 || start >= groupEndMillis) {
+                if (groupStart >= 0 && (dirty || overlapsStale(staleEvents, allDay,
+                        groupStartMillis, groupEndMillis))) {
+                    layout(events, groupStart, i, allDay);
+                }
+                groupStart = i;
+                groupStartMillis = start;
+                groupEndMillis = end;
+                dirty = false;
+            } else if (groupEndMillis < end) {
+                groupEndMillis = end;
+            }
+            if (!dirty && changedIds.contains(event.id)) {
+                dirty = true;
+            }
+        }
+        if (groupStart >= 0 && (dirty || overlapsStale(staleEvents, allDay,
+                groupStartMillis, groupEndMillis))) {
+            layout(events, groupStart, numEvents, allDay);
+        }
+    }
+
+    private static boolean overlapsStale(ArrayList<Event> staleEvents, boolean allDay,
+            long startMillis, long endMillis) {
+        int numStale = staleEvents.size();
+        for (int i = 0; i < numStale; i++) {
+            Event stale = staleEvents.get(i);
+            if (stale.allDay == allDay && stale.getStartMillis() < endMillis
+                    && stale.getEndMillis() > startMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lays out the events of one kind in [from, to), which must begin with
+     * the first event of a group and end after the last event of one.
+     */
+    private void layout(ArrayList<Event> events, int from, int to, boolean allDay) {
+        clear();
+
+        // The events of a group are the ones between groupStart and the
+        // current event that have the right all-day flag.
+        int groupStart = from;
+        int maxCols = 0;
+        for (int i = from; i < to; i++) {
+            Event event = events.get(i);
+            if (event.allDay != allDay) {
+                continue;
+            }
+
+            // An event stops being active when it ends at or before the
+            // start of this one.
+            long start = event.getStartMillis();
+            while (mNumActive > 0 && mActive[0].getEndMillis() <= start) {
+                releaseColumn(removeFirstActive().getColumn());
+            }
+
+            // When nothing is active the previous group is complete.
+            if (mNumActive == 0) {
+                setMaxColumns(events, groupStart, i, allDay, maxCols);
+                groupStart = i;
+                maxCols = 0;
+                mNumFreeColumns = 0;
+                mNextColumn = 0;
+            }
+
+            event.setColumn(takeColumn());
+            addActive(event);
+            if (maxCols < mNumActive) {
+                maxCols = mNumActive;
+            }
+        }
+        setMaxColumns(events, groupStart, to, allDay, maxCols);
+
+        // Don't hold on to the events.
+        clear();
+    }
+
+    private void clear() {
+        for (int i = 0; i < mNumActive; i++) {
+            mActive[i] = null;
+        }
+        mNumActive = 0;
+        mNumFreeColumns = 0;
+        mNextColumn = 0;
+    }
+
+    private static void setMaxColumns(ArrayList<Event> events, int start, int end,
+            boolean allDay, int maxCols) {
+        for (int i = start; i < end; i++) {
+            Event event = events.get(i);
+            if (event.allDay == allDay) {
+                event.setMaxColumns(maxCols);
+            }
+        }
+    }
+
+    private int takeColumn() {
+        if (mNumFreeColumns == 0) {
+            return mNextColumn++;
+        }
+
+        // Every released column is below mNextColumn, so the smallest free
+        // column is the top of the heap.
+        int[] heap = mFreeColumns;
+        int col = heap[0];
+        int last = heap[--mNumFreeColumns];
+        int size = mNumFreeColumns;
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return col;
+    }
+
+    private void releaseColumn(int col) {
+        if (mNumFreeColumns == mFreeColumns.length) {
+            int[] heap = new int[mNumFreeColumns * 2];
+            System.arraycopy(mFreeColumns, 0, heap, 0, mNumFreeColumns);
+            mFreeColumns = heap;
+        }
+        int[] heap = mFreeColumns;
+        int i = mNumFreeColumns++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heap[parent] <= col) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = col;
+    }
+
+    private void addActive(Event event) {
+        if (mNumActive == mActive.length) {
+            Event[] heap = new Event[mNumActive * 2];
+            System.arraycopy(mActive, 0, heap, 0, mNumActive);
+            mActive = heap;
+        }
+        Event[] heap = mActive;
+        long end = event.getEndMillis();
+        int i = mNumActive++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heap[parent].getEndMillis() <= end) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = event;
+    }
+
+    private Event removeFirstActive() {
+        Event[] heap = mActive;
+        Event first = heap[0];
+        Event last = heap[--mNumActive];
+        heap[mNumActive] = null;
+        int size = mNumActive;
+        if (size == 0) {
+            return first;
+        }
+
+        long end = last.getEndMillis();
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size
+                    && heap[child + 1].getEndMillis() < heap[child].getEndMillis()) {
+                child++;
+            }
+            if (end <= heap[child].getEndMillis()) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return first;
+    }
+}
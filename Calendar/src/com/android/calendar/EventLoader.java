@@ -20,91 +20,123 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.os.Handler;
-import android.os.Process;
+import android.provider.Calendar.Attendees;
 import android.provider.Calendar.EventDays;
+import android.provider.Calendar.Instances;
+import android.text.format.DateUtils;
+import android.text.format.Time;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.BitSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class EventLoader {
 
+    private static final String TAG = "EventLoader";
+
+    // How long the loaded range has to stay on screen before the adjacent
+    // ranges are prefetched.
+    static final long PREFETCH_DELAY_MILLIS = 500;
+
     private Context mContext;
-    private Handler mHandler = new Handler();
+    private Handler mHandler;
     private AtomicInteger mSequenceNumber = new AtomicInteger();
 
-    private LinkedBlockingQueue<LoadRequest> mLoaderQueue;
-    private LoaderThread mLoaderThread;
+    // The columns read from the instances when the days with events must
+    // leave out declined events, which EventDays cannot do.
+    private static final String[] EVENT_DAYS_PROJECTION = new String[] {
+            Instances.START_DAY,
+            Instances.END_DAY,
+    };
+
+    // Event-day requests are numbered separately, since loading the events
+    // of a range does not make its event days stale.
+    private AtomicInteger mEventDaysSequenceNumber = new AtomicInteger();
+
+    private LoadScheduler mScheduler;
     private ContentResolver mResolver;
+    private EventCache mEventCache;
+
+    // The prefetch waiting for the current range to settle, if any.
+    private Runnable mPendingPrefetch;
 
     private static interface LoadRequest {
         public void processRequest(EventLoader eventLoader);
         public void skipRequest(EventLoader eventLoader);
     }
 
-    private static class ShutdownRequest implements LoadRequest {
-        public void processRequest(EventLoader eventLoader) {
-        }
-
-        public void skipRequest(EventLoader eventLoader) {
-        }
-    }
-
     /**
-     *
-     * Code for handling requests to get whether days have an event or not
-     * and filling in the eventDays array.
-     *
+     * Loads which days of a span have events into the {@link EventCache} and
+     * then copies them into the caller's bitset on the UI thread, unless a
+     * newer request for event days was made in the meantime.
      */
     private static class LoadEventDaysRequest implements LoadRequest {
+        public int id;
         public int startDay;
         public int numDays;
-        public boolean[] eventDays;
+        public boolean hideDeclined;
+        public int cacheGeneration;
+        public BitSet eventDays;
         public Runnable uiCallback;
 
-        public LoadEventDaysRequest(int startDay, int numDays, boolean[] eventDays,
-                final Runnable uiCallback)
+        public LoadEventDaysRequest(int id, int startDay, int numDays, boolean hideDeclined,
+                int cacheGeneration, BitSet eventDays, final Runnable uiCallback)
         {
+            this.id = id;
             this.startDay = startDay;
             this.numDays = numDays;
+            this.hideDeclined = hideDeclined;
+            this.cacheGeneration = cacheGeneration;
             this.eventDays = eventDays;
             this.uiCallback = uiCallback;
         }
 
-        public void processRequest(EventLoader eventLoader)
+        public void processRequest(final EventLoader eventLoader)
         {
-            final Handler handler = eventLoader.mHandler;
-            ContentResolver cr = eventLoader.mResolver;
-
-            // Clear the event days
-            Arrays.fill(eventDays, false);
+            if (id != eventLoader.mEventDaysSequenceNumber.get()) {
+                return;
+            }
+            final BitSet loaded = new BitSet(numDays);
 
             //query which days have events
-            Cursor cursor = EventDays.query(cr, startDay, numDays);
+            Cursor cursor;
+            if (hideDeclined) {
+                cursor = queryInstanceDays(eventLoader.mResolver, startDay, numDays);
+            } else {
+                cursor = EventDays.query(eventLoader.mResolver, startDay, numDays);
+            }
+            if (cursor == null) {
+                // Nothing is cached and, as for a skipped request, the
+                // caller's bitset and callback are left alone.
+                Log.e(TAG, "loadEventDaysInBackground() returned null cursor!");
+                return;
+            }
             try {
-                int startDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.STARTDAY);
-                int endDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.ENDDAY);
-
-                //Set all the days with events to true
-                while (cursor.moveToNext()) {
-                    int firstDay = cursor.getInt(startDayColumnIndex);
-                    int lastDay = cursor.getInt(endDayColumnIndex);
-                    //we want the entire range the event occurs, but only within the month
-                    int firstIndex = Math.max(firstDay - startDay, 0);
-                    int lastIndex = Math.min(lastDay - startDay, 30);
-
-                    for(int i = firstIndex; i <= lastIndex; i++) {
-                        eventDays[i] = true;
-                    }
+                if (hideDeclined) {
+                    readEventDays(cursor, 0, 1, startDay, numDays, loaded);
+                } else {
+                    readEventDays(cursor, startDay, numDays, loaded);
                 }
             } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
+                cursor.close();
             }
-            handler.post(uiCallback);
+            eventLoader.mEventCache.putEventDays(startDay, numDays, hideDeclined, loaded,
+                    cacheGeneration);
+
+            // The caller's bitset is only touched on the UI thread, and not
+            // at all once a newer request, perhaps answered straight from
+            // the cache, has filled it in for another span.
+            eventLoader.mHandler.post(new Runnable() {
+                public void run() {
+                    if (id != eventLoader.mEventDaysSequenceNumber.get()) {
+                        return;
+                    }
+                    eventDays.clear();
+                    eventDays.or(loaded);
+                    uiCallback.run();
+                }
+            });
         }
 
         public void skipRequest(EventLoader eventLoader) {
@@ -115,106 +147,191 @@ public class EventLoader {
 
         public int id;
         public long startMillis;
+        public int startDay;
         public int numDays;
+        public int profile;
+        public boolean hideDeclined;
+        public int cacheGeneration;
+        public boolean forMerge;
         public ArrayList<Event> events;
         public Runnable successCallback;
         public Runnable cancelCallback;
 
-        public LoadEventsRequest(int id, long startMillis, int numDays, ArrayList<Event> events,
-                final Runnable successCallback, final Runnable cancelCallback) {
+        public LoadEventsRequest(int id, long startMillis, int startDay, int numDays,
+                int profile, boolean hideDeclined, int cacheGeneration, boolean forMerge,
+                ArrayList<Event> events, final Runnable successCallback,
+                final Runnable cancelCallback) {
             this.id = id;
             this.startMillis = startMillis;
+            this.startDay = startDay;
             this.numDays = numDays;
+            this.profile = profile;
+            this.hideDeclined = hideDeclined;
+            this.cacheGeneration = cacheGeneration;
+            this.forMerge = forMerge;
             this.events = events;
             this.successCallback = successCallback;
             this.cancelCallback = cancelCallback;
         }
 
-        public void processRequest(EventLoader eventLoader) {
-            Event.loadEvents(eventLoader.mContext, events, startMillis,
-                    numDays, id, eventLoader.mSequenceNumber);
+        public void processRequest(final EventLoader eventLoader) {
+            // Events loaded to be merged are laid out by the merge, on the
+            // UI thread, and only where they changed.
+            eventLoader.loadEvents(events, startMillis, numDays, profile,
+                    !forMerge /* compute positions */, id);
 
             // Check if we are still the most recent request.
-            if (id == eventLoader.mSequenceNumber.get()) {
-                eventLoader.mHandler.post(successCallback);
-            } else {
-                eventLoader.mHandler.post(cancelCallback);
+            if (id != eventLoader.mSequenceNumber.get()) {
+                // Nobody will look at the stale events.
+                Event.recycleEvents(events);
+                postCancel(eventLoader);
+                return;
+            }
+
+            // Events that are not laid out must not be cached.
+            if (!forMerge) {
+                eventLoader.mEventCache.put(startDay, numDays, profile, hideDeclined,
+                        events, cacheGeneration);
             }
+
+            // A newer request may be answered from the cache before this
+            // runs, so check again on the UI thread.  Otherwise these events
+            // would replace the ones of the newer range.
+            eventLoader.mHandler.post(new Runnable() {
+                public void run() {
+                    if (id == eventLoader.mSequenceNumber.get()) {
+                        successCallback.run();
+                    } else {
+                        Event.recycleEvents(events);
+                        if (cancelCallback != null) {
+                            cancelCallback.run();
+                        }
+                    }
+                }
+            });
         }
 
         public void skipRequest(EventLoader eventLoader) {
-            eventLoader.mHandler.post(cancelCallback);
+            postCancel(eventLoader);
+        }
+
+        private void postCancel(EventLoader eventLoader) {
+            if (cancelCallback != null) {
+                eventLoader.mHandler.post(cancelCallback);
+            }
         }
     }
 
-    private static class LoaderThread extends Thread {
-        LinkedBlockingQueue<LoadRequest> mQueue;
-        EventLoader mEventLoader;
+    /**
+     * Loads a range that is not on screen yet into the {@link EventCache}.
+     * A prefetch gives up as soon as any real load request is made.
+     */
+    private static class PrefetchRequest implements LoadRequest {
 
-        public LoaderThread(LinkedBlockingQueue<LoadRequest> queue, EventLoader eventLoader) {
-            mQueue = queue;
-            mEventLoader = eventLoader;
-        }
+        public int id;
+        public long startMillis;
+        public int startDay;
+        public int numDays;
+        public int profile;
+        public boolean hideDeclined;
+        public int cacheGeneration;
 
-        public void shutdown() {
-            try {
-                mQueue.put(new ShutdownRequest());
-            } catch (InterruptedException ex) {
-                // The put() method fails with InterruptedException if the
-                // queue is full. This should never happen because the queue
-                // has no limit.
-                Log.e("Cal", "LoaderThread.shutdown() interrupted!");
-            }
+        public PrefetchRequest(int id, long startMillis, int startDay, int numDays,
+                int profile, boolean hideDeclined, int cacheGeneration) {
+            this.id = id;
+            this.startMillis = startMillis;
+            this.startDay = startDay;
+            this.numDays = numDays;
+            this.profile = profile;
+            this.hideDeclined = hideDeclined;
+            this.cacheGeneration = cacheGeneration;
         }
 
-        @Override
-        public void run() {
-            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-            while (true) {
-                try {
-                    // Wait for the next request
-                    LoadRequest request = mQueue.take();
-
-                    // If there are a bunch of requests already waiting, then
-                    // skip all but the most recent request.
-                    while (!mQueue.isEmpty()) {
-                        // Let the request know that it was skipped
-                        request.skipRequest(mEventLoader);
-
-                        // Skip to the next request
-                        request = mQueue.take();
-                    }
+        public void processRequest(EventLoader eventLoader) {
+            AtomicInteger sequenceNumber = eventLoader.mSequenceNumber;
+            if (id != sequenceNumber.get()
+                    || eventLoader.mEventCache.contains(startDay, numDays, profile,
+                            hideDeclined)) {
+                return;
+            }
 
-                    if (request instanceof ShutdownRequest) {
-                        return;
-                    }
-                    request.processRequest(mEventLoader);
-                } catch (InterruptedException ex) {
-                    Log.e("Cal", "background LoaderThread interrupted!");
-                }
+            ArrayList<Event> events = new ArrayList<Event>();
+            eventLoader.loadEvents(events, startMillis, numDays, profile,
+                    true /* compute positions */, id);
+            if (id == sequenceNumber.get()) {
+                eventLoader.mEventCache.put(startDay, numDays, profile, hideDeclined, events,
+                        cacheGeneration);
             }
+
+            // The cache keeps its own copy.
+            Event.recycleEvents(events);
+        }
+
+        public void skipRequest(EventLoader eventLoader) {
         }
     }
 
     public EventLoader(Context context) {
+        this(context, LoadScheduler.DEFAULT_NUM_WORKERS);
+    }
+
+    /**
+     * Creates a loader that runs its requests on numWorkers background
+     * threads.  Loads for the visible range, month day summaries and
+     * prefetches each wait in their own lane of the {@link LoadScheduler},
+     * so with more than one worker they don't hold each other up.
+     */
+    public EventLoader(Context context, int numWorkers) {
+        this(context, new LoadScheduler(numWorkers), EventCache.getInstance(context),
+                new Handler());
+    }
+
+    // Tests pass their own cache, and a handler on a looper they control.
+    EventLoader(Context context, LoadScheduler scheduler, EventCache eventCache,
+            Handler handler) {
         mContext = context;
-        mLoaderQueue = new LinkedBlockingQueue<LoadRequest>();
+        mScheduler = scheduler;
         mResolver = context.getContentResolver();
+        mEventCache = eventCache;
+        mHandler = handler;
     }
 
     /**
      * Call this from the activity's onResume()
      */
     public void startBackgroundThread() {
-        mLoaderThread = new LoaderThread(mLoaderQueue, this);
-        mLoaderThread.start();
+        mScheduler.start();
     }
 
     /**
      * Call this from the activity's onPause()
      */
     public void stopBackgroundThread() {
-        mLoaderThread.shutdown();
+        cancelPendingPrefetch();
+        mScheduler.stop();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "lanes: " + mScheduler.dumpStats());
+        }
+    }
+
+    /**
+     * Returns the scheduler, whose per-lane queue depths and latencies are
+     * useful for diagnostics.
+     */
+    LoadScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    private void queue(int lane, final LoadRequest request) {
+        mScheduler.queue(lane, new LoadScheduler.Request() {
+            public void processRequest() {
+                request.processRequest(EventLoader.this);
+            }
+
+            public void skipRequest() {
+                request.skipRequest(EventLoader.this);
+            }
+        });
     }
 
     /**
@@ -225,52 +342,228 @@ public class EventLoader {
      * the ones that were passed in on the call that results in the background thread getting
      * created are used, and the most recent call's worth of data is loaded into events and posted
      * via the uiCallback.
+     *
+     * If the range is already in the shared {@link EventCache} then events is
+     * filled in and successCallback is run before this method returns.
+     *
+     * The profile, one of the Event.PROFILE_ constants, picks the columns
+     * that are loaded.  Use the smallest one that has everything the view
+     * draws, and {@link Event#loadDetails} for the rest.
      */
-    void loadEventsInBackground(final int numDays, final ArrayList<Event> events,
+    void loadEventsInBackground(final int numDays, int profile, final ArrayList<Event> events,
             long start, final Runnable successCallback, final Runnable cancelCallback) {
+        loadEventsInBackground(numDays, profile, events, start, successCallback,
+                cancelCallback, true /* use cache */);
+    }
+
+    /**
+     * Like {@link #loadEventsInBackground(int, int, ArrayList, long, Runnable, Runnable)}
+     * but always queries the provider.  Use this when the provider reported
+     * a change and merge the result into the displayed events with
+     * {@link Event#mergeEvents}, which lays out the overlap groups that
+     * changed.  The events are not laid out and are not cached.
+     *
+     * The whole range is queried again, not just the changed instances.
+     * The provider reports a change without saying what changed, the
+     * instances have no modification time to select by, and a deleted
+     * instance only shows up as a row that is no longer returned.  So only
+     * a read of the whole range can tell what to merge.  What the merge
+     * saves is the work after the query: unchanged events keep their
+     * objects and columns, only the overlap groups that changed are laid
+     * out, and only the changed days are redrawn.
+     */
+    void reloadChangedEventsInBackground(final int numDays, int profile,
+            final ArrayList<Event> events, long start, final Runnable successCallback,
+            final Runnable cancelCallback) {
+        loadEventsInBackground(numDays, profile, events, start, successCallback,
+                cancelCallback, false /* don't use cache */);
+    }
+
+    private void loadEventsInBackground(int numDays, int profile, ArrayList<Event> events,
+            long start, Runnable successCallback, Runnable cancelCallback, boolean useCache) {
 
         // Increment the sequence number for requests.  We don't care if the
         // sequence numbers wrap around because we test for equality with the
-        // latest one.
+        // latest one.  This also cancels any load that is still in progress.
         int id = mSequenceNumber.incrementAndGet();
+        cancelPendingPrefetch();
+
+        int startDay = getJulianDay(start);
+        boolean hideDeclined = isHideDeclined();
+        if (useCache && mEventCache.get(startDay, numDays, profile, hideDeclined, events)) {
+            successCallback.run();
+            return;
+        }
 
         // Send the load request to the background thread
-        LoadEventsRequest request = new LoadEventsRequest(id, start, numDays,
+        LoadEventsRequest request = new LoadEventsRequest(id, start, startDay, numDays,
+                profile, hideDeclined, mEventCache.getGeneration(), !useCache /* for merge */,
                 events, successCallback, cancelCallback);
 
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventsInBackground() interrupted!");
+        queue(LoadScheduler.LANE_VISIBLE, request);
+    }
+
+    /**
+     * Loads the ranges of "numDays" days starting at previousStart and
+     * nextStart into the cache, so that navigating to them is instant.
+     * Call this once the visible range has loaded.  Nothing is loaded until
+     * the visible range has stayed the same for a short while, and the
+     * prefetch is abandoned as soon as loadEventsInBackground() is called
+     * again.
+     */
+    void prefetchEventsInBackground(final int numDays, final int profile,
+            final long previousStart, final long nextStart) {
+        cancelPendingPrefetch();
+
+        final int id = mSequenceNumber.get();
+        mPendingPrefetch = new Runnable() {
+            public void run() {
+                mPendingPrefetch = null;
+                if (id != mSequenceNumber.get()) {
+                    return;
+                }
+
+                // Most navigation is forward, so fetch the next range first.
+                queuePrefetch(id, numDays, profile, nextStart);
+                queuePrefetch(id, numDays, profile, previousStart);
+            }
+        };
+        mHandler.postDelayed(mPendingPrefetch, PREFETCH_DELAY_MILLIS);
+    }
+
+    private void queuePrefetch(int id, int numDays, int profile, long start) {
+        int startDay = getJulianDay(start);
+        boolean hideDeclined = isHideDeclined();
+        if (mEventCache.contains(startDay, numDays, profile, hideDeclined)) {
+            return;
         }
+
+        PrefetchRequest request = new PrefetchRequest(id, start, startDay, numDays, profile,
+                hideDeclined, mEventCache.getGeneration());
+        queue(LoadScheduler.LANE_PREFETCH, request);
+    }
+
+    private void cancelPendingPrefetch() {
+        if (mPendingPrefetch != null) {
+            mHandler.removeCallbacks(mPendingPrefetch);
+            mPendingPrefetch = null;
+        }
+    }
+
+    /**
+     * Loads the events of a range on a worker thread.  Gives up early if
+     * the sequence number moves past id.  Tests override this to stand in
+     * for the calendar provider.
+     */
+    void loadEvents(ArrayList<Event> events, long startMillis, int numDays, int profile,
+            boolean computePositions, int id) {
+        Event.loadEvents(mContext, events, startMillis, numDays, profile, computePositions,
+                id, mSequenceNumber);
     }
 
     /**
-     * Sends a request for the days with events to be marked. Loads "numDays"
-     * worth of days, starting at start, and fills in eventDays to express which
-     * days have events.
+     * Returns the Julian day of the given time in the current timezone.  A
+     * new Time is used each time so that a change of timezone is picked up
+     * as soon as the cache is flushed for it.
+     */
+    private static int getJulianDay(long millis) {
+        Time time = new Time();
+        time.set(millis);
+        return Time.getJulianDay(millis, time.gmtoff);
+    }
+
+    boolean isHideDeclined() {
+        return CalendarPreferenceActivity.getSharedPreferences(mContext)
+                .getBoolean(CalendarPreferenceActivity.KEY_HIDE_DECLINED, false);
+    }
+
+    /**
+     * Drops all the event lists cached for any view.  Call this when the
+     * events in the calendar provider change.
+     */
+    void clearCache() {
+        mEventCache.clear();
+    }
+
+    /**
+     * Queries the start and end days of the instances of the span that the
+     * user has not declined, with the columns of {@link #EVENT_DAYS_PROJECTION}.
+     */
+    private static Cursor queryInstanceDays(ContentResolver resolver, int startDay,
+            int numDays) {
+        Time time = new Time();
+        long start = time.setJulianDay(startDay);
+        long end = time.setJulianDay(startDay + numDays);
+
+        // Widen the range by a day on each end to catch all-day events, as
+        // Event.loadEvents() does.  Days outside the span are skipped when
+        // the rows are read.
+        String where = Instances.SELF_ATTENDEE_STATUS + "!=" + Attendees.ATTENDEE_STATUS_DECLINED;
+        return Instances.query(resolver, EVENT_DAYS_PROJECTION,
+                start - DateUtils.DAY_IN_MILLIS, end + DateUtils.DAY_IN_MILLIS, where,
+                null /* sort */);
+    }
+
+    /**
+     * Sets bit i of eventDays for every day startDay + i, i < numDays, that
+     * is covered by one of the rows of an {@link EventDays} cursor.
+     */
+    static void readEventDays(Cursor cursor, int startDay, int numDays, BitSet eventDays) {
+        readEventDays(cursor, cursor.getColumnIndexOrThrow(EventDays.STARTDAY),
+                cursor.getColumnIndexOrThrow(EventDays.ENDDAY), startDay, numDays, eventDays);
+    }
+
+    /**
+     * Like {@link #readEventDays(Cursor, int, int, BitSet)} for a cursor with
+     * the start and end days in the given columns.
+     */
+    static void readEventDays(Cursor cursor, int startDayColumnIndex, int endDayColumnIndex,
+            int startDay, int numDays, BitSet eventDays) {
+        eventDays.clear();
+        while (cursor.moveToNext()) {
+            int firstDay = cursor.getInt(startDayColumnIndex);
+            int lastDay = cursor.getInt(endDayColumnIndex);
+
+            // We want the entire range the event occurs, but only within the span
+            int firstIndex = Math.max(firstDay - startDay, 0);
+            int lastIndex = Math.min(lastDay - startDay, numDays - 1);
+            if (firstIndex <= lastIndex) {
+                eventDays.set(firstIndex, lastIndex + 1);
+            }
+        }
+    }
+
+    /**
+     * Fills in eventDays with the days that have events, for the span of
+     * "numDays" days starting at the Julian day startDay.  Bit i is set if
+     * day startDay + i has an event.  The span may be of any length, such
+     * as the six weeks of a month grid or a whole year.  Events the user
+     * declined are left out if the preference to hide them is set.
+     *
+     * If the span is already in the shared {@link EventCache} then eventDays
+     * is filled in and uiCallback is run before this method returns.
+     * Otherwise eventDays is filled in on the UI thread just before
+     * uiCallback runs.  A newer request replaces any older one that has not
+     * finished, in which case the older eventDays is left alone and the
+     * older uiCallback is never run.
      *
      * @param startDay First day to check for events
      * @param numDays Days following the start day to check
-     * @param eventDay Whether or not an event exists on that day
+     * @param eventDays Which days of the span have an event
      * @param uiCallback What to do when done (log data, redraw screen)
      */
-    void loadEventDaysInBackground(int startDay, int numDays, boolean[] eventDays,
-        final Runnable uiCallback)
-    {
-        // Send load request to the background thread
-        LoadEventDaysRequest request = new LoadEventDaysRequest(startDay, numDays,
-                eventDays, uiCallback);
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventDaysInBackground() interrupted!");
+    void loadEventDaysInBackground(int startDay, int numDays, BitSet eventDays,
+            final Runnable uiCallback) {
+        int id = mEventDaysSequenceNumber.incrementAndGet();
+        boolean hideDeclined = isHideDeclined();
+        if (mEventCache.getEventDays(startDay, numDays, hideDeclined, eventDays)) {
+            uiCallback.run();
+            return;
         }
+
+        // Send load request to the background thread
+        LoadEventDaysRequest request = new LoadEventDaysRequest(id, startDay, numDays,
+                hideDeclined, mEventCache.getGeneration(), eventDays, uiCallback);
+        queue(LoadScheduler.LANE_DAYS, request);
     }
 }
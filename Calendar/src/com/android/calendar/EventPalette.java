@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.graphics.Color;
+import android.provider.Calendar.Attendees;
+import android.util.SparseIntArray;
+
+/**
+ * The colors event rectangles are drawn with, derived from the calendar
+ * colors: the faded fill of an event the user declined, and the darker
+ * border drawn around each fill.
+ *
+ * Each variant is computed once per color and kept in a SparseIntArray.
+ * The colors of the events shown are added when the events are set, so
+ * drawing only looks them up, with no HSV conversion or allocation.
+ * There are only ever a handful of calendar colors, so nothing is evicted.
+ */
+class EventPalette {
+
+    private final SparseIntArray mDeclinedColors = new SparseIntArray();
+    private final SparseIntArray mBorderColors = new SparseIntArray();
+    private final float[] mHsv = new float[3];
+
+    /**
+     * Adds the fill and border colors of every event in the store.
+     */
+    void addColors(EventStore store) {
+        int size = store.size();
+        for (int i = 0; i < size; i++) {
+            addColor(getFillColor(store.color[i],
+                    store.selfAttendeeStatus[i] == Attendees.ATTENDEE_STATUS_DECLINED));
+        }
+    }
+
+    /**
+     * Adds the border color of a fill that is not an event color, such as
+     * the color of a selected or pressed event.
+     */
+    void addColor(int fill) {
+        if (mBorderColors.indexOfKey(fill) < 0) {
+            mBorderColors.put(fill, computeBorderColor(fill, mHsv));
+        }
+    }
+
+    /**
+     * Returns the color to fill the rectangle of an event of the given
+     * calendar color with.
+     */
+    int getFillColor(int color, boolean declined) {
+        if (!declined) {
+            return color;
+        }
+        int index = mDeclinedColors.indexOfKey(color);
+        if (index >= 0) {
+            return mDeclinedColors.valueAt(index);
+        }
+        int fill = computeDeclinedColor(color);
+        mDeclinedColors.put(color, fill);
+        return fill;
+    }
+
+    /**
+     * Returns the color of the border around a rectangle of the given fill
+     * color.
+     */
+    int getBorderColor(int fill) {
+        int index = mBorderColors.indexOfKey(fill);
+        if (index >= 0) {
+            return mBorderColors.valueAt(index);
+        }
+        int border = computeBorderColor(fill, mHsv);
+        mBorderColors.put(fill, border);
+        return border;
+    }
+
+    /**
+     * Fades the given color halfway to white, keeping its alpha.
+     */
+    static int computeDeclinedColor(int color) {
+        int alpha = color & 0xff000000;
+        color &= 0x00ffffff;
+        int red = (color & 0x00ff0000) >> 16;
+        int green = (color & 0x0000ff00) >> 8;
+        int blue = (color & 0x0000ff);
+        color = ((red >> 1) << 16) | ((green >> 1) << 8) | (blue >> 1);
+        color += 0x7F7F7F + alpha;
+        return color;
+    }
+
+    /**
+     * Returns the fully saturated, darker version of the given color.
+     *
+     * @param hsv an array of three floats to convert in
+     */
+    static int computeBorderColor(int fill, float[] hsv) {
+        Color.colorToHSV(fill, hsv);
+        hsv[1] = 1.0f;
+        hsv[2] *= 0.75f;
+        return Color.HSVToColor(hsv);
+    }
+}
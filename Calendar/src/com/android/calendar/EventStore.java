@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.util.ArrayList;
+
+/**
+ * Holds the fields of the loaded events that the draw loops need in
+ * parallel primitive arrays, so that walking all the events for every day
+ * column touches a few small arrays instead of every Event object.  Entry
+ * i describes the i-th event of the list passed to {@link #set}, and
+ * {@link #getEvent} returns that Event for the code that still needs the
+ * object (selection, text, popups).
+ *
+ * The store also indexes the events by Julian day over the span of days
+ * the view shows, so that {@link #eventsOn} and {@link #eventsOverlapping}
+ * visit only the events of one day instead of scanning all of them.  The
+ * index is a compressed bucket list: the entries on day firstDay + d are
+ * dayEvents[dayStarts[d]] up to, but not including, dayEvents[dayStarts[d + 1]],
+ * in the order of the list.
+ *
+ * Each entry of that index, an event on one of its days, also gets the
+ * rectangle the event is drawn in on that day.  {@link #computeDayRects}
+ * fills them all in one pass, and they stay valid until the events or the
+ * geometry change, so draws and touches just read them.
+ *
+ * The arrays are only grown, never shrunk, so refilling the store for a
+ * new week does not allocate once it has seen the busiest week.
+ */
+public class EventStore {
+
+    // The layout of each event rectangle in the dayRects array.
+    static final int RECT_LEFT = 0;
+    static final int RECT_TOP = 1;
+    static final int RECT_RIGHT = 2;
+    static final int RECT_BOTTOM = 3;
+    static final int RECT_SIZE = 4;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int mSize;
+    private Event[] mEvents = new Event[0];
+
+    boolean[] allDay = new boolean[0];
+    int[] startDay = new int[0];       // start Julian day
+    int[] endDay = new int[0];         // end Julian day
+    int[] startTime = new int[0];      // minutes since midnight
+    int[] endTime = new int[0];
+    long[] startMillis = new long[0];
+    long[] endMillis = new long[0];
+    int[] color = new int[0];
+    int[] column = new int[0];
+    int[] maxColumns = new int[0];
+    int[] selfAttendeeStatus = new int[0];
+
+    // The per-day index over [mFirstDay, mFirstDay + mNumDays).
+    private int mFirstDay;
+    private int mNumDays;
+    private int[] mDayStarts = new int[1];
+    private int[] mDayEvents = new int[0];
+    private int mNumEntries;
+
+    // RECT_SIZE floats per entry of the day index, written by
+    // computeDayRects.  All-day entries have no rectangle.
+    float[] dayRects = new float[0];
+    private boolean mDayRectsValid;
+
+    /**
+     * The store indices found by the last call to {@link #eventsOn} or
+     * {@link #eventsOverlapping}.  Only valid until the next query.
+     */
+    int[] hits = new int[0];
+
+    /**
+     * The entries of the day index found by the last call to
+     * {@link #eventsOverlapping}, matching {@link #hits}.
+     */
+    int[] hitEntries = new int[0];
+
+    /**
+     * Refills the store from the given events and indexes them over the
+     * numDays days starting at the Julian day firstDay.  Must be called
+     * again whenever the list or the layout of any event in it changes.
+     */
+    void set(ArrayList<Event> events, int firstDay, int numDays) {
+        mFirstDay = firstDay;
+        mNumDays = numDays;
+        set(events);
+    }
+
+    /**
+     * Refills the store from the given events, keeping the span of days
+     * indexed by the last call to {@link #set(ArrayList, int, int)}.
+     */
+    void set(ArrayList<Event> events) {
+        int size = events.size();
+        ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            mEvents[i] = e;
+            allDay[i] = e.allDay;
+            startDay[i] = e.startDay;
+            endDay[i] = e.endDay;
+            startTime[i] = e.startTime;
+            endTime[i] = e.endTime;
+            startMillis[i] = e.startMillis;
+            endMillis[i] = e.endMillis;
+            color[i] = e.color;
+            column[i] = e.getColumn();
+            maxColumns[i] = e.getMaxColumns();
+            selfAttendeeStatus[i] = e.selfAttendeeStatus;
+        }
+
+        // Drop the references to events from a previous, larger list.
+        for (int i = size; i < mSize; i++) {
+            mEvents[i] = null;
+        }
+        mSize = size;
+        buildDayIndex();
+        mDayRectsValid = false;
+    }
+
+    private void buildDayIndex() {
+        int numDays = mNumDays;
+        if (mDayStarts.length < numDays + 1) {
+            mDayStarts = new int[numDays + 1];
+        }
+        int[] dayStarts = mDayStarts;
+        for (int d = 0; d <= numDays; d++) {
+            dayStarts[d] = 0;
+        }
+
+        // Count the entries of each day, shifted by one so that the prefix
+        // sums below turn the counts into the start of each bucket.
+        int firstDay = mFirstDay;
+        int lastDay = firstDay + numDays - 1;
+        int numEntries = 0;
+        for (int i = 0; i < mSize; i++) {
+            int start = Math.max(startDay[i], firstDay);
+            int end = Math.min(endDay[i], lastDay);
+            for (int day = start; day <= end; day++) {
+                dayStarts[day - firstDay + 1]++;
+                numEntries++;
+            }
+        }
+        for (int d = 1; d <= numDays; d++) {
+            dayStarts[d] += dayStarts[d - 1];
+        }
+
+        if (mDayEvents.length < numEntries) {
+            mDayEvents = new int[Math.max(numEntries, mDayEvents.length * 3 / 2)];
+            dayRects = new float[mDayEvents.length * RECT_SIZE];
+        }
+        mNumEntries = numEntries;
+        int maxPerDay = 0;
+        for (int d = 0; d < numDays; d++) {
+            maxPerDay = Math.max(maxPerDay, dayStarts[d + 1] - dayStarts[d]);
+        }
+        if (hits.length < maxPerDay) {
+            hits = new int[maxPerDay];
+            hitEntries = new int[maxPerDay];
+        }
+
+        // Fill the buckets, using dayStarts[d] as the next free slot of day
+        // d.  That leaves dayStarts[d] at the start of day d + 1, so shift
+        // the starts back afterwards.
+        int[] dayEvents = mDayEvents;
+        for (int i = 0; i < mSize; i++) {
+            int start = Math.max(startDay[i], firstDay);
+            int end = Math.min(endDay[i], lastDay);
+            for (int day = start; day <= end; day++) {
+                dayEvents[dayStarts[day - firstDay]++] = i;
+            }
+        }
+        for (int d = numDays; d > 0; d--) {
+            dayStarts[d] = dayStarts[d - 1];
+        }
+        dayStarts[0] = 0;
+    }
+
+    /**
+     * Finds the events that cover any part of the given day.  Days outside
+     * the indexed span have no events.
+     *
+     * @return the number of events found; their store indices are in
+     *  {@link #hits}, in the order of the list
+     */
+    int eventsOn(int julianDay) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        int start = mDayStarts[d];
+        int count = mDayStarts[d + 1] - start;
+        System.arraycopy(mDayEvents, start, hits, 0, count);
+        return count;
+    }
+
+    /**
+     * Finds the events that intersect the span from startMinute to
+     * endMinute of the given day, as decided by
+     * {@link Event#intersects(int, int, int)}.
+     *
+     * @return the number of events found; their store indices are in
+     *  {@link #hits} and their entries of the day index in
+     *  {@link #hitEntries}, in the order of the list
+     */
+    int eventsOverlapping(int julianDay, int startMinute, int endMinute) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        int[] dayEvents = mDayEvents;
+        int[] hits = this.hits;
+        int[] hitEntries = this.hitEntries;
+        int count = 0;
+        for (int p = mDayStarts[d], end = mDayStarts[d + 1]; p < end; p++) {
+            int i = dayEvents[p];
+            if (Event.intersects(startDay[i], endDay[i], startTime[i], endTime[i], julianDay,
+                    startMinute, endMinute)) {
+                hits[count] = i;
+                hitEntries[count] = p;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the first entry of the given day in the day index, or the
+     * same value as {@link #dayEnd} if the day is outside the span.
+     */
+    int dayStart(int julianDay) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        return mDayStarts[d];
+    }
+
+    /**
+     * Returns the entry just past the last one of the given day.
+     */
+    int dayEnd(int julianDay) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        return mDayStarts[d + 1];
+    }
+
+    /**
+     * Returns the store index of the event at the given entry of the day
+     * index.
+     */
+    int eventAt(int entry) {
+        return mDayEvents[entry];
+    }
+
+    /**
+     * Returns the number of entries in the day index, that is the number of
+     * (event, day) pairs over the span.
+     */
+    int numEntries() {
+        return mNumEntries;
+    }
+
+    /**
+     * Returns true if the given entry of the day index is drawn as a
+     * rectangle in the hour grid, which all but the all-day events are.
+     */
+    boolean hasDayRect(int entry) {
+        return !allDay[mDayEvents[entry]];
+    }
+
+    /**
+     * Computes the rectangle of every timed entry of the day index into
+     * {@link #dayRects}.  The first day's column starts at left and each
+     * following one dayWidth further right.
+     */
+    void computeDayRects(EventGeometry geometry, int left, int dayWidth, int top,
+            int cellWidth) {
+        int[] dayStarts = mDayStarts;
+        int[] dayEvents = mDayEvents;
+        float[] rects = dayRects;
+        int date = mFirstDay;
+        for (int d = 0; d < mNumDays; d++, date++, left += dayWidth) {
+            for (int p = dayStarts[d], end = dayStarts[d + 1]; p < end; p++) {
+                geometry.computeEventRect(date, left, top, cellWidth, this, dayEvents[p],
+                        rects, p * RECT_SIZE);
+            }
+        }
+        mDayRectsValid = true;
+    }
+
+    /**
+     * Returns true if {@link #dayRects} were computed since the events or
+     * the geometry last changed.
+     */
+    boolean areDayRectsValid() {
+        return mDayRectsValid;
+    }
+
+    /**
+     * Marks {@link #dayRects} as needing {@link #computeDayRects} again,
+     * for when the cell size or hour height changes.
+     */
+    void invalidateDayRects() {
+        mDayRectsValid = false;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the first Julian day of the span the store indexes.
+     */
+    int getFirstDay() {
+        return mFirstDay;
+    }
+
+    /**
+     * Returns the number of days in the span the store indexes.
+     */
+    int getNumDays() {
+        return mNumDays;
+    }
+
+    Event getEvent(int index) {
+        return mEvents[index];
+    }
+
+    /**
+     * Copies the rectangle of the given entry of the day index into the
+     * screen coordinates of its Event.
+     */
+    void copyDayRectTo(int entry, Event event) {
+        int offset = entry * RECT_SIZE;
+        float[] r = dayRects;
+        event.left = r[offset + RECT_LEFT];
+        event.top = r[offset + RECT_TOP];
+        event.right = r[offset + RECT_RIGHT];
+        event.bottom = r[offset + RECT_BOTTOM];
+    }
+
+    private void ensureCapacity(int size) {
+        int capacity = mEvents.length;
+        if (size <= capacity) {
+            return;
+        }
+        capacity = Math.max(Math.max(size, capacity + capacity / 2), MIN_CAPACITY);
+
+        Event[] events = new Event[capacity];
+        System.arraycopy(mEvents, 0, events, 0, mSize);
+        mEvents = events;
+
+        allDay = new boolean[capacity];
+        startDay = new int[capacity];
+        endDay = new int[capacity];
+        startTime = new int[capacity];
+        endTime = new int[capacity];
+        startMillis = new long[capacity];
+        endMillis = new long[capacity];
+        color = new int[capacity];
+        column = new int[capacity];
+        maxColumns = new int[capacity];
+        selfAttendeeStatus = new int[capacity];
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.provider.Calendar.Attendees;
+
+/**
+ * The busy time of each day covered by an {@link EventStore}, as a sorted
+ * list of disjoint intervals in minutes since midnight.  It is built from
+ * the events already loaded, so answering "when am I busy" never queries
+ * the provider.
+ *
+ * The timed events make their hours busy, split at midnight for the ones
+ * that span several days.  Events the user declined leave the time free,
+ * unless the FreeBusy is made to count them, as the month view's busy bits
+ * do so that they show every event that is loaded.
+ * All-day events mark the day as a whole rather than any of its hours, so
+ * they leave the time free too; {@link #hasAllDay} tells which days have
+ * one, for the month view to draw as busy from top to bottom.
+ *
+ * Each day's intervals are kept apart so that a change to the events can
+ * rebuild just the days it touched with {@link #update}.  The arrays are
+ * only grown, never shrunk.
+ */
+public class FreeBusy {
+
+    private static final int MIN_DAY_CAPACITY = 8;
+
+    private final boolean mDeclinedBusy;
+
+    private int mFirstDay;
+    private int mNumDays;
+
+    // Day d holds mCounts[d] intervals, interval k being from
+    // mBusy[d][2 * k] up to, but not including, mBusy[d][2 * k + 1].
+    private int[][] mBusy = new int[0][];
+    private int[] mCounts = new int[0];
+
+    // True for the days with an all-day event that makes them busy.
+    private boolean[] mAllDay = new boolean[0];
+
+    FreeBusy() {
+        this(false);
+    }
+
+    /**
+     * @param declinedBusy whether the events the user declined make their
+     *  time busy
+     */
+    FreeBusy(boolean declinedBusy) {
+        mDeclinedBusy = declinedBusy;
+    }
+
+    /**
+     * Rebuilds the busy time of every day the store indexes.
+     */
+    void set(EventStore store) {
+        mFirstDay = store.getFirstDay();
+        mNumDays = store.getNumDays();
+        if (mBusy.length < mNumDays) {
+            int[][] busy = new int[mNumDays][];
+            System.arraycopy(mBusy, 0, busy, 0, mBusy.length);
+            mBusy = busy;
+            mCounts = new int[mNumDays];
+            mAllDay = new boolean[mNumDays];
+        }
+        for (int d = 0; d < mNumDays; d++) {
+            buildDay(store, d);
+        }
+    }
+
+    /**
+     * Rebuilds the busy time of the days from firstDay to lastDay, for when
+     * only the events on those days changed.  The store must index the
+     * same days as when {@link #set} was last called.
+     */
+    void update(EventStore store, int firstDay, int lastDay) {
+        int from = Math.max(firstDay - mFirstDay, 0);
+        int to = Math.min(lastDay - mFirstDay, mNumDays - 1);
+        for (int d = from; d <= to; d++) {
+            buildDay(store, d);
+        }
+    }
+
+    /**
+     * Merges the busy events of day offset d into its interval list.  The
+     * store lists the events of a day in order of start, and every one
+     * that started on an earlier day starts at midnight here, so the
+     * intervals arrive in order and one pass merges them.
+     */
+    private void buildDay(EventStore store, int d) {
+        int julianDay = mFirstDay + d;
+        int[] busy = mBusy[d];
+        int count = 0;
+        boolean allDay = false;
+        for (int p = store.dayStart(julianDay), end = store.dayEnd(julianDay); p < end; p++) {
+            int i = store.eventAt(p);
+            if (!mDeclinedBusy
+                    && store.selfAttendeeStatus[i] == Attendees.ATTENDEE_STATUS_DECLINED) {
+                continue;
+            }
+            if (store.allDay[i]) {
+                allDay = true;
+                continue;
+            }
+            int start = store.startDay[i] < julianDay ? 0 : store.startTime[i];
+            int stop = store.endDay[i] > julianDay
+                    ? CalendarView.MINUTES_PER_DAY : store.endTime[i];
+            if (stop <= start) {
+                continue;
+            }
+
+            // Extend the last interval if this one overlaps or touches it.
+            if (count > 0 && start <= busy[2 * count - 1]) {
+                if (stop > busy[2 * count - 1]) {
+                    busy[2 * count - 1] = stop;
+                }
+                continue;
+            }
+            if (busy == null || busy.length < 2 * (count + 1)) {
+                int[] grown = new int[Math.max(2 * MIN_DAY_CAPACITY, 4 * (count + 1))];
+                if (busy != null) {
+                    System.arraycopy(busy, 0, grown, 0, 2 * count);
+                }
+                busy = grown;
+                mBusy[d] = busy;
+            }
+            busy[2 * count] = start;
+            busy[2 * count + 1] = stop;
+            count++;
+        }
+        mCounts[d] = count;
+        mAllDay[d] = allDay;
+    }
+
+    int getFirstDay() {
+        return mFirstDay;
+    }
+
+    int getNumDays() {
+        return mNumDays;
+    }
+
+    /**
+     * Returns the number of busy intervals on the given day.  Days outside
+     * the span have none.
+     */
+    int getNumIntervals(int julianDay) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        return mCounts[d];
+    }
+
+    /**
+     * Returns true if the given day has an all-day event that makes it
+     * busy.  Days outside the span have none.
+     */
+    boolean hasAllDay(int julianDay) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return false;
+        }
+        return mAllDay[d];
+    }
+
+    /**
+     * Returns the first minute of busy interval k of the given day.
+     */
+    int getStart(int julianDay, int k) {
+        return mBusy[julianDay - mFirstDay][2 * k];
+    }
+
+    /**
+     * Returns the minute just past the end of busy interval k of the given
+     * day.
+     */
+    int getEnd(int julianDay, int k) {
+        return mBusy[julianDay - mFirstDay][2 * k + 1];
+    }
+
+    /**
+     * Returns the index of the first busy interval of the given day that
+     * ends after the given minute, or the number of intervals if none does.
+     */
+    private int search(int d, int minute) {
+        int[] busy = mBusy[d];
+        int low = 0;
+        int high = mCounts[d];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (busy[2 * mid + 1] <= minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns true if the given minute of the given day is busy.
+     */
+    boolean isBusy(int julianDay, int minute) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return false;
+        }
+        int k = search(d, minute);
+        return k < mCounts[d] && mBusy[d][2 * k] <= minute;
+    }
+
+    /**
+     * Returns true if no busy time of the given day falls between
+     * startMinute and endMinute.
+     */
+    boolean isFree(int julianDay, int startMinute, int endMinute) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return true;
+        }
+        int k = search(d, startMinute);
+        return k == mCounts[d] || mBusy[d][2 * k] >= endMinute;
+    }
+
+    /**
+     * Finds the earliest free stretch of at least the given number of
+     * minutes on the given day, starting no earlier than fromMinute and
+     * ending by midnight.
+     *
+     * @return the first minute of the stretch, or -1 if there is none
+     */
+    int findFreeSlot(int julianDay, int fromMinute, int duration) {
+        int d = julianDay - mFirstDay;
+        int start = fromMinute;
+        if (d < 0 || d >= mNumDays) {
+            return CalendarView.MINUTES_PER_DAY - start >= duration ? start : -1;
+        }
+        int[] busy = mBusy[d];
+        int count = mCounts[d];
+        for (int k = search(d, fromMinute); k < count; k++) {
+            if (busy[2 * k] - start >= duration) {
+                return start;
+            }
+            start = Math.max(start, busy[2 * k + 1]);
+        }
+        return CalendarView.MINUTES_PER_DAY - start >= duration ? start : -1;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * Caches the scrollable part of the day and week views in off-screen
+ * tiles, each a band of the same height across the full width.
+ *
+ * Only the tiles the viewport shows, and one more on either side of it,
+ * hold a bitmap, so the memory used and the work of a full redraw scale
+ * with the viewport rather than the whole day.  Scrolling reuses the
+ * tiles already drawn and draws only the ones coming into range; the
+ * bitmap of a tile leaving the range is reused for the next one.  Tiles
+ * are drawn lazily by the {@link Renderer}, when they are in range and
+ * have been invalidated.
+ */
+class GridTiles {
+
+    /**
+     * Draws the content of a band of the scrollable area.
+     */
+    interface Renderer {
+        /**
+         * Draws the content from y = top to y = bottom into the canvas,
+         * which is translated and clipped so that content coordinates can
+         * be used directly.
+         */
+        void drawTile(Canvas canvas, int top, int bottom);
+    }
+
+    // The number of tiles kept drawn above and below the viewport.
+    private static final int PREFETCH_TILES = 1;
+
+    private final Renderer mRenderer;
+
+    private int mWidth;
+    private int mContentHeight;
+    private int mTileHeight;
+    private int mNumTiles;
+
+    // Each slot holds a bitmap, the tile drawn into it (or -1 if it holds
+    // none) and whether that drawing is still valid.
+    private int mNumSlots;
+    private Bitmap[] mBitmaps = new Bitmap[0];
+    private Canvas[] mCanvases = new Canvas[0];
+    private int[] mSlotTiles = new int[0];
+    private boolean[] mValid = new boolean[0];
+
+    private final Rect mSrc = new Rect();
+    private final Rect mDest = new Rect();
+
+    GridTiles(Renderer renderer) {
+        mRenderer = renderer;
+    }
+
+    /**
+     * Sets the size of the scrollable content, the height of a tile and
+     * the height of the viewport.  The bitmaps are only replaced, and the
+     * tiles invalidated, if any of these changed.
+     */
+    void setSize(int width, int contentHeight, int tileHeight, int viewportHeight) {
+        int numTiles = (contentHeight + tileHeight - 1) / tileHeight;
+
+        // A viewport starting anywhere in a tile shows at most one tile
+        // more than fit in its height.
+        int numSlots = Math.min(numTiles,
+                (viewportHeight + tileHeight - 1) / tileHeight + 1 + 2 * PREFETCH_TILES);
+        if (width == mWidth && contentHeight == mContentHeight && tileHeight == mTileHeight
+                && numSlots == mNumSlots) {
+            return;
+        }
+        recycle();
+        mWidth = width;
+        mContentHeight = contentHeight;
+        mTileHeight = tileHeight;
+        mNumTiles = numTiles;
+        mNumSlots = numSlots;
+        if (mBitmaps.length < numSlots) {
+            mBitmaps = new Bitmap[numSlots];
+            mCanvases = new Canvas[numSlots];
+            mSlotTiles = new int[numSlots];
+            mValid = new boolean[numSlots];
+        }
+        for (int s = 0; s < numSlots; s++) {
+            mSlotTiles[s] = -1;
+        }
+    }
+
+    /**
+     * Returns the number of bitmaps the tiles may hold at once.
+     */
+    int getNumSlots() {
+        return mNumSlots;
+    }
+
+    /**
+     * Marks every tile for redrawing.
+     */
+    void invalidateAll() {
+        for (int s = 0; s < mNumSlots; s++) {
+            mValid[s] = false;
+        }
+    }
+
+    /**
+     * Marks the tiles overlapping the content from y = top to y = bottom
+     * for redrawing.
+     */
+    void invalidate(int top, int bottom) {
+        int tileHeight = mTileHeight;
+        for (int s = 0; s < mNumSlots; s++) {
+            if (mSlotTiles[s] == -1) {
+                continue;
+            }
+            int tileTop = mSlotTiles[s] * tileHeight;
+            if (tileTop < bottom && tileTop + tileHeight > top) {
+                mValid[s] = false;
+            }
+        }
+    }
+
+    /**
+     * Draws the content from y = viewTop down to viewTop + viewHeight into
+     * the canvas starting at y = destTop, first drawing the tiles in range
+     * that are not valid.
+     */
+    void draw(Canvas canvas, int viewTop, int viewHeight, int destTop) {
+        if (mNumTiles == 0) {
+            return;
+        }
+        int tileHeight = mTileHeight;
+        int viewBottom = viewTop + viewHeight;
+        int first = Math.max(viewTop / tileHeight - PREFETCH_TILES, 0);
+        int last = Math.min((viewBottom - 1) / tileHeight + PREFETCH_TILES, mNumTiles - 1);
+
+        // Free the slots of the tiles that went out of range.
+        int numSlots = mNumSlots;
+        for (int s = 0; s < numSlots; s++) {
+            int tile = mSlotTiles[s];
+            if (tile < first || tile > last) {
+                mSlotTiles[s] = -1;
+            }
+        }
+
+        Rect src = mSrc;
+        Rect dest = mDest;
+        for (int tile = first; tile <= last; tile++) {
+            int slot = getSlot(tile);
+            if (!mValid[slot]) {
+                drawTile(slot, tile);
+            }
+
+            int tileTop = tile * tileHeight;
+            int top = Math.max(viewTop, tileTop);
+            int bottom = Math.min(viewBottom, tileTop + tileHeight);
+            if (top >= bottom) {
+                continue;
+            }
+            src.left = 0;
+            src.right = mWidth;
+            src.top = top - tileTop;
+            src.bottom = bottom - tileTop;
+            dest.left = 0;
+            dest.right = mWidth;
+            dest.top = destTop + top - viewTop;
+            dest.bottom = destTop + bottom - viewTop;
+            canvas.drawBitmap(mBitmaps[slot], src, dest, null);
+        }
+    }
+
+    /**
+     * Returns the slot holding the given tile, giving it a free one if it
+     * has none.  There is always a free slot, since no more tiles are in
+     * range than there are slots.
+     */
+    private int getSlot(int tile) {
+        int free = -1;
+        for (int s = 0; s < mNumSlots; s++) {
+            if (mSlotTiles[s] == tile) {
+                return s;
+            }
+            if (free == -1 && mSlotTiles[s] == -1) {
+                free = s;
+            }
+        }
+        mSlotTiles[free] = tile;
+        mValid[free] = false;
+        return free;
+    }
+
+    private void drawTile(int slot, int tile) {
+        if (mBitmaps[slot] == null) {
+            mBitmaps[slot] = Bitmap.createBitmap(mWidth, mTileHeight, Bitmap.Config.RGB_565);
+            mCanvases[slot] = new Canvas(mBitmaps[slot]);
+        }
+        Canvas canvas = mCanvases[slot];
+        int top = tile * mTileHeight;
+        int bottom = Math.min(top + mTileHeight, mContentHeight);
+        canvas.save();
+        canvas.translate(0, -top);
+        canvas.clipRect(0, top, mWidth, bottom);
+        mRenderer.drawTile(canvas, top, bottom);
+        canvas.restore();
+        mValid[slot] = true;
+    }
+
+    /**
+     * Releases the bitmaps.  They are created again as tiles are drawn.
+     */
+    void recycle() {
+        for (int s = 0; s < mBitmaps.length; s++) {
+            if (mBitmaps[s] != null) {
+                mBitmaps[s].recycle();
+                mBitmaps[s] = null;
+                mCanvases[s] = null;
+            }
+        }
+        for (int s = 0; s < mNumSlots; s++) {
+            mSlotTiles[s] = -1;
+        }
+    }
+}
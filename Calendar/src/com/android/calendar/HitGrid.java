@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+/**
+ * Buckets the event rectangles drawn in the day and week views by day
+ * column and hour row, so that a touch only has to look at the events
+ * drawn near it.  An event is put in the bucket of every hour row its
+ * rectangle touches on each day it is drawn.
+ *
+ * The rectangles are the ones in {@link EventStore#dayRects}, and the
+ * buckets hold entries of the store's day index.  A day's buckets are
+ * filled with {@link #setDay} once its rectangles are computed, and stay
+ * valid until the grid is reset or invalidated for a new list, span or
+ * geometry.  The bucket arrays are only
+ * grown, so refilling them does not allocate once they have seen the
+ * busiest hours.
+ */
+public class HitGrid {
+
+    static final int NUM_ROWS = 24;
+
+    private static final int MIN_BUCKET_CAPACITY = 4;
+
+    private int mFirstDay;
+    private int mNumDays;
+    private float mRowHeight = 1;
+
+    // Bucket (d * NUM_ROWS + row) holds mBucketSizes[...] day index entries.
+    private int[][] mBuckets = new int[0][];
+    private int[] mBucketSizes = new int[0];
+    private boolean[] mValidDays = new boolean[0];
+
+    // Stamps used to report each event once when it is in several of the
+    // buckets searched.
+    private int[] mSeen = new int[0];
+    private int mStamp;
+
+    /**
+     * The day index entries found by the last call to {@link #eventsNear},
+     * in increasing order.  Only valid until the next query.
+     */
+    int[] hits = new int[0];
+
+    /**
+     * Empties the grid and sets the span of Julian days it covers and the
+     * height of an hour row, including the gap below it.
+     */
+    void reset(int firstDay, int numDays, float rowHeight) {
+        mFirstDay = firstDay;
+        mNumDays = numDays;
+        mRowHeight = rowHeight > 0 ? rowHeight : 1;
+        int numBuckets = numDays * NUM_ROWS;
+        if (mBuckets.length < numBuckets) {
+            int[][] buckets = new int[numBuckets][];
+            System.arraycopy(mBuckets, 0, buckets, 0, mBuckets.length);
+            mBuckets = buckets;
+            mBucketSizes = new int[numBuckets];
+        }
+        if (mValidDays.length < numDays) {
+            mValidDays = new boolean[numDays];
+        }
+        invalidate();
+    }
+
+    /**
+     * Sets the height of an hour row, keeping the span, and empties the
+     * grid since every rectangle moves.
+     */
+    void setRowHeight(float rowHeight) {
+        mRowHeight = rowHeight > 0 ? rowHeight : 1;
+        invalidate();
+    }
+
+    /**
+     * Marks every day as needing {@link #setDay} again, keeping the span.
+     */
+    void invalidate() {
+        for (int d = 0; d < mNumDays; d++) {
+            mValidDays[d] = false;
+        }
+    }
+
+    /**
+     * Returns true if the buckets of the given day were filled since the
+     * last reset.  Days outside the span are never valid.
+     */
+    boolean isDayValid(int julianDay) {
+        int d = julianDay - mFirstDay;
+        return d >= 0 && d < mNumDays && mValidDays[d];
+    }
+
+    /**
+     * Fills the buckets of the given day from the rectangles the store has
+     * computed for that day's entries.
+     */
+    void setDay(int julianDay, EventStore store) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays) {
+            return;
+        }
+        int firstBucket = d * NUM_ROWS;
+        for (int row = 0; row < NUM_ROWS; row++) {
+            mBucketSizes[firstBucket + row] = 0;
+        }
+
+        float[] rects = store.dayRects;
+        for (int p = store.dayStart(julianDay), end = store.dayEnd(julianDay); p < end; p++) {
+            if (!store.hasDayRect(p)) {
+                continue;
+            }
+            int offset = p * EventStore.RECT_SIZE;
+            int firstRow = rowOf(rects[offset + EventStore.RECT_TOP]);
+            int lastRow = rowOf(rects[offset + EventStore.RECT_BOTTOM]);
+            for (int row = firstRow; row <= lastRow; row++) {
+                add(firstBucket + row, p);
+            }
+        }
+        int numEntries = store.numEntries();
+        if (mSeen.length < numEntries) {
+            mSeen = new int[Math.max(numEntries, mSeen.length * 3 / 2)];
+            mStamp = 0;
+        }
+        if (hits.length < numEntries) {
+            hits = new int[mSeen.length];
+        }
+        mValidDays[d] = true;
+    }
+
+    /**
+     * Finds the events drawn on the given day whose rectangles reach the
+     * hour rows between y - slop and y + slop.  That includes every event
+     * whose rectangle intersects that band, and may include a few others.
+     *
+     * @return the number of events found; their day index entries are in
+     *  {@link #hits}, in increasing order
+     */
+    int eventsNear(int julianDay, float y, float slop) {
+        int d = julianDay - mFirstDay;
+        if (d < 0 || d >= mNumDays || !mValidDays[d]) {
+            return 0;
+        }
+
+        // A new stamp marks every event as not seen yet.
+        if (++mStamp == 0) {
+            int[] seen = mSeen;
+            for (int i = 0; i < seen.length; i++) {
+                seen[i] = 0;
+            }
+            mStamp = 1;
+        }
+
+        int[] seen = mSeen;
+        int[] hits = this.hits;
+        int stamp = mStamp;
+        int count = 0;
+        int firstBucket = d * NUM_ROWS;
+        int lastRow = rowOf(y + slop);
+        for (int row = rowOf(y - slop); row <= lastRow; row++) {
+            int[] bucket = mBuckets[firstBucket + row];
+            int size = mBucketSizes[firstBucket + row];
+            for (int k = 0; k < size; k++) {
+                int p = bucket[k];
+                if (seen[p] != stamp) {
+                    seen[p] = stamp;
+                    hits[count++] = p;
+                }
+            }
+        }
+
+        // The entries of a day are in store order; keep the result in that
+        // order too so that ties go the same way as a scan of the list.
+        // There are only ever a handful, so insertion sort is enough.
+        for (int k = 1; k < count; k++) {
+            int i = hits[k];
+            int j = k - 1;
+            while (j >= 0 && hits[j] > i) {
+                hits[j + 1] = hits[j];
+                j--;
+            }
+            hits[j + 1] = i;
+        }
+        return count;
+    }
+
+    private int rowOf(float y) {
+        int row = (int) (y / mRowHeight);
+        if (row < 0) {
+            return 0;
+        }
+        if (row >= NUM_ROWS) {
+            return NUM_ROWS - 1;
+        }
+        return row;
+    }
+
+    private void add(int bucketIndex, int entry) {
+        int[] bucket = mBuckets[bucketIndex];
+        int size = mBucketSizes[bucketIndex];
+        if (bucket == null || size == bucket.length) {
+            int[] grown = new int[Math.max(MIN_BUCKET_CAPACITY, size * 2)];
+            if (bucket != null) {
+                System.arraycopy(bucket, 0, grown, 0, size);
+            }
+            bucket = grown;
+            mBuckets[bucketIndex] = bucket;
+        }
+        bucket[size] = entry;
+        mBucketSizes[bucketIndex] = size + 1;
+    }
+}
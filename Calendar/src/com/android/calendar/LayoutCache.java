@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A process-wide cache of the columns computed by
+ * {@link Event#computePositions}, keyed by a fingerprint of the event list
+ * and the span of days it was loaded for.  Flipping between the two
+ * CalendarViews or going back to a week loads the same instances again,
+ * and with this the layout of such a list is copied rather than computed.
+ *
+ * The fingerprint covers the id, start, end and all-day flag of every
+ * event in order, which is everything the layout depends on.  Because the
+ * key is the content itself, the cache never has to be flushed; entries
+ * for data that changed just stop being used and are evicted, least
+ * recently used first, once more than {@link #MAX_CACHED_EVENTS} events'
+ * worth of columns are stored.
+ */
+public class LayoutCache {
+
+    /**
+     * The maximum number of events, summed over all cached layouts, whose
+     * columns are kept.  Each one costs two ints.
+     */
+    static final int MAX_CACHED_EVENTS = 4000;
+
+    private static LayoutCache sInstance;
+
+    private static class Layout {
+        int startDay;
+        int numDays;
+        int[] columns;
+        int[] maxColumns;
+    }
+
+    // The access-ordered map makes the first entry the least recently used.
+    private final LinkedHashMap<Long, Layout> mLayouts =
+            new LinkedHashMap<Long, Layout>(16, 0.75f, true /* accessOrder */);
+    private int mNumCachedEvents;
+    private int mHitCount;
+    private int mMissCount;
+
+    LayoutCache() {
+    }
+
+    /**
+     * Returns the shared cache, creating it on first use.
+     */
+    static synchronized LayoutCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new LayoutCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns a fingerprint of the given events and span.  Two lists with
+     * the same fingerprint are laid out the same way.
+     */
+    static long fingerprint(ArrayList<Event> events, int startDay, int numDays) {
+        long hash = mix(((long) startDay << 32) | numDays);
+        int size = events.size();
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            hash = mix(hash ^ e.id);
+            hash = mix(hash ^ e.getStartMillis());
+            hash = mix(hash ^ (e.allDay ? ~e.getEndMillis() : e.getEndMillis()));
+        }
+        return hash ^ size;
+    }
+
+    private static long mix(long value) {
+        value *= 0x9e3779b97f4a7c15L;
+        return value ^ (value >>> 32);
+    }
+
+    /**
+     * Sets the column and maximum number of columns of every event, either
+     * from the cache or by calling {@link Event#computePositions} and
+     * caching the result.
+     *
+     * @param events the events, sorted into increasing time order
+     * @param startDay the first Julian day the events were loaded for
+     * @param numDays the number of days the events were loaded for
+     */
+    void computePositions(ArrayList<Event> events, int startDay, int numDays) {
+        long key = fingerprint(events, startDay, numDays);
+        if (get(key, startDay, numDays, events)) {
+            return;
+        }
+        Event.computePositions(events, numDays);
+        put(key, startDay, numDays, events);
+    }
+
+    private synchronized boolean get(long key, int startDay, int numDays,
+            ArrayList<Event> events) {
+        Layout layout = mLayouts.get(key);
+        int size = events.size();
+        if (layout == null || layout.startDay != startDay || layout.numDays != numDays
+                || layout.columns.length != size) {
+            mMissCount++;
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            e.setColumn(layout.columns[i]);
+            e.setMaxColumns(layout.maxColumns[i]);
+        }
+        mHitCount++;
+        return true;
+    }
+
+    private synchronized void put(long key, int startDay, int numDays,
+            ArrayList<Event> events) {
+        int size = events.size();
+        if (size > MAX_CACHED_EVENTS) {
+            return;
+        }
+
+        Layout layout = new Layout();
+        layout.startDay = startDay;
+        layout.numDays = numDays;
+        layout.columns = new int[size];
+        layout.maxColumns = new int[size];
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            layout.columns[i] = e.getColumn();
+            layout.maxColumns[i] = e.getMaxColumns();
+        }
+        Layout old = mLayouts.put(key, layout);
+        if (old != null) {
+            mNumCachedEvents -= old.columns.length;
+        }
+        mNumCachedEvents += size;
+
+        Iterator<Layout> iter = mLayouts.values().iterator();
+        while (mNumCachedEvents > MAX_CACHED_EVENTS && iter.hasNext()) {
+            mNumCachedEvents -= iter.next().columns.length;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Returns the number of layouts that were copied from the cache.
+     */
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of layouts that had to be computed.
+     */
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Drops all cached layouts.
+     */
+    synchronized void clear() {
+        mLayouts.clear();
+        mNumCachedEvents = 0;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Runs the background requests of an {@link EventLoader} on a small pool of
+ * worker threads.  Requests are queued on one of several lanes.  Each lane
+ * has its own queue, its own limit on how many requests may wait in it and
+ * its own thread priority, so a burst of requests on one lane never cancels
+ * or starves the requests on another.
+ *
+ * The lanes are served in order: {@link #LANE_VISIBLE} first, then
+ * {@link #LANE_DAYS}, then {@link #LANE_PREFETCH}.  At most one request per
+ * lane runs at a time, so the requests of a lane are processed in the order
+ * they were queued.
+ */
+class LoadScheduler {
+
+    /** Events for the range that is on screen. Only the newest request runs. */
+    static final int LANE_VISIBLE = 0;
+
+    /** Which days of the month have events. Only the newest request runs. */
+    static final int LANE_DAYS = 1;
+
+    /** Ranges loaded ahead into the {@link EventCache}, in order. */
+    static final int LANE_PREFETCH = 2;
+
+    static final int NUM_LANES = 3;
+
+    static final int DEFAULT_NUM_WORKERS = 2;
+
+    // The previous and next ranges of two views.
+    private static final int MAX_QUEUED_PREFETCHES = 4;
+
+    /**
+     * A unit of background work.  Exactly one of the two methods is called
+     * for every request that is queued.
+     */
+    static interface Request {
+        /** Does the work, on a worker thread. */
+        public void processRequest();
+
+        /**
+         * Called instead of processRequest() when a newer request on the same
+         * lane replaced this one, or the scheduler was stopped first.
+         */
+        public void skipRequest();
+    }
+
+    private static class Entry {
+        final Request request;
+        final long queueTime;
+
+        Entry(Request request, long queueTime) {
+            this.request = request;
+            this.queueTime = queueTime;
+        }
+    }
+
+    private static class Lane {
+        final String name;
+        final int maxQueued;
+        final int threadPriority;
+        final LinkedList<Entry> queue = new LinkedList<Entry>();
+        boolean inFlight;
+
+        // Diagnostics
+        int numProcessed;
+        int numSkipped;
+        long totalLatencyMillis;
+        long maxLatencyMillis;
+
+        Lane(String name, int maxQueued, int threadPriority) {
+            this.name = name;
+            this.maxQueued = maxQueued;
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    private final Lane[] mLanes = new Lane[NUM_LANES];
+    private final int mNumWorkers;
+
+    // Bumped by stop() so that the workers of a stopped scheduler exit even
+    // if the scheduler is started again before they wake up.
+    private int mGeneration;
+    private boolean mRunning;
+
+    LoadScheduler(int numWorkers) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("numWorkers must be at least 1: " + numWorkers);
+        }
+        mNumWorkers = numWorkers;
+        // The range on screen is what the user waits for, so it runs a step
+        // ahead of the month's event days, which only add the bold days.
+        mLanes[LANE_VISIBLE] = new Lane("visible", 1,
+                Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        mLanes[LANE_DAYS] = new Lane("days", 1, Process.THREAD_PRIORITY_BACKGROUND);
+        mLanes[LANE_PREFETCH] = new Lane("prefetch", MAX_QUEUED_PREFETCHES,
+                Process.THREAD_PRIORITY_LOWEST);
+    }
+
+    /**
+     * Starts the worker threads.  Requests queued while the scheduler was
+     * stopped are processed once it is started.
+     */
+    synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        for (int i = 0; i < mNumWorkers; i++) {
+            new Worker(mGeneration).start();
+        }
+    }
+
+    /**
+     * Skips all the queued requests and lets the worker threads exit once
+     * they have finished the requests they are running.
+     */
+    void stop() {
+        ArrayList<Entry> skipped = new ArrayList<Entry>();
+        synchronized (this) {
+            mRunning = false;
+            mGeneration++;
+            for (Lane lane : mLanes) {
+                lane.numSkipped += lane.queue.size();
+                skipped.addAll(lane.queue);
+                lane.queue.clear();
+            }
+            notifyAll();
+        }
+        skip(skipped);
+    }
+
+    /**
+     * Queues a request on the given lane.  If the lane already holds as
+     * many waiting requests as it allows then the oldest ones are skipped.
+     */
+    void queue(int laneIndex, Request request) {
+        ArrayList<Entry> skipped = null;
+        synchronized (this) {
+            Lane lane = mLanes[laneIndex];
+            LinkedList<Entry> queue = lane.queue;
+            while (queue.size() >= lane.maxQueued) {
+                if (skipped == null) {
+                    skipped = new ArrayList<Entry>();
+                }
+                skipped.add(queue.removeFirst());
+                lane.numSkipped++;
+            }
+            queue.add(new Entry(request, SystemClock.uptimeMillis()));
+            notifyAll();
+        }
+        if (skipped != null) {
+            skip(skipped);
+        }
+    }
+
+    // Called without the lock held, since skipping runs the caller's code.
+    private static void skip(ArrayList<Entry> entries) {
+        int size = entries.size();
+        for (int i = 0; i < size; i++) {
+            entries.get(i).request.skipRequest();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting on the given lane, not
+     * counting the one that is running.
+     */
+    synchronized int getQueueDepth(int laneIndex) {
+        return mLanes[laneIndex].queue.size();
+    }
+
+    /**
+     * Returns the thread priority requests of the given lane run at.
+     */
+    synchronized int getThreadPriority(int laneIndex) {
+        return mLanes[laneIndex].threadPriority;
+    }
+
+    synchronized int getProcessedCount(int laneIndex) {
+        return mLanes[laneIndex].numProcessed;
+    }
+
+    synchronized int getSkippedCount(int laneIndex) {
+        return mLanes[laneIndex].numSkipped;
+    }
+
+    /**
+     * Returns the mean time from queueing to completion of the processed
+     * requests on the given lane, in milliseconds.
+     */
+    synchronized long getMeanLatencyMillis(int laneIndex) {
+        Lane lane = mLanes[laneIndex];
+        return lane.numProcessed == 0 ? 0 : lane.totalLatencyMillis / lane.numProcessed;
+    }
+
+    synchronized long getMaxLatencyMillis(int laneIndex) {
+        return mLanes[laneIndex].maxLatencyMillis;
+    }
+
+    /**
+     * Returns a one-line summary of every lane, for logging.
+     */
+    synchronized String dumpStats() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_LANES; i++) {
+            Lane lane = mLanes[i];
+            if (i > 0) {
+                sb.append("; ");
+            }
+            sb.append(lane.name)
+                    .append(": queued=").append(lane.queue.size())
+                    .append(" processed=").append(lane.numProcessed)
+                    .append(" skipped=").append(lane.numSkipped)
+                    .append(" meanLatency=").append(getMeanLatencyMillis(i))
+                    .append("ms maxLatency=").append(lane.maxLatencyMillis).append("ms");
+        }
+        return sb.toString();
+    }
+
+    // Must be called with the lock held.  Returns the highest priority lane
+    // that has a request waiting and none running, or null.
+    private Lane nextLane() {
+        for (Lane lane : mLanes) {
+            if (!lane.inFlight && !lane.queue.isEmpty()) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    private class Worker extends Thread {
+        private final int mWorkerGeneration;
+
+        Worker(int generation) {
+            super("EventLoader");
+            mWorkerGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Lane lane;
+                Entry entry;
+                synchronized (LoadScheduler.this) {
+                    while (true) {
+                        if (mGeneration != mWorkerGeneration) {
+                            return;
+                        }
+                        lane = nextLane();
+                        if (lane != null) {
+                            break;
+                        }
+                        try {
+                            LoadScheduler.this.wait();
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                    }
+                    entry = lane.queue.removeFirst();
+                    lane.inFlight = true;
+                }
+
+                Process.setThreadPriority(lane.threadPriority);
+                try {
+                    entry.request.processRequest();
+                } finally {
+                    long latency = SystemClock.uptimeMillis() - entry.queueTime;
+                    synchronized (LoadScheduler.this) {
+                        lane.inFlight = false;
+                        lane.numProcessed++;
+                        lane.totalLatencyMillis += latency;
+                        if (latency > lane.maxLatencyMillis) {
+                            lane.maxLatencyMillis = latency;
+                        }
+                        // Another request on this lane may now run.
+                        LoadScheduler.this.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
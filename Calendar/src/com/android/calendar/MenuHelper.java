@@ -47,6 +47,7 @@ public class MenuHelper {
     public static final int MENU_SELECT_CALENDARS = 10;
     public static final int MENU_PREFERENCES = 11;
     public static final int MENU_GOTO_DATE = 12;//fwr687
+    public static final int MENU_FIND_FREE_SLOT = 13;
     
     public static void onPrepareOptionsMenu(Activity activity, Menu menu) {
 
@@ -154,6 +154,15 @@ public class MonthActivity extends Activity implements ViewSwitcher.ViewFactory,
         return mStartDay;
     }
 
+    /**
+     * Called when the calendar provider reports a change.  Only the instances
+     * that actually changed are replaced in the current view.
+     */
+    void eventsChangedInProvider() {
+        MonthView view = (MonthView) mSwitcher.getCurrentView();
+        view.reloadChangedEvents();
+    }
+
     void eventsChanged() {
         MonthView view = (MonthView) mSwitcher.getCurrentView();
         view.reloadEvents();
@@ -169,6 +178,7 @@ public class MonthActivity extends Activity implements ViewSwitcher.ViewFactory,
             if (action.equals(Intent.ACTION_TIME_CHANGED)
                     || action.equals(Intent.ACTION_DATE_CHANGED)
                     || action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+                mEventLoader.clearCache();
                 eventsChanged();
             }
         }
@@ -185,7 +195,10 @@ public class MonthActivity extends Activity implements ViewSwitcher.ViewFactory,
 
         @Override
         public void onChange(boolean selfChange) {
-            eventsChanged();
+            // The shared cache has its own observer, but it may not have
+            // been notified yet.
+            mEventLoader.clearCache();
+            eventsChangedInProvider();
         }
     };
 
@@ -55,6 +55,7 @@ import android.widget.PopupWindow;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 
 import com.android.calendar.Utils.lunarInfo;
@@ -82,6 +83,9 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
     private static int EVENT_DOT_LEFT_MARGIN = 7;
     private static int EVENT_DOT_W_H = 10;
     private static int EVENT_NUM_DAYS = 31;
+
+    // The six weeks of the month grid, including the adjacent months' days.
+    private static final int GRID_NUM_DAYS = 42;
     private static int TEXT_TOP_MARGIN = 7;
     private static int BUSY_BITS_WIDTH = 6;
     private static int BUSY_BITS_MARGIN = 4;
@@ -135,8 +139,10 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
     // Pre-allocate and reuse
     private Rect mRect = new Rect();
 
-    //An array of which days have events for quick reference
-    private boolean[] eventDay = new boolean[31];
+    // Which days of the grid have events, for quick reference.  Bit i is
+    // set if day mEventDaysStartDay + i has an event.
+    private BitSet mEventDays = new BitSet(GRID_NUM_DAYS);
+    private int mEventDaysStartDay;
 
     private PopupWindow mPopup;
     private View mPopupView;
@@ -189,6 +195,19 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
 
     private ArrayList<Event> mEvents = new ArrayList<Event>();
 
+    // The draw-time fields of mEvents in primitive arrays.
+    private final EventStore mEventStore = new EventStore();
+
+    // The busy time of each day of the grid, drawn as the busy bits.
+    // Declined events count, as they always did here: when the preference
+    // to hide them is set they are not loaded in the first place.
+    private final FreeBusy mFreeBusy = new FreeBusy(true /* declined events are busy */);
+    private final float[] mBusyRect = new float[EventStore.RECT_SIZE];
+    private final int[] mChangedDays = new int[2];
+
+    // The start of the month most recently passed to the event loader
+    private long mLastReloadMillis;
+
     private Drawable mTodayBackground;
     // Cached colors
     private int mMonthOtherMonthColor;
@@ -516,6 +535,13 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
         monthStart.second = 0;
         long millis = monthStart.normalize(true /* ignore isDst */);
         int startDay = Time.getJulianDay(millis, monthStart.gmtoff);
+        mLastReloadMillis = millis;
+
+        // The months on either side, prefetched once this one is showing
+        monthStart.month -= 1;
+        final long previousMillis = monthStart.normalize(true /* ignore isDst */);
+        monthStart.month += 2;
+        final long nextMillis = monthStart.normalize(true /* ignore isDst */);
 
         // Load the days with events in the background
         mParentActivity.startProgressSpinner();
@@ -527,45 +553,73 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
             startMillis = 0;
         }
 
+        // The Julian day at row 0, column 0 of the grid.
+        final int gridStartDay = mFirstJulianDay - mCursor.getColumnOf(1);
+
         final ArrayList<Event> events = new ArrayList<Event>();
-        mEventLoader.loadEventsInBackground(EVENT_NUM_DAYS, events, millis, new Runnable() {
+        mEventLoader.loadEventsInBackground(EVENT_NUM_DAYS, Event.PROFILE_BUSY_BITS, events,
+                millis, new Runnable() {
             public void run() {
+                Event.recycleEvents(mEvents);
                 mEvents = events;
+                mEventStore.set(events, gridStartDay, GRID_NUM_DAYS);
+                mFreeBusy.set(mEventStore);
                 mRedrawScreen = true;
                 mParentActivity.stopProgressSpinner();
                 invalidate();
-                int numEvents = events.size();
+                mEventLoader.prefetchEventsInBackground(EVENT_NUM_DAYS, Event.PROFILE_BUSY_BITS,
+                        previousMillis, nextMillis);
+            }
+        }, null);
+        reloadEventDays();
+    }
 
-                // Clear out event days
-                for (int i = 0; i < EVENT_NUM_DAYS; i++) {
-                    eventDay[i] = false;
-                }
+    private void reloadEventDays() {
+        // The Julian day at row 0, column 0 of the grid.
+        final int gridStartDay = mFirstJulianDay - mCursor.getColumnOf(1);
+        mEventLoader.loadEventDaysInBackground(gridStartDay, GRID_NUM_DAYS, mEventDays,
+                new Runnable() {
+            public void run() {
+                mEventDaysStartDay = gridStartDay;
+                mRedrawScreen = true;
+                invalidate();
+            }
+        });
+    }
 
-                // Compute the new set of days with events
-                for (int i = 0; i < numEvents; i++) {
-                    Event event = events.get(i);
-                    int startDay = event.startDay - mFirstJulianDay;
-                    int endDay = event.endDay - mFirstJulianDay + 1;
-                    if (startDay < 31 || endDay >= 0) {
-                        if (startDay < 0) {
-                            startDay = 0;
-                        }
-                        if (startDay > 31) {
-                            startDay = 31;
-                        }
-                        if (endDay < 0) {
-                            endDay = 0;
-                        }
-                        if (endDay > 31) {
-                            endDay = 31;
-                        }
-                        for (int j = startDay; j < endDay; j++) {
-                            eventDay[j] = true;
-                        }
-                    }
+    private boolean isEventDay(int julianDay) {
+        int index = julianDay - mEventDaysStartDay;
+        return index >= 0 && index < GRID_NUM_DAYS && mEventDays.get(index);
+    }
+
+    /**
+     * Re-reads the displayed month after the provider reported a change and
+     * merges the result into the events on screen.  Nothing is redrawn if
+     * no displayed instance changed.
+     */
+    void reloadChangedEvents() {
+        if (mLastReloadMillis == 0) {
+            reloadEvents();
+            return;
+        }
+
+        final ArrayList<Event> events = new ArrayList<Event>();
+        mEventLoader.reloadChangedEventsInBackground(EVENT_NUM_DAYS, Event.PROFILE_BUSY_BITS,
+                events, mLastReloadMillis,
+                new Runnable() {
+            public void run() {
+                int[] changedDays = mChangedDays;
+                if (Event.mergeEvents(mEvents, events, changedDays) == 0) {
+                    return;
                 }
+                mEvents = events;
+                mEventStore.set(events);
+                mFreeBusy.update(mEventStore, changedDays[0], changedDays[1]);
+                mRedrawScreen = true;
+                invalidate();
             }
         }, null);
+        reloadEventDays();
     }
 
     void animationStarted() {
@@ -917,7 +971,7 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
 					p.setColor(mMonthDayNumberColor);
 				}
 				// bolds the day if there's an event that day
-				p.setFakeBoldText(eventDay[day - mFirstJulianDay]);
+				p.setFakeBoldText(isEventDay(day));
 			}
 
 			p.setTextAlign(Paint.Align.CENTER);
@@ -945,7 +999,7 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
 					p.setColor(mMonthDayNumberColor);
 				}
 				// bolds the day if there's an event that day
-				p.setFakeBoldText(eventDay[day - mFirstJulianDay]);
+				p.setFakeBoldText(isEventDay(day));
 			}
 			p.setFakeBoldText(false);
 
@@ -1010,7 +1064,7 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
                 p.setColor(mMonthDayNumberColor);
             }
             //bolds the day if there's an event that day
-            p.setFakeBoldText(eventDay[day-mFirstJulianDay]);
+            p.setFakeBoldText(isEventDay(day));
         }
 
         /*Drawing of day number is done here
@@ -1033,8 +1087,8 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
         Style oldStyle = p.getStyle();
         int oldColor = p.getColor();
 
-        ArrayList<Event> events = mEvents;
-        int numEvents = events.size();
+        FreeBusy freeBusy = mFreeBusy;
+        int numIntervals = freeBusy.getNumIntervals(date);
         EventGeometry geometry = mEventGeometry;
 
         if (drawBg) {
@@ -1049,18 +1103,28 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
             canvas.drawRect(rf, p);
         }
 
-        for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
-            if (!geometry.computeEventRect(date, left, top, BUSY_BITS_WIDTH, event)) {
-                continue;
+        // An all-day event makes the whole day busy.  Otherwise draw each
+        // stretch of busy time once, however many events fill it.
+        float[] busyRect = mBusyRect;
+        if (freeBusy.hasAllDay(date)) {
+            geometry.computeSpanRect(left, top, BUSY_BITS_WIDTH, 0,
+                    CalendarView.MINUTES_PER_DAY, busyRect, 0);
+            drawEventRect(rect, busyRect[EventStore.RECT_TOP],
+                    busyRect[EventStore.RECT_BOTTOM], canvas, p);
+        } else {
+            for (int k = 0; k < numIntervals; k++) {
+                geometry.computeSpanRect(left, top, BUSY_BITS_WIDTH, freeBusy.getStart(date, k),
+                        freeBusy.getEnd(date, k), busyRect, 0);
+                drawEventRect(rect, busyRect[EventStore.RECT_TOP],
+                        busyRect[EventStore.RECT_BOTTOM], canvas, p);
             }
-            drawEventRect(rect, event, canvas, p);
         }
 
     }
 
-    // Draw busybits for a single event
-    private RectF drawEventRect(Rect rect, Event event, Canvas canvas, Paint p) {
+    // Draw busybits for a single stretch of busy time
+    private RectF drawEventRect(Rect rect, float eventTop, float eventBottom, Canvas canvas,
+            Paint p) {
 
         p.setColor(mBusybitsColor);
 
@@ -1068,9 +1132,9 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
         int bottom = rect.bottom - BUSY_BITS_MARGIN;
 
         RectF rf = mRectF;
-        rf.top = event.top;
+        rf.top = eventTop;
         // Make sure we don't go below the bottom of the bb bar
-        rf.bottom = Math.min(event.bottom, bottom);
+        rf.bottom = Math.min(eventBottom, bottom);
         rf.left = left;
         rf.right = left + BUSY_BITS_WIDTH;
 
@@ -1220,20 +1284,17 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
         }
 
         getHandler().removeCallbacks(mDismissPopup);
-        ArrayList<Event> events = mEvents;
-        int numEvents = events.size();
+        EventStore store = mEventStore;
+        int numEvents = store.eventsOn(date);
+        int[] hits = store.hits;
         if (numEvents == 0) {
             mPopup.dismiss();
             return;
         }
 
         int eventIndex = 0;
-        for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
-
-            if (event.startDay > date || event.endDay < date) {
-                continue;
-            }
+        for (int h = 0; h < numEvents; h++) {
+            Event event = store.getEvent(hits[h]);
 
             // If we have all the event that we can display, then just count
             // the extra ones.
@@ -1291,6 +1352,8 @@ public class MonthView extends View implements View.OnCreateContextMenuListener,
                     break;
             }
 
+            // The busy-bits profile has the title, so nothing is queried
+            // while drawing.
             timeView.setText(timeRange);
             titleView.setText(event.title);
             eventIndex += 1;
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Fills in the nextUp, nextDown, nextLeft and nextRight links that the
+ * keyboard and trackball follow between the selected events of the day and
+ * week views.
+ *
+ * Rather than comparing every event with every other one, the events are
+ * sorted on each edge the directions care about (end time for up, start
+ * time for down, left edge for right and right edge for left) and each
+ * neighbor is found by a binary search followed by a short scan.  The
+ * links are the same as those of the exhaustive search, ties included: the
+ * nearest event wins, then the one nearest the center line, then the
+ * earliest in the list.
+ *
+ * The links are kept until the selected events, their rectangles or the
+ * selection box change, so redrawing the same selection does no work.
+ */
+class NeighborIndex {
+
+    private static final int MODE_NONE = 0;
+    private static final int MODE_TIMED = 1;
+    private static final int MODE_ALL_DAY = 2;
+
+    // The input of the last computation, to tell whether it is current.
+    private int mMode = MODE_NONE;
+    private int mSize;
+    private Event[] mEvents = new Event[0];
+    private int mBoxTop;
+    private int mBoxBottom;
+
+    // The integer geometry of each event, as the comparisons use it.
+    private int[] mLeft = new int[0];
+    private int[] mRight = new int[0];
+    private int[] mTop = new int[0];
+    private int[] mBottom = new int[0];
+    private int[] mStartTime = new int[0];
+    private int[] mEndTime = new int[0];
+    private int[] mColumn = new int[0];
+
+    // Sort orders, each entry (key << 32 | index) so that equal keys stay
+    // in list order.
+    private long[] mByEnd = new long[0];
+    private long[] mByStart = new long[0];
+    private long[] mByLeft = new long[0];
+    private long[] mByRight = new long[0];
+
+    /**
+     * Forgets the last computation, so the next one always runs.  Call this
+     * when the events are reloaded, since pooled Event objects may come back
+     * with their links cleared.
+     */
+    void invalidate() {
+        mMode = MODE_NONE;
+        for (int i = 0; i < mSize; i++) {
+            mEvents[i] = null;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Links the timed events to their nearest neighbors in the four
+     * directions.  The tops and bottoms of the events are clipped to the
+     * selection box from boxTop to boxBottom when measuring from them.
+     */
+    void computeLinks(ArrayList<Event> events, int boxTop, int boxBottom) {
+        if (isCurrent(MODE_TIMED, events, boxTop, boxBottom)) {
+            return;
+        }
+        snapshot(MODE_TIMED, events, boxTop, boxBottom);
+        int size = mSize;
+        for (int i = 0; i < size; i++) {
+            mByEnd[i] = makeKey(-mEndTime[i], i);
+            mByStart[i] = makeKey(mStartTime[i], i);
+            mByLeft[i] = makeKey(mLeft[i], i);
+            mByRight[i] = makeKey(-mRight[i], i);
+        }
+        Arrays.sort(mByEnd, 0, size);
+        Arrays.sort(mByStart, 0, size);
+        Arrays.sort(mByLeft, 0, size);
+        Arrays.sort(mByRight, 0, size);
+
+        for (int i = 0; i < size; i++) {
+            Event ev = mEvents[i];
+            ev.nextUp = findUp(i);
+            ev.nextDown = findDown(i);
+            ev.nextRight = findRight(i);
+            ev.nextLeft = findLeft(i);
+        }
+    }
+
+    /**
+     * Links the all-day events to the events in the rows just above and
+     * below them.  If several events share that row, the last in the list
+     * is used.
+     */
+    void computeAllDayLinks(ArrayList<Event> events) {
+        if (isCurrent(MODE_ALL_DAY, events, 0, 0)) {
+            return;
+        }
+        snapshot(MODE_ALL_DAY, events, 0, 0);
+        int size = mSize;
+        long[] byColumn = mByLeft;
+        for (int i = 0; i < size; i++) {
+            byColumn[i] = makeKey(mColumn[i], i);
+        }
+        Arrays.sort(byColumn, 0, size);
+
+        for (int i = 0; i < size; i++) {
+            Event ev = mEvents[i];
+            int column = mColumn[i];
+            ev.nextUp = lastInColumn(byColumn, column - 1);
+            ev.nextDown = lastInColumn(byColumn, column + 1);
+            ev.nextLeft = null;
+            ev.nextRight = null;
+        }
+    }
+
+    private Event lastInColumn(long[] byColumn, int column) {
+        int p = search(byColumn, makeKey(column + 1, 0)) - 1;
+        if (p >= 0 && mColumn[indexOf(byColumn[p])] == column) {
+            return mEvents[indexOf(byColumn[p])];
+        }
+        return null;
+    }
+
+    private Event findUp(int i) {
+        int startTime = mStartTime[i];
+        int left = mLeft[i];
+        int right = mRight[i];
+        int center = (left + right) / 2;
+
+        // The events that end by our start, latest end first.
+        int best = -1;
+        int bestCenterDistance = 0;
+        long[] byEnd = mByEnd;
+        for (int p = search(byEnd, makeKey(-startTime, 0)); p < mSize; p++) {
+            int n = indexOf(byEnd[p]);
+            if (best >= 0 && mEndTime[n] != mEndTime[best]) {
+                break;
+            }
+            if (n == i || mLeft[n] >= right || mRight[n] <= left) {
+                continue;
+            }
+            int centerDistance = distanceToSpan(center, mLeft[n], mRight[n]);
+            if (best < 0 || centerDistance < bestCenterDistance) {
+                best = n;
+                bestCenterDistance = centerDistance;
+            }
+        }
+        return best < 0 ? null : mEvents[best];
+    }
+
+    private Event findDown(int i) {
+        int startTime = mStartTime[i];
+        int endTime = mEndTime[i];
+        int left = mLeft[i];
+        int right = mRight[i];
+        int center = (left + right) / 2;
+
+        // The events that start at or after our end, earliest start first.
+        int best = -1;
+        int bestCenterDistance = 0;
+        long[] byStart = mByStart;
+        for (int p = search(byStart, makeKey(endTime, 0)); p < mSize; p++) {
+            int n = indexOf(byStart[p]);
+            if (best >= 0 && mStartTime[n] != mStartTime[best]) {
+                break;
+            }
+
+            // An event that is also entirely above counts as above only.
+            if (n == i || mEndTime[n] <= startTime
+                    || mLeft[n] >= right || mRight[n] <= left) {
+                continue;
+            }
+            int centerDistance = distanceToSpan(center, mLeft[n], mRight[n]);
+            if (best < 0 || centerDistance < bestCenterDistance) {
+                best = n;
+                bestCenterDistance = centerDistance;
+            }
+        }
+        return best < 0 ? null : mEvents[best];
+    }
+
+    private Event findRight(int i) {
+        int center = clippedCenter(i);
+
+        // The events entirely to our right, nearest first.  The one nearest
+        // our center line wins, so stop at one that spans it.
+        int best = -1;
+        int bestDistance = 0;
+        long[] byLeft = mByLeft;
+        for (int p = search(byLeft, makeKey(mRight[i], 0)); p < mSize; p++) {
+            int n = indexOf(byLeft[p]);
+            if (n == i) {
+                continue;
+            }
+            int distance = distanceToSpan(center, mTop[n], mBottom[n]);
+            if (best < 0 || distance < bestDistance) {
+                best = n;
+                bestDistance = distance;
+                if (distance == 0) {
+                    break;
+                }
+            }
+        }
+        return best < 0 ? null : mEvents[best];
+    }
+
+    private Event findLeft(int i) {
+        int center = clippedCenter(i);
+
+        // The events entirely to our left, nearest first.
+        int best = -1;
+        int bestDistance = 0;
+        long[] byRight = mByRight;
+        for (int p = search(byRight, makeKey(-mLeft[i], 0)); p < mSize; p++) {
+            int n = indexOf(byRight[p]);
+            if (n == i) {
+                continue;
+            }
+            int distance = distanceToSpan(center, mTop[n], mBottom[n]);
+            if (best < 0 || distance < bestDistance) {
+                best = n;
+                bestDistance = distance;
+                if (distance == 0) {
+                    break;
+                }
+            }
+        }
+        return best < 0 ? null : mEvents[best];
+    }
+
+    /**
+     * Returns the middle of the event's rectangle after cutting off what
+     * sticks out above or below the selection box.
+     */
+    private int clippedCenter(int i) {
+        int top = Math.max(mTop[i], mBoxTop);
+        int bottom = Math.min(mBottom[i], mBoxBottom);
+        return (top + bottom) / 2;
+    }
+
+    /**
+     * Returns how far the point is from the span [start, end], or 0 if the
+     * point is inside it.
+     */
+    private static int distanceToSpan(int point, int start, int end) {
+        if (end <= point) {
+            return point - end;
+        }
+        if (start >= point) {
+            return start - point;
+        }
+        return 0;
+    }
+
+    private static long makeKey(int key, int index) {
+        return ((long) key << 32) | index;
+    }
+
+    private static int indexOf(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Returns the first position in the first mSize entries of the sorted
+     * array whose entry is at least the given one.
+     */
+    private int search(long[] sorted, long entry) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < entry) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean isCurrent(int mode, ArrayList<Event> events, int boxTop, int boxBottom) {
+        int size = events.size();
+        if (mode != mMode || size != mSize || boxTop != mBoxTop || boxBottom != mBoxBottom) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            if (e != mEvents[i]
+                    || (int) e.left != mLeft[i] || (int) e.right != mRight[i]
+                    || (int) e.top != mTop[i] || (int) e.bottom != mBottom[i]
+                    || e.startTime != mStartTime[i] || e.endTime != mEndTime[i]
+                    || e.getColumn() != mColumn[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void snapshot(int mode, ArrayList<Event> events, int boxTop, int boxBottom) {
+        int size = events.size();
+        if (mEvents.length < size) {
+            int capacity = Math.max(size, mEvents.length * 2);
+            mEvents = new Event[capacity];
+            mLeft = new int[capacity];
+            mRight = new int[capacity];
+            mTop = new int[capacity];
+            mBottom = new int[capacity];
+            mStartTime = new int[capacity];
+            mEndTime = new int[capacity];
+            mColumn = new int[capacity];
+            mByEnd = new long[capacity];
+            mByStart = new long[capacity];
+            mByLeft = new long[capacity];
+            mByRight = new long[capacity];
+        }
+        for (int i = size; i < mSize; i++) {
+            mEvents[i] = null;
+        }
+        mMode = mode;
+        mSize = size;
+        mBoxTop = boxTop;
+        mBoxBottom = boxBottom;
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            mEvents[i] = e;
+            mLeft[i] = (int) e.left;
+            mRight[i] = (int) e.right;
+            mTop[i] = (int) e.top;
+            mBottom[i] = (int) e.bottom;
+            mStartTime[i] = e.startTime;
+            mEndTime[i] = e.endTime;
+            mColumn[i] = e.getColumn();
+        }
+    }
+}
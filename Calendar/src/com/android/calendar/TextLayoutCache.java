@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+/**
+ * Caches how the text of an event is broken into lines to fit its
+ * rectangle, so that redrawing an event whose text and rectangle are
+ * unchanged does no string or measuring work.
+ *
+ * A layout is keyed by the event id, the width and height of the
+ * rectangle and the text size, and holds the start and end of each line
+ * in the text rather than the lines themselves, so drawing from it does
+ * not allocate.  It also holds the text it was made for, compared by
+ * identity, since the text of an id changes when the event is reloaded.
+ *
+ * The cache is direct-mapped: each key has one slot, and a layout
+ * replaces whatever was in its slot.  The slots and their line arrays are
+ * reused, so once the busiest view has been drawn nothing is allocated.
+ */
+class TextLayoutCache {
+
+    /**
+     * The number of layouts kept, a power of two.
+     */
+    static final int CAPACITY = 256;
+
+    /**
+     * The lines of a text laid out in a rectangle.  Line k is the text from
+     * lineStarts[k] up to, but not including, lineEnds[k].
+     */
+    static class Layout {
+        long id;
+        String text;
+        float width;
+        float height;
+        float textSize;
+
+        int numLines;
+        int[] lineStarts = new int[4];
+        int[] lineEnds = new int[4];
+
+        private void addLine(int start, int end) {
+            if (numLines == lineStarts.length) {
+                int[] starts = new int[numLines * 2];
+                int[] ends = new int[numLines * 2];
+                System.arraycopy(lineStarts, 0, starts, 0, numLines);
+                System.arraycopy(lineEnds, 0, ends, 0, numLines);
+                lineStarts = starts;
+                lineEnds = ends;
+            }
+            lineStarts[numLines] = start;
+            lineEnds[numLines] = end;
+            numLines++;
+        }
+    }
+
+    private final Layout[] mLayouts = new Layout[CAPACITY];
+    private int mHitCount;
+    private int mMissCount;
+
+    private static int slot(long id, float width, float height, float textSize) {
+        int hash = (int) (id ^ (id >>> 32));
+        hash = hash * 31 + Float.floatToIntBits(width);
+        hash = hash * 31 + Float.floatToIntBits(height);
+        hash = hash * 31 + Float.floatToIntBits(textSize);
+        hash ^= hash >>> 16;
+        return hash & (CAPACITY - 1);
+    }
+
+    /**
+     * Returns the layout of the given text of an event in a rectangle of
+     * the given size, or null if it is not cached.
+     */
+    Layout get(long id, String text, float width, float height, float textSize) {
+        Layout layout = mLayouts[slot(id, width, height, textSize)];
+        if (layout != null && layout.text == text && layout.id == id
+                && layout.width == width && layout.height == height
+                && layout.textSize == textSize) {
+            mHitCount++;
+            return layout;
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Breaks the first len characters of the given text into lines and
+     * caches the result.
+     *
+     * @param charWidths the width of each of the first len characters
+     * @param lineHeight the height of a line, including the space between
+     *        lines
+     * @return the layout, which stays valid until the next call
+     */
+    Layout put(long id, String text, float width, float height, float textSize,
+            float[] charWidths, int len, int lineHeight) {
+        int slot = slot(id, width, height, textSize);
+        Layout layout = mLayouts[slot];
+        if (layout == null) {
+            layout = new Layout();
+            mLayouts[slot] = layout;
+        }
+        layout.id = id;
+        layout.text = text;
+        layout.width = width;
+        layout.height = height;
+        layout.textSize = textSize;
+        breakLines(text, len, charWidths, width, height, lineHeight, layout);
+        return layout;
+    }
+
+    /**
+     * Fits as many lines of the text as there is room for in the height,
+     * breaking lines at the last space that fits in the width.  A word
+     * longer than a line, and the last line, are cut wherever the width
+     * ends.
+     */
+    static void breakLines(String text, int len, float[] charWidths, float width,
+            float height, int lineHeight, Layout layout) {
+        layout.numLines = 0;
+        int start = 0;
+
+        // Leave one pixel extra space at the bottom
+        while (start < len && height >= (lineHeight + 1)) {
+            boolean lastLine = (height < 2 * lineHeight + 1);
+            // Skip leading spaces at the beginning of each line
+            do {
+                char c = text.charAt(start);
+                if (c != ' ') break;
+                start += 1;
+            } while (start < len);
+
+            float sum = 0;
+            int end = start;
+            int lineStart = start;
+
+            // Unless the width runs out, the rest of the text fits on this
+            // line.
+            int lineEnd = len;
+            for (int ii = start; ii < len; ii++) {
+                char c = text.charAt(ii);
+
+                // If we found the end of a word, then remember the ending
+                // position.
+                if (c == ' ') {
+                    end = ii;
+                }
+                sum += charWidths[ii];
+                // If adding this character would exceed the width and this
+                // isn't the last line, then break the line at the previous
+                // word.  If there was no previous word, then break this word.
+                if (sum > width) {
+                    if (end > start && !lastLine) {
+                        // There was a previous word on this line.
+                        lineEnd = end;
+                    } else {
+                        // This is the only word and it is too long to fit
+                        // on the line (or this is the last line), so take
+                        // as many characters of this word as will fit.
+                        lineEnd = ii;
+                    }
+                    break;
+                }
+            }
+
+            layout.addLine(lineStart, lineEnd);
+            start = lineEnd;
+
+            height -= lineHeight;
+        }
+    }
+
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    int getMissCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Test class for verifying the all-day rows packed by AllDayLayout.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.AllDayLayoutTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class AllDayLayoutTest extends TestCase {
+
+    private static final int FIRST_DAY = 2455000;
+    private static final int NUM_DAYS = 7;
+    private static final int MAX_ROWS = 4;
+
+    /**
+     * Creates all-day events over the week and a few days on either side,
+     * some spanning several days, mixed with timed events.
+     */
+    private static EventStore createStore(long seed, int numEvents) {
+        Random random = new Random(seed);
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < numEvents; i++) {
+            Event e = new Event();
+            e.id = i;
+            e.allDay = random.nextInt(4) != 0;
+            e.startDay = FIRST_DAY - 3 + random.nextInt(NUM_DAYS + 6);
+            e.endDay = e.startDay + (random.nextInt(3) == 0 ? random.nextInt(5) : 0);
+            e.startTime = e.allDay ? 0 : random.nextInt(23 * 60);
+            e.endTime = e.allDay ? 24 * 60 : e.startTime + 60;
+            e.startMillis = e.startDay * 24L * 60 * 60 * 1000 + e.startTime * 60L * 1000;
+            e.endMillis = e.endDay * 24L * 60 * 60 * 1000 + e.endTime * 60L * 1000;
+            events.add(e);
+        }
+        Collections.sort(events);
+        EventStore store = new EventStore();
+        store.set(events, FIRST_DAY, NUM_DAYS);
+        return store;
+    }
+
+    private static boolean isShown(EventStore store, int i) {
+        return store.allDay[i] && store.startDay[i] < FIRST_DAY + NUM_DAYS
+                && store.endDay[i] >= FIRST_DAY;
+    }
+
+    @SmallTest
+    public void testRowsDoNotOverlapAndAreFew() {
+        for (long seed = 0; seed < 30; seed++) {
+            EventStore store = createStore(seed, 5 + (int) seed * 2);
+            AllDayLayout layout = new AllDayLayout();
+            layout.layout(store, FIRST_DAY, NUM_DAYS, Integer.MAX_VALUE);
+
+            // No two events share a row on any day, and no more rows are
+            // used than the busiest day has events.
+            int maxPerDay = 0;
+            for (int day = FIRST_DAY; day < FIRST_DAY + NUM_DAYS; day++) {
+                boolean[] taken = new boolean[store.size()];
+                int count = 0;
+                for (int i = 0; i < store.size(); i++) {
+                    if (!isShown(store, i) || store.startDay[i] > day || store.endDay[i] < day) {
+                        continue;
+                    }
+                    int row = store.getEvent(i).getColumn();
+                    assertEquals(row, store.column[i]);
+                    assertFalse("row " + row + " taken twice on " + day, taken[row]);
+                    taken[row] = true;
+                    count++;
+                }
+                assertEquals(count, layout.getNumEvents(day));
+                assertEquals(0, layout.getOverflow(day));
+                maxPerDay = Math.max(maxPerDay, count);
+            }
+            assertEquals(maxPerDay, layout.getNumRows());
+            assertEquals(maxPerDay, layout.getNumEventRows());
+        }
+    }
+
+    @SmallTest
+    public void testOverflowCountsHiddenEvents() {
+        for (long seed = 0; seed < 30; seed++) {
+            EventStore store = createStore(seed, 40);
+            AllDayLayout layout = new AllDayLayout();
+            layout.layout(store, FIRST_DAY, NUM_DAYS, MAX_ROWS);
+            assertTrue(layout.getNumRows() <= MAX_ROWS);
+
+            int numVisible = layout.getNumVisible();
+            int[] visible = layout.getVisible();
+            int v = 0;
+            for (int day = FIRST_DAY; day < FIRST_DAY + NUM_DAYS; day++) {
+                int hidden = 0;
+                for (int i = 0; i < store.size(); i++) {
+                    if (isShown(store, i) && store.startDay[i] <= day && store.endDay[i] >= day
+                            && !layout.isVisible(store.getEvent(i))) {
+                        hidden++;
+                    }
+                }
+                assertEquals(hidden, layout.getOverflow(day));
+                if (hidden > 0) {
+                    assertEquals(MAX_ROWS - 1, layout.getNumEventRows());
+                }
+            }
+
+            // The visible list is exactly the shown events in a visible row.
+            for (int i = 0; i < store.size(); i++) {
+                if (isShown(store, i) && layout.isVisible(store.getEvent(i))) {
+                    assertTrue(v < numVisible);
+                    assertEquals(i, visible[v++]);
+                }
+            }
+            assertEquals(numVisible, v);
+        }
+    }
+
+    @SmallTest
+    public void testNoAllDayEvents() {
+        EventStore store = new EventStore();
+        store.set(new ArrayList<Event>(), FIRST_DAY, NUM_DAYS);
+        AllDayLayout layout = new AllDayLayout();
+        layout.layout(store, FIRST_DAY, NUM_DAYS, MAX_ROWS);
+        assertEquals(0, layout.getNumRows());
+        assertEquals(0, layout.getNumVisible());
+        assertEquals(0, layout.getNumEvents(FIRST_DAY));
+        assertEquals(0, layout.getOverflow(FIRST_DAY - 1));
+    }
+}
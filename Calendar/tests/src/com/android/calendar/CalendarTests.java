@@ -34,6 +34,21 @@ public class CalendarTests extends TestBrowserActivity {
         TestSuite suite = new TestSuite(CalendarTests.class.getName());
         suite.addTestSuite(FormatDateRangeTest.class);
         suite.addTestSuite(WeekNumberTest.class);
+        suite.addTestSuite(EventTest.class);
+        suite.addTestSuite(EventLoaderTest.class);
+        suite.addTestSuite(EventCacheTest.class);
+        suite.addTestSuite(LoadSchedulerTest.class);
+        suite.addTestSuite(EventStoreTest.class);
+        suite.addTestSuite(EventLayoutTest.class);
+        suite.addTestSuite(LayoutCacheTest.class);
+        suite.addTestSuite(HitGridTest.class);
+        suite.addTestSuite(NeighborIndexTest.class);
+        suite.addTestSuite(AllDayLayoutTest.class);
+        suite.addTestSuite(FreeBusyTest.class);
+        suite.addTestSuite(GridTilesTest.class);
+        suite.addTestSuite(TextLayoutCacheTest.class);
+        suite.addTestSuite(EventPaletteTest.class);
+        suite.addTestSuite(CalendarViewDrawTest.class);
         return suite;
     }
 }
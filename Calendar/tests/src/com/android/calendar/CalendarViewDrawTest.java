@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.provider.Calendar.Attendees;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.text.format.Time;
+import android.view.KeyEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Test class for verifying that redrawing the week view allocates nothing
+ * once its events have been drawn, and that moving the selection or the
+ * current time marks only the bands that changed for redrawing, while
+ * scrolling marks the whole grid.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.CalendarViewDrawTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class CalendarViewDrawTest extends ActivityInstrumentationTestCase2<WeekActivity> {
+
+    private static final int[] COLORS = { 0xff3366cc, 0xffdc3912, 0xff109618 };
+
+    public CalendarViewDrawTest() {
+        super("com.android.calendar", WeekActivity.class);
+    }
+
+    /**
+     * A week view that records what it marks for redrawing.
+     */
+    private static class RecordingView extends WeekView {
+        final ArrayList<Rect> mInvalidated = new ArrayList<Rect>();
+        boolean mInvalidatedAll;
+
+        RecordingView(CalendarActivity activity) {
+            super(activity);
+        }
+
+        @Override
+        public void invalidate() {
+            mInvalidatedAll = true;
+            super.invalidate();
+        }
+
+        @Override
+        public void invalidate(Rect dirty) {
+            mInvalidated.add(new Rect(dirty));
+            super.invalidate(dirty);
+        }
+
+        void reset() {
+            mInvalidated.clear();
+            mInvalidatedAll = false;
+        }
+    }
+
+    /**
+     * Creates a view the size of the activity's, with the selection at the
+     * given hour of the first day shown, and draws it once.  Must be called
+     * on the UI thread.
+     */
+    private static RecordingView createView(WeekActivity activity, int hour,
+            boolean withEvents) {
+        CalendarView current = (CalendarView) activity.mViewSwitcher.getCurrentView();
+        RecordingView view = new RecordingView(activity);
+        Time time = new Time();
+        time.setToNow();
+        view.setSelectedDay(time);
+        time.setJulianDay(view.getFirstJulianDay());
+        time.hour = hour;
+        time.normalize(true /* ignore isDst */);
+        view.setSelectedDay(time);
+        view.layout(0, 0, current.getWidth(), current.getHeight());
+        view.showEvents(withEvents ? createWeek(view.getFirstJulianDay())
+                : new ArrayList<Event>());
+
+        Bitmap bitmap = Bitmap.createBitmap(view.getWidth(), view.getHeight(),
+                Bitmap.Config.RGB_565);
+        view.drawWholeDay(new Canvas(bitmap));
+        bitmap.recycle();
+        view.reset();
+        return view;
+    }
+
+    private static boolean pressKey(CalendarView view, int keyCode) {
+        return view.onKeyDown(keyCode, new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
+    }
+
+    /**
+     * Creates a busy week: overlapping meetings with locations in three
+     * calendar colors, some declined, plus all-day and multi-day events.
+     */
+    private static ArrayList<Event> createWeek(int firstDay) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        int id = 1;
+        for (int day = firstDay; day < firstDay + 7; day++) {
+            for (int hour = 8; hour < 18; hour += 2) {
+                Event e = new Event();
+                e.id = id++;
+                e.title = "Planning meeting " + hour;
+                e.location = "Building " + (day - firstDay);
+                e.color = COLORS[hour % COLORS.length];
+                e.startDay = day;
+                e.endDay = day;
+                e.startTime = hour * 60 + (id % 3) * 15;
+                e.endTime = e.startTime + 90;
+                if (id % 4 == 0) {
+                    e.selfAttendeeStatus = Attendees.ATTENDEE_STATUS_DECLINED;
+                }
+                events.add(e);
+            }
+        }
+
+        Event allDay = new Event();
+        allDay.id = id++;
+        allDay.title = "Offsite";
+        allDay.allDay = true;
+        allDay.startDay = firstDay + 1;
+        allDay.endDay = firstDay + 2;
+        allDay.endTime = 24 * 60;
+        events.add(allDay);
+
+        // More all-day events on one day than there are rows, so that the
+        // "+N" label is drawn too.
+        for (int i = 0; i < 6; i++) {
+            Event holiday = new Event();
+            holiday.id = id++;
+            holiday.title = "Holiday " + i;
+            holiday.allDay = true;
+            holiday.startDay = firstDay + 5;
+            holiday.endDay = firstDay + 5;
+            holiday.endTime = 24 * 60;
+            events.add(holiday);
+        }
+
+        Event overnight = new Event();
+        overnight.id = id++;
+        overnight.title = "Release";
+        overnight.color = COLORS[0];
+        overnight.startDay = firstDay + 3;
+        overnight.endDay = firstDay + 4;
+        overnight.startTime = 22 * 60;
+        overnight.endTime = 2 * 60;
+        events.add(overnight);
+
+        Collections.sort(events);
+        Event.computePositions(events);
+        return events;
+    }
+
+    @MediumTest
+    public void testFullRedrawDoesNotAllocate() throws Throwable {
+        final WeekActivity activity = getActivity();
+        final int[] allocations = new int[1];
+        runTestOnUiThread(new Runnable() {
+            public void run() {
+                CalendarView view = (CalendarView) activity.mViewSwitcher.getCurrentView();
+                view.showEvents(createWeek(view.getFirstJulianDay()));
+                Bitmap bitmap = Bitmap.createBitmap(view.getWidth(), view.getHeight(),
+                        Bitmap.Config.RGB_565);
+                Canvas canvas = new Canvas(bitmap);
+
+                // The first draws lay out the events and fill the caches.
+                view.drawWholeDay(canvas);
+                view.drawWholeDay(canvas);
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                view.drawWholeDay(canvas);
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+                bitmap.recycle();
+            }
+        });
+        assertEquals("a full redraw allocated " + allocations[0] + " objects",
+                0, allocations[0]);
+    }
+
+    @MediumTest
+    public void testSelectionMoveRedrawsOnlyTheSelectedHour() throws Throwable {
+        final WeekActivity activity = getActivity();
+        runTestOnUiThread(new Runnable() {
+            public void run() {
+                // There are no events at 3am on the first two days.
+                RecordingView view = createView(activity, 3, true /* with events */);
+                assertTrue(pressKey(view, KeyEvent.KEYCODE_DPAD_RIGHT));
+
+                assertFalse(view.mInvalidatedAll);
+                int hourTop = view.getScreenY(view.getHourTop(3));
+                int hourBottom = view.getScreenY(view.getHourTop(4));
+                boolean sawHeaders = false;
+                boolean sawHour = false;
+                for (Rect dirty : view.mInvalidated) {
+                    assertEquals(0, dirty.left);
+                    assertEquals(view.getWidth(), dirty.right);
+                    if (dirty.top == 0) {
+                        // The day headers and all-day events above the grid.
+                        assertTrue(dirty.bottom <= hourTop);
+                        sawHeaders = true;
+                    } else {
+                        // The highlight reaches a pixel into the next hour.
+                        assertEquals(hourTop, dirty.top);
+                        assertTrue(dirty.bottom <= hourBottom + 2);
+                        sawHour = true;
+                    }
+                }
+                assertTrue(sawHeaders);
+                assertTrue(sawHour);
+            }
+        });
+    }
+
+    @MediumTest
+    public void testCurrentTimeTickRedrawsOnlyTheTimeLine() throws Throwable {
+        final WeekActivity activity = getActivity();
+        runTestOnUiThread(new Runnable() {
+            public void run() {
+                Time now = new Time();
+                now.setToNow();
+
+                // Selecting the current hour scrolls the time line on screen.
+                RecordingView view = createView(activity, now.hour, false /* no events */);
+                int lineBefore = view.getScreenY(view.getCurrentTimeLineY());
+                view.mUpdateCurrentTime.run();
+                int lineAfter = view.getScreenY(view.getCurrentTimeLineY());
+
+                assertFalse(view.mInvalidatedAll);
+                assertEquals(2, view.mInvalidated.size());
+                int hourHeight = view.getHourTop(1);
+                for (int i = 0; i < 2; i++) {
+                    Rect dirty = view.mInvalidated.get(i);
+                    int line = i == 0 ? lineBefore : lineAfter;
+                    assertEquals(0, dirty.left);
+                    assertEquals(view.getWidth(), dirty.right);
+                    assertTrue(dirty.top <= line && line < dirty.bottom);
+                    assertTrue(dirty.height() < hourHeight);
+                }
+            }
+        });
+    }
+
+    @MediumTest
+    public void testArrowKeyScrollRedrawsWholeGrid() throws Throwable {
+        final WeekActivity activity = getActivity();
+        runTestOnUiThread(new Runnable() {
+            public void run() {
+                RecordingView view = createView(activity, 0, false /* no events */);
+
+                // Move the selection down until the grid scrolls to keep it
+                // on screen.
+                boolean scrolled = false;
+                for (int hour = 1; hour < 24 && !scrolled; hour++) {
+                    int gridTop = view.getScreenY(0);
+                    view.reset();
+                    assertTrue(pressKey(view, KeyEvent.KEYCODE_DPAD_DOWN));
+                    scrolled = view.getScreenY(0) != gridTop;
+                    assertEquals("hour " + hour, scrolled, view.mInvalidatedAll);
+                }
+                assertTrue(scrolled);
+            }
+        });
+    }
+}
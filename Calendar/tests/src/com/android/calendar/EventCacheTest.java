@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Test class for verifying the ranges and event days kept by EventCache.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.EventCacheTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventCacheTest extends TestCase {
+
+    private static final int START_DAY = 2455000;
+    private static final int NUM_DAYS = 7;
+
+    // Three ranges of this many events do not fit in the cache, two do.
+    private static final int RANGE_SIZE = EventCache.MAX_CACHED_EVENTS * 2 / 5;
+
+    private static ArrayList<Event> createEvents(int firstId, int numEvents) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < numEvents; i++) {
+            Event e = new Event();
+            e.id = firstId + i;
+            e.title = "event " + e.id;
+            e.startDay = START_DAY + i % NUM_DAYS;
+            e.endDay = e.startDay;
+            e.startTime = 9 * 60;
+            e.endTime = 10 * 60;
+            events.add(e);
+        }
+        return events;
+    }
+
+    @SmallTest
+    public void testGetReturnsCopies() {
+        EventCache cache = new EventCache();
+        ArrayList<Event> events = createEvents(1, 20);
+        cache.put(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false, events,
+                cache.getGeneration());
+
+        ArrayList<Event> cached = new ArrayList<Event>();
+        assertTrue(cache.get(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false, cached));
+        assertEquals(events.size(), cached.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertNotSame(events.get(i), cached.get(i));
+            assertEquals(events.get(i).id, cached.get(i).id);
+            assertEquals(events.get(i).title, cached.get(i).title);
+        }
+
+        // What a view writes into its events does not reach the cache.
+        cached.get(0).title = "changed";
+        ArrayList<Event> again = new ArrayList<Event>();
+        assertTrue(cache.get(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false, again));
+        assertEquals("event 1", again.get(0).title);
+        Event.recycleEvents(cached);
+        Event.recycleEvents(again);
+    }
+
+    @SmallTest
+    public void testEvictsLeastRecentlyUsedAndRecyclesIt() {
+        EventCache cache = new EventCache();
+        int generation = cache.getGeneration();
+        cache.put(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false,
+                createEvents(0, RANGE_SIZE), generation);
+        cache.put(START_DAY + NUM_DAYS, NUM_DAYS, Event.PROFILE_GRID, false,
+                createEvents(RANGE_SIZE, RANGE_SIZE), generation);
+
+        // Using the first range makes the second the least recently used.
+        ArrayList<Event> used = new ArrayList<Event>();
+        assertTrue(cache.get(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false, used));
+
+        // Empty the pool so that it only holds what the eviction recycles.
+        ArrayList<Event> drained = new ArrayList<Event>();
+        while (Event.getPoolSize() > 0) {
+            drained.add(Event.obtain());
+        }
+
+        cache.put(START_DAY + 2 * NUM_DAYS, NUM_DAYS, Event.PROFILE_GRID, false,
+                createEvents(2 * RANGE_SIZE, RANGE_SIZE), generation);
+        assertEquals(RANGE_SIZE, Event.getPoolSize());
+
+        assertTrue(cache.contains(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false));
+        assertFalse(cache.contains(START_DAY + NUM_DAYS, NUM_DAYS, Event.PROFILE_GRID, false));
+        assertTrue(cache.contains(START_DAY + 2 * NUM_DAYS, NUM_DAYS, Event.PROFILE_GRID,
+                false));
+
+        Event.recycleEvents(used);
+        Event.recycleEvents(drained);
+    }
+
+    @SmallTest
+    public void testRangeLargerThanCacheIsNotStored() {
+        EventCache cache = new EventCache();
+        cache.put(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false,
+                createEvents(0, EventCache.MAX_CACHED_EVENTS + 1), cache.getGeneration());
+        assertFalse(cache.contains(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false));
+    }
+
+    @SmallTest
+    public void testPutFromBeforeClearIsDropped() {
+        EventCache cache = new EventCache();
+        int generation = cache.getGeneration();
+        BitSet eventDays = new BitSet();
+        eventDays.set(3);
+
+        // A load that started before the provider changed finishes after.
+        cache.clear();
+        cache.put(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false, createEvents(0, 5),
+                generation);
+        cache.putEventDays(START_DAY, 42, false, eventDays, generation);
+        assertFalse(cache.contains(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false));
+        assertFalse(cache.getEventDays(START_DAY, 42, false, new BitSet()));
+
+        // A load that started after it is kept.
+        generation = cache.getGeneration();
+        cache.put(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false, createEvents(0, 5),
+                generation);
+        cache.putEventDays(START_DAY, 42, false, eventDays, generation);
+        assertTrue(cache.contains(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false));
+        BitSet cached = new BitSet();
+        assertTrue(cache.getEventDays(START_DAY, 42, false, cached));
+        assertEquals(eventDays, cached);
+    }
+
+    @SmallTest
+    public void testProfileAndHideDeclinedAreSeparateKeys() {
+        EventCache cache = new EventCache();
+        int generation = cache.getGeneration();
+        cache.put(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false, createEvents(0, 5),
+                generation);
+        cache.put(START_DAY, NUM_DAYS, Event.PROFILE_GRID, true, createEvents(100, 3),
+                generation);
+
+        assertFalse(cache.contains(START_DAY, NUM_DAYS, Event.PROFILE_BUSY_BITS, false));
+        assertFalse(cache.contains(START_DAY, NUM_DAYS, Event.PROFILE_FULL, false));
+        ArrayList<Event> events = new ArrayList<Event>();
+        assertTrue(cache.get(START_DAY, NUM_DAYS, Event.PROFILE_GRID, false, events));
+        assertEquals(5, events.size());
+        assertTrue(cache.get(START_DAY, NUM_DAYS, Event.PROFILE_GRID, true, events));
+        assertEquals(3, events.size());
+        assertEquals(100, events.get(0).id);
+        Event.recycleEvents(events);
+
+        BitSet all = new BitSet();
+        all.set(0, 10);
+        BitSet notDeclined = new BitSet();
+        notDeclined.set(4);
+        cache.putEventDays(START_DAY, 42, false, all, generation);
+        assertFalse(cache.getEventDays(START_DAY, 42, true, new BitSet()));
+        cache.putEventDays(START_DAY, 42, true, notDeclined, generation);
+        BitSet cached = new BitSet();
+        assertTrue(cache.getEventDays(START_DAY, 42, false, cached));
+        assertEquals(all, cached);
+        assertTrue(cache.getEventDays(START_DAY, 42, true, cached));
+        assertEquals(notDeclined, cached);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test class for verifying the column layout of EventLayout.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.EventLayoutTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventLayoutTest extends TestCase {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static Event createEvent(int id, long startMinute, long endMinute, boolean allDay) {
+        Event e = new Event();
+        e.id = id;
+        e.allDay = allDay;
+        e.setStartMillis(startMinute * MINUTE);
+        e.setEndMillis(endMinute * MINUTE);
+        return e;
+    }
+
+    /**
+     * Creates events sorted by start time.  A small range of start times
+     * gives large overlap groups.
+     */
+    private static ArrayList<Event> createEvents(int numEvents, int range, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Event> events = new ArrayList<Event>(numEvents);
+        for (int i = 0; i < numEvents; i++) {
+            long start = random.nextInt(range);
+            long end = start + 1 + random.nextInt(120);
+            events.add(createEvent(i, start, end, random.nextInt(8) == 0));
+        }
+        Collections.sort(events, START_ORDER);
+        return events;
+    }
+
+    private static final Comparator<Event> START_ORDER = new Comparator<Event>() {
+        public int compare(Event a, Event b) {
+            long diff = a.getStartMillis() - b.getStartMillis();
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    };
+
+    /**
+     * The straightforward layout: scan every active event for each event
+     * and take the lowest column that none of them is using.
+     */
+    private static void computeReference(ArrayList<Event> events, boolean allDay,
+            int[] columns, int[] maxColumns) {
+        ArrayList<Integer> active = new ArrayList<Integer>();
+        ArrayList<Integer> group = new ArrayList<Integer>();
+        int maxCols = 0;
+        int numEvents = events.size();
+        for (int i = 0; i <= numEvents; i++) {
+            Event event = i < numEvents ? events.get(i) : null;
+            if (event != null && event.allDay != allDay) {
+                continue;
+            }
+            if (event != null) {
+                for (int j = active.size() - 1; j >= 0; j--) {
+                    if (events.get(active.get(j)).getEndMillis() <= event.getStartMillis()) {
+                        active.remove(j);
+                    }
+                }
+            }
+            if (event == null || active.isEmpty()) {
+                for (int g : group) {
+                    maxColumns[g] = maxCols;
+                }
+                group.clear();
+                maxCols = 0;
+            }
+            if (event == null) {
+                break;
+            }
+
+            int col = 0;
+            boolean taken = true;
+            while (taken) {
+                taken = false;
+                for (int a : active) {
+                    if (columns[a] == col) {
+                        taken = true;
+                        col++;
+                        break;
+                    }
+                }
+            }
+            columns[i] = col;
+            active.add(i);
+            group.add(i);
+            maxCols = Math.max(maxCols, active.size());
+        }
+    }
+
+    private static void assertMatchesReference(ArrayList<Event> events) {
+        int[] columns = new int[events.size()];
+        int[] maxColumns = new int[events.size()];
+        computeReference(events, false, columns, maxColumns);
+        computeReference(events, true, columns, maxColumns);
+
+        Event.computePositions(events);
+        for (int i = 0; i < events.size(); i++) {
+            Event e = events.get(i);
+            assertEquals("column of event " + e.id, columns[i], e.getColumn());
+            assertEquals("max columns of event " + e.id, maxColumns[i], e.getMaxColumns());
+        }
+    }
+
+    @SmallTest
+    public void testManySimultaneousEvents() {
+        // A shared room calendar with more bookings than the old 64-bit
+        // column mask could hold.
+        int numEvents = 150;
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < numEvents; i++) {
+            events.add(createEvent(i, 600, 660, false));
+        }
+
+        Event.computePositions(events);
+        for (int i = 0; i < numEvents; i++) {
+            assertEquals(i, events.get(i).getColumn());
+            assertEquals(numEvents, events.get(i).getMaxColumns());
+        }
+    }
+
+    @SmallTest
+    public void testFreedColumnsAreReused() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(createEvent(0, 0, 60, false));
+        events.add(createEvent(1, 0, 30, false));
+        events.add(createEvent(2, 0, 90, false));
+        events.add(createEvent(3, 30, 60, false));   // takes column 1
+        events.add(createEvent(4, 60, 90, false));   // takes column 0
+        events.add(createEvent(5, 120, 150, false)); // new group
+        events.add(createEvent(6, 0, 24 * 60, true));
+
+        Event.computePositions(events);
+        int[] columns = { 0, 1, 2, 1, 0, 0, 0 };
+        int[] maxColumns = { 3, 3, 3, 3, 3, 1, 1 };
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(columns[i], events.get(i).getColumn());
+            assertEquals(maxColumns[i], events.get(i).getMaxColumns());
+        }
+    }
+
+    @SmallTest
+    public void testMatchesReferenceLayout() {
+        // Sparse days, busy days, and days busier than 64 columns.
+        assertMatchesReference(createEvents(200, 24 * 60, 1));
+        assertMatchesReference(createEvents(200, 120, 2));
+        assertMatchesReference(createEvents(400, 30, 3));
+        for (int seed = 10; seed < 30; seed++) {
+            assertMatchesReference(createEvents(50, 300, seed));
+        }
+    }
+
+    @SmallTest
+    public void testChangedPositionsMatchFullLayout() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            ArrayList<Event> events = createEvents(100, 3 * 24 * 60, round);
+            Event.computePositions(events);
+
+            // Remove, move and add a few events.  The unchanged events keep
+            // the columns of the old layout.
+            HashSet<Long> changedIds = new HashSet<Long>();
+            ArrayList<Event> staleEvents = new ArrayList<Event>();
+            int numEdits = 1 + random.nextInt(5);
+            for (int edit = 0; edit < numEdits; edit++) {
+                int kind = random.nextInt(3);
+                if (kind == 0 && !events.isEmpty()) {
+                    staleEvents.add(events.remove(random.nextInt(events.size())));
+                } else if (kind == 1 && !events.isEmpty()) {
+                    int index = random.nextInt(events.size());
+                    Event old = events.get(index);
+                    long start = random.nextInt(3 * 24 * 60);
+                    Event moved = createEvent((int) old.id, start,
+                            start + 1 + random.nextInt(120), old.allDay);
+                    moved.setColumn(-1);
+                    events.set(index, moved);
+                    staleEvents.add(old);
+                    changedIds.add(old.id);
+                } else {
+                    long start = random.nextInt(3 * 24 * 60);
+                    Event added = createEvent(1000 + edit, start,
+                            start + 1 + random.nextInt(120), random.nextInt(8) == 0);
+                    added.setColumn(-1);
+                    events.add(added);
+                    changedIds.add(added.id);
+                }
+            }
+            Collections.sort(events, START_ORDER);
+
+            Event.computeChangedPositions(events, changedIds, staleEvents);
+            int[] columns = new int[events.size()];
+            int[] maxColumns = new int[events.size()];
+            for (int i = 0; i < events.size(); i++) {
+                columns[i] = events.get(i).getColumn();
+                maxColumns[i] = events.get(i).getMaxColumns();
+            }
+
+            Event.computePositions(events);
+            for (int i = 0; i < events.size(); i++) {
+                Event e = events.get(i);
+                assertEquals("round " + round + " column of event " + e.id,
+                        e.getColumn(), columns[i]);
+                assertEquals("round " + round + " max columns of event " + e.id,
+                        e.getMaxColumns(), maxColumns[i]);
+            }
+        }
+    }
+
+    @SmallTest
+    public void testChangedPositionsLeaveOtherGroups() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(createEvent(0, 0, 60, false));
+        events.add(createEvent(1, 30, 90, false));
+        events.add(createEvent(2, 600, 660, false));
+        events.add(createEvent(3, 630, 690, false));
+        Event.computePositions(events);
+
+        // Mark the morning group so that a recompute would show.
+        events.get(0).setMaxColumns(7);
+        events.get(1).setMaxColumns(7);
+
+        ArrayList<Event> staleEvents = new ArrayList<Event>();
+        staleEvents.add(events.remove(3));
+        HashSet<Long> changedIds = new HashSet<Long>();
+        Event.computeChangedPositions(events, changedIds, staleEvents);
+
+        assertEquals(7, events.get(0).getMaxColumns());
+        assertEquals(7, events.get(1).getMaxColumns());
+        assertEquals(0, events.get(2).getColumn());
+        assertEquals(1, events.get(2).getMaxColumns());
+    }
+
+    @SmallTest
+    public void testParallelMatchesSequential() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int seed = 0; seed < 10; seed++) {
+                // Two months of events, with some busy stretches.
+                ArrayList<Event> events = createEvents(2000, 60 * 24 * 60, seed);
+                events.addAll(createEvents(300, 120, seed + 100));
+                Collections.sort(events, START_ORDER);
+
+                Event.computePositions(events);
+                int[] columns = new int[events.size()];
+                int[] maxColumns = new int[events.size()];
+                for (int i = 0; i < events.size(); i++) {
+                    columns[i] = events.get(i).getColumn();
+                    maxColumns[i] = events.get(i).getMaxColumns();
+                    events.get(i).setColumn(-1);
+                    events.get(i).setMaxColumns(-1);
+                }
+
+                // From a few large runs down to a run per group.
+                int numPartitions = (seed % 2 == 0) ? 4 : events.size();
+                new EventLayout().computePositions(events, executor, numPartitions);
+                for (int i = 0; i < events.size(); i++) {
+                    Event e = events.get(i);
+                    assertEquals("column of event " + e.id, columns[i], e.getColumn());
+                    assertEquals("max columns of event " + e.id, maxColumns[i],
+                            e.getMaxColumns());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @SmallTest
+    public void testParallelOnlyForLongBusySpans() {
+        assertFalse(EventLayout.isWorthParallel(EventLayout.PARALLEL_MIN_EVENTS, 7));
+        assertFalse(EventLayout.isWorthParallel(10, 60));
+        assertEquals(EventLayout.NUM_CPUS > 1,
+                EventLayout.isWorthParallel(EventLayout.PARALLEL_MIN_EVENTS, 31));
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.Calendar.EventDays;
+import android.provider.Calendar.Instances;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.Time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for verifying the event-day bitsets built by EventLoader, and
+ * its prefetching of the ranges next to the one on screen.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.EventLoaderTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventLoaderTest extends AndroidTestCase {
+
+    private static final int START_DAY = 2455000;
+    private static final int NUM_DAYS = 7;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private LoadScheduler mScheduler;
+    private EventCache mCache;
+    private TestLoader mLoader;
+
+    /**
+     * Stands in for the calendar provider: every range loads a single
+     * event.  A load of the range starting at mBlockedStart waits until
+     * mRelease is counted down.
+     */
+    private class TestLoader extends EventLoader {
+        final List<Long> mLoads = Collections.synchronizedList(new ArrayList<Long>());
+        volatile long mBlockedStart = -1;
+        final CountDownLatch mBlocked = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+
+        TestLoader() {
+            super(getContext(), mScheduler, mCache, mHandler);
+        }
+
+        @Override
+        void loadEvents(ArrayList<Event> events, long startMillis, int numDays, int profile,
+                boolean computePositions, int id) {
+            mLoads.add(startMillis);
+            if (startMillis == mBlockedStart) {
+                mBlocked.countDown();
+                try {
+                    mRelease.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Fall through and finish.
+                }
+            }
+            Event.recycleEvents(events);
+            Event e = Event.obtain();
+            e.title = "loaded at " + startMillis;
+            events.add(e);
+        }
+
+        @Override
+        boolean isHideDeclined() {
+            return false;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("EventLoaderTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        // One worker, so that the lanes run strictly one request at a time.
+        mScheduler = new LoadScheduler(1);
+        mScheduler.start();
+        mCache = new EventCache();
+        mLoader = new TestLoader();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLoader.mRelease.countDown();
+        mScheduler.stop();
+        mThread.quit();
+        mCache.clear();
+        super.tearDown();
+    }
+
+    private static long startMillis(int julianDay) {
+        return new Time().setJulianDay(julianDay);
+    }
+
+    private boolean isCached(int startDay) {
+        return mCache.contains(startDay, NUM_DAYS, Event.PROFILE_GRID, false);
+    }
+
+    // The loader is only called from its handler's thread, as from the UI.
+    private void runOnHandler(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private void prefetchAround(final int startDay) throws InterruptedException {
+        runOnHandler(new Runnable() {
+            public void run() {
+                mLoader.prefetchEventsInBackground(NUM_DAYS, Event.PROFILE_GRID,
+                        startMillis(startDay - NUM_DAYS), startMillis(startDay + NUM_DAYS));
+            }
+        });
+    }
+
+    private CountDownLatch load(final ArrayList<Event> events, final int startDay)
+            throws InterruptedException {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        runOnHandler(new Runnable() {
+            public void run() {
+                mLoader.loadEventsInBackground(NUM_DAYS, Event.PROFILE_GRID, events,
+                        startMillis(startDay), new Runnable() {
+                            public void run() {
+                                loaded.countDown();
+                            }
+                        }, null);
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Waits until the prefetch delay has passed and every prefetch queued
+     * by then has finished or been skipped.  The prefetch lane runs its
+     * requests in order, so it is enough to queue one more and wait for it.
+     */
+    private void awaitPrefetches() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.postDelayed(new Runnable() {
+            public void run() {
+                mScheduler.queue(LoadScheduler.LANE_PREFETCH, new LoadScheduler.Request() {
+                    public void processRequest() {
+                        done.countDown();
+                    }
+
+                    public void skipRequest() {
+                        done.countDown();
+                    }
+                });
+            }
+        }, EventLoader.PREFETCH_DELAY_MILLIS);
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static MatrixCursor createEventDaysCursor(int[][] spans) {
+        MatrixCursor c = new MatrixCursor(new String[] { EventDays.STARTDAY, EventDays.ENDDAY });
+        for (int[] span : spans) {
+            c.addRow(new Object[] { span[0], span[1] });
+        }
+        return c;
+    }
+
+    @SmallTest
+    public void testReadEventDaysForMonthGrid() {
+        MatrixCursor c = createEventDaysCursor(new int[][] {
+                { START_DAY - 3, START_DAY + 1 },    // starts before the grid
+                { START_DAY + 10, START_DAY + 10 },
+                { START_DAY + 35, START_DAY + 35 },  // past the old 31-day limit
+                { START_DAY + 40, START_DAY + 50 },  // ends after the grid
+        });
+        BitSet eventDays = new BitSet();
+        eventDays.set(20);  // left over from a previous span
+
+        EventLoader.readEventDays(c, START_DAY, 42, eventDays);
+        c.close();
+
+        BitSet expected = new BitSet();
+        expected.set(0, 2);
+        expected.set(10);
+        expected.set(35);
+        expected.set(40, 42);
+        assertEquals(expected, eventDays);
+    }
+
+    @SmallTest
+    public void testReadEventDaysForYear() {
+        MatrixCursor c = createEventDaysCursor(new int[][] {
+                { START_DAY, START_DAY },
+                { START_DAY + 200, START_DAY + 202 },
+                { START_DAY + 364, START_DAY + 400 },
+                { START_DAY + 500, START_DAY + 500 },  // outside the span
+        });
+        BitSet eventDays = new BitSet();
+
+        EventLoader.readEventDays(c, START_DAY, 365, eventDays);
+        c.close();
+
+        assertEquals(5, eventDays.cardinality());
+        assertTrue(eventDays.get(0));
+        assertTrue(eventDays.get(201));
+        assertTrue(eventDays.get(364));
+        assertEquals(365, eventDays.length());
+    }
+
+    @SmallTest
+    public void testReadEventDaysFromInstanceColumns() {
+        // The instances queried when declined events are hidden, one row
+        // per instance, with the days in the columns given.
+        MatrixCursor c = new MatrixCursor(new String[] {
+                Instances.START_DAY, Instances.END_DAY });
+        c.addRow(new Object[] { START_DAY - 1, START_DAY - 1 });  // the day widening adds
+        c.addRow(new Object[] { START_DAY + 3, START_DAY + 4 });
+        c.addRow(new Object[] { START_DAY + 3, START_DAY + 3 });
+        BitSet eventDays = new BitSet();
+
+        EventLoader.readEventDays(c, 0, 1, START_DAY, 42, eventDays);
+        c.close();
+
+        BitSet expected = new BitSet();
+        expected.set(3, 5);
+        assertEquals(expected, eventDays);
+    }
+
+    @MediumTest
+    public void testPrefetchFillsCacheWithPreviousAndNextRanges() throws Exception {
+        prefetchAround(START_DAY);
+        awaitPrefetches();
+
+        assertTrue(isCached(START_DAY - NUM_DAYS));
+        assertTrue(isCached(START_DAY + NUM_DAYS));
+
+        // The next range is fetched first.
+        assertEquals(Arrays.asList(startMillis(START_DAY + NUM_DAYS),
+                startMillis(START_DAY - NUM_DAYS)), mLoader.mLoads);
+    }
+
+    @MediumTest
+    public void testVisibleLoadAbandonsPendingPrefetch() throws Exception {
+        // The user moves on before the prefetch delay has passed.
+        prefetchAround(START_DAY);
+        ArrayList<Event> events = new ArrayList<Event>();
+        CountDownLatch loaded = load(events, START_DAY + 2 * NUM_DAYS);
+        assertTrue(loaded.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitPrefetches();
+
+        assertEquals(Arrays.asList(startMillis(START_DAY + 2 * NUM_DAYS)), mLoader.mLoads);
+        assertFalse(isCached(START_DAY - NUM_DAYS));
+        assertFalse(isCached(START_DAY + NUM_DAYS));
+        Event.recycleEvents(events);
+    }
+
+    @MediumTest
+    public void testStalePrefetchDoesNotWriteToCache() throws Exception {
+        long nextStart = startMillis(START_DAY + NUM_DAYS);
+        mLoader.mBlockedStart = nextStart;
+        prefetchAround(START_DAY);
+        assertTrue(mLoader.mBlocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // A visible load is made while the prefetch of the next range is
+        // reading from the provider.
+        ArrayList<Event> events = new ArrayList<Event>();
+        CountDownLatch loaded = load(events, START_DAY + 2 * NUM_DAYS);
+        mLoader.mRelease.countDown();
+        assertTrue(loaded.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitPrefetches();
+
+        assertFalse(isCached(START_DAY + NUM_DAYS));
+        assertTrue(isCached(START_DAY + 2 * NUM_DAYS));
+
+        // The previous range was queued before the visible load and then
+        // skipped without loading.
+        assertFalse(isCached(START_DAY - NUM_DAYS));
+        assertEquals(Arrays.asList(nextStart, startMillis(START_DAY + 2 * NUM_DAYS)),
+                mLoader.mLoads);
+        Event.recycleEvents(events);
+    }
+}
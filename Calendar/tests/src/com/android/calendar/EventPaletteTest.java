@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.os.Debug;
+import android.provider.Calendar.Attendees;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Test class for verifying the colors kept by EventPalette.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.EventPaletteTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventPaletteTest extends TestCase {
+
+    @SmallTest
+    public void testDeclinedColor() {
+        assertEquals(0xff7f7f7f, EventPalette.computeDeclinedColor(0xff000000));
+        assertEquals(0xfffefefe, EventPalette.computeDeclinedColor(0xffffffff));
+        assertEquals(0x80fe7f7f, EventPalette.computeDeclinedColor(0x80ff0000));
+    }
+
+    @SmallTest
+    public void testColorsMatchComputed() {
+        Random random = new Random(1);
+        EventPalette palette = new EventPalette();
+        float[] hsv = new float[3];
+        for (int i = 0; i < 200; i++) {
+            int color = 0xff000000 | random.nextInt(8) * 0x1f3f5f;
+            assertEquals(color, palette.getFillColor(color, false));
+            int declined = EventPalette.computeDeclinedColor(color);
+            assertEquals(declined, palette.getFillColor(color, true));
+            assertEquals(EventPalette.computeBorderColor(color, hsv),
+                    palette.getBorderColor(color));
+            assertEquals(EventPalette.computeBorderColor(declined, hsv),
+                    palette.getBorderColor(declined));
+        }
+    }
+
+    @SmallTest
+    public void testLookupsAfterAddColorsDoNotAllocate() {
+        int[] colors = { 0xff3366cc, 0xffdc3912, 0xff109618, 0xffff9900 };
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 40; i++) {
+            Event e = new Event();
+            e.id = i;
+            e.startDay = 2455000 + i % 7;
+            e.endDay = e.startDay;
+            e.color = colors[i % colors.length];
+            if (i % 3 == 0) {
+                e.selfAttendeeStatus = Attendees.ATTENDEE_STATUS_DECLINED;
+            }
+            events.add(e);
+        }
+        EventStore store = new EventStore();
+        store.set(events, 2455000, 7);
+        EventPalette palette = new EventPalette();
+        palette.addColors(store);
+        palette.addColor(0xff33b5e5);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < store.size(); i++) {
+            boolean declined = store.selfAttendeeStatus[i] == Attendees.ATTENDEE_STATUS_DECLINED;
+            palette.getBorderColor(palette.getFillColor(store.color[i], declined));
+        }
+        palette.getBorderColor(0xff33b5e5);
+        Debug.stopAllocCounting();
+        assertEquals(0, Debug.getThreadAllocCount());
+    }
+}
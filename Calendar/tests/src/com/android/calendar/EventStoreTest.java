@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Test class for verifying the per-day index and rectangles of EventStore.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.EventStoreTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventStoreTest extends TestCase {
+
+    private static final int GRID_START_DAY = 2455000;
+    private static final int GRID_NUM_DAYS = 42;
+
+    // A very busy month.
+    private static final int BUSY_NUM_EVENTS = 5000;
+
+    /**
+     * Creates events spread over the grid and a week on either side.  About
+     * one in ten is an all-day event and one in twenty spans several days.
+     */
+    private static ArrayList<Event> createEvents(int numEvents, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Event> events = new ArrayList<Event>(numEvents);
+        for (int i = 0; i < numEvents; i++) {
+            Event e = new Event();
+            e.id = i;
+            e.startDay = GRID_START_DAY - 7 + random.nextInt(GRID_NUM_DAYS + 14);
+            e.endDay = e.startDay;
+            if (random.nextInt(20) == 0) {
+                e.endDay += 1 + random.nextInt(10);
+            }
+            if (random.nextInt(10) == 0) {
+                e.allDay = true;
+                e.startTime = 0;
+                e.endTime = 24 * 60;
+            } else {
+                e.startTime = random.nextInt(24 * 60);
+                e.endTime = Math.min(e.startTime + 15 * (1 + random.nextInt(8)), 24 * 60);
+                if (e.endDay > e.startDay) {
+                    e.endTime = random.nextInt(24 * 60);
+                }
+            }
+            events.add(e);
+        }
+        return events;
+    }
+
+    @SmallTest
+    public void testEventsOnMatchesScan() {
+        ArrayList<Event> events = createEvents(300, 1);
+        EventStore store = new EventStore();
+        store.set(events, GRID_START_DAY, GRID_NUM_DAYS);
+
+        for (int day = GRID_START_DAY; day < GRID_START_DAY + GRID_NUM_DAYS; day++) {
+            int count = store.eventsOn(day);
+            int expected = 0;
+            for (int i = 0; i < events.size(); i++) {
+                Event e = events.get(i);
+                if (e.startDay <= day && e.endDay >= day) {
+                    assertTrue(expected < count);
+                    assertSame(e, store.getEvent(store.hits[expected]));
+                    expected++;
+                }
+            }
+            assertEquals(expected, count);
+        }
+
+        // Days outside the indexed span have no events.
+        assertEquals(0, store.eventsOn(GRID_START_DAY - 1));
+        assertEquals(0, store.eventsOn(GRID_START_DAY + GRID_NUM_DAYS));
+    }
+
+    @SmallTest
+    public void testEventsOverlappingMatchesIntersects() {
+        ArrayList<Event> events = createEvents(300, 2);
+        EventStore store = new EventStore();
+        store.set(events, GRID_START_DAY, GRID_NUM_DAYS);
+
+        for (int day = GRID_START_DAY; day < GRID_START_DAY + GRID_NUM_DAYS; day++) {
+            for (int hour = 0; hour < 24; hour++) {
+                int startMinute = hour * 60;
+                int endMinute = startMinute + 60;
+                int count = store.eventsOverlapping(day, startMinute, endMinute);
+                int expected = 0;
+                for (int i = 0; i < events.size(); i++) {
+                    Event e = events.get(i);
+                    if (e.intersects(day, startMinute, endMinute)) {
+                        assertTrue(expected < count);
+                        assertSame(e, store.getEvent(store.hits[expected]));
+                        assertEquals(store.hits[expected],
+                                store.eventAt(store.hitEntries[expected]));
+                        expected++;
+                    }
+                }
+                assertEquals(expected, count);
+            }
+        }
+        assertEquals(0, store.eventsOverlapping(GRID_START_DAY - 1, 0, 24 * 60));
+    }
+
+    @SmallTest
+    public void testRefillKeepsSpan() {
+        EventStore store = new EventStore();
+        store.set(createEvents(300, 3), GRID_START_DAY, GRID_NUM_DAYS);
+
+        ArrayList<Event> events = createEvents(10, 4);
+        store.set(events);
+        int total = 0;
+        for (int day = GRID_START_DAY; day < GRID_START_DAY + GRID_NUM_DAYS; day++) {
+            int count = store.eventsOn(day);
+            for (int h = 0; h < count; h++) {
+                assertTrue(store.hits[h] < events.size());
+            }
+            total += count;
+        }
+        assertTrue(total > 0);
+    }
+
+    @SmallTest
+    public void testDayRectsMatchPerDayGeometry() {
+        ArrayList<Event> events = createEvents(300, 5);
+        Event.computePositions(events);
+        EventStore store = new EventStore();
+        store.set(events, GRID_START_DAY, GRID_NUM_DAYS);
+        EventGeometry geometry = new EventGeometry();
+        geometry.setHourGap(1);
+        geometry.setHourHeight(40);
+        geometry.setMinEventHeight(15);
+
+        assertFalse(store.areDayRectsValid());
+        store.computeDayRects(geometry, 30, 61, 1, 60);
+        assertTrue(store.areDayRectsValid());
+
+        // Every timed entry has the rectangle of its event on that day,
+        // which differs from day to day for an event spanning several.
+        Event drawn = new Event();
+        for (int day = GRID_START_DAY; day < GRID_START_DAY + GRID_NUM_DAYS; day++) {
+            int left = 30 + (day - GRID_START_DAY) * 61;
+            for (int p = store.dayStart(day); p < store.dayEnd(day); p++) {
+                Event e = store.getEvent(store.eventAt(p));
+                assertEquals(!e.allDay, store.hasDayRect(p));
+                if (e.allDay) {
+                    continue;
+                }
+                assertTrue(geometry.computeEventRect(day, left, 1, 60, e));
+                store.copyDayRectTo(p, drawn);
+                assertEquals(e.left, drawn.left);
+                assertEquals(e.top, drawn.top);
+                assertEquals(e.right, drawn.right);
+                assertEquals(e.bottom, drawn.bottom);
+            }
+        }
+
+        // Refilling or a geometry change needs the pass again.
+        store.set(events);
+        assertFalse(store.areDayRectsValid());
+        store.computeDayRects(geometry, 30, 61, 1, 60);
+        store.invalidateDayRects();
+        assertFalse(store.areDayRectsValid());
+    }
+
+    /**
+     * Checks that the month grid's 42 per-cell lookups find the same events
+     * as scanning all the events for every cell, as the draw loops used to.
+     * How much faster they are is measured by EventStoreBenchmark.
+     */
+    @MediumTest
+    public void testMonthGridLookupsMatchScan() {
+        ArrayList<Event> events = createEvents(BUSY_NUM_EVENTS, 5);
+        EventStore store = new EventStore();
+        store.set(events, GRID_START_DAY, GRID_NUM_DAYS);
+        int numEvents = store.size();
+
+        for (int day = GRID_START_DAY; day < GRID_START_DAY + GRID_NUM_DAYS; day++) {
+            int scanFound = 0;
+            for (int i = 0; i < numEvents; i++) {
+                if (store.startDay[i] <= day && store.endDay[i] >= day) {
+                    scanFound++;
+                }
+            }
+            int indexFound = 0;
+            int count = store.eventsOn(day);
+            int[] hits = store.hits;
+            for (int h = 0; h < count; h++) {
+                if (store.startDay[hits[h]] <= day && store.endDay[hits[h]] >= day) {
+                    indexFound++;
+                }
+            }
+            assertEquals(scanFound, indexFound);
+            assertEquals(scanFound, count);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for verifying the loading and merging helpers in Event.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.EventTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventTest extends TestCase {
+
+    private static final int START_DAY = 2455000;
+
+    private static final String NO_TITLE = "(No title)";
+    private static final int DEFAULT_COLOR = 0xff0000ff;
+
+    // A steady-state reload may allocate a handful of objects for the
+    // cursor and the list, but nothing per row.
+    private static final int MAX_RELOAD_ALLOCATIONS = 16;
+
+    // The sequence number used by loads that are never cancelled.
+    private static final int REQUEST_ID = 1;
+    private static final AtomicInteger sNeverCancelled = new AtomicInteger(REQUEST_ID);
+
+    private static Event createEvent(long id, int day, int startMinute, int endMinute,
+            String title) {
+        Event e = new Event();
+        e.id = id;
+        e.title = title;
+        e.startDay = day;
+        e.endDay = day;
+        e.startTime = startMinute;
+        e.endTime = endMinute;
+        e.startMillis = (day - START_DAY) * 24L * 60 * 60 * 1000 + startMinute * 60L * 1000;
+        e.endMillis = (day - START_DAY) * 24L * 60 * 60 * 1000 + endMinute * 60L * 1000;
+        return e;
+    }
+
+    private static ArrayList<Event> createWeek() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(createEvent(1, START_DAY, 9 * 60, 10 * 60, "standup"));
+        events.add(createEvent(2, START_DAY + 1, 12 * 60, 13 * 60, "lunch"));
+        events.add(createEvent(1, START_DAY + 2, 9 * 60, 10 * 60, "standup"));
+        events.add(createEvent(3, START_DAY + 4, 15 * 60, 16 * 60, "review"));
+        return events;
+    }
+
+    @SmallTest
+    public void testMergeUnchangedKeepsDisplayedEvents() {
+        ArrayList<Event> current = createWeek();
+        ArrayList<Event> loaded = createWeek();
+        int[] changedDays = new int[2];
+
+        assertEquals(0, Event.mergeEvents(current, loaded, changedDays));
+        assertEquals(current.size(), loaded.size());
+        for (int i = 0; i < current.size(); i++) {
+            assertSame(current.get(i), loaded.get(i));
+        }
+    }
+
+    @SmallTest
+    public void testMergeChangedInstance() {
+        ArrayList<Event> current = createWeek();
+        ArrayList<Event> loaded = createWeek();
+        loaded.get(3).title = "design review";
+        int[] changedDays = new int[2];
+
+        assertEquals(1, Event.mergeEvents(current, loaded, changedDays));
+        assertEquals(START_DAY + 4, changedDays[0]);
+        assertEquals(START_DAY + 4, changedDays[1]);
+        assertSame(current.get(0), loaded.get(0));
+        assertNotSame(current.get(3), loaded.get(3));
+        assertEquals("design review", loaded.get(3).title);
+    }
+
+    @SmallTest
+    public void testMergeAddedAndRemovedInstances() {
+        ArrayList<Event> current = createWeek();
+        ArrayList<Event> loaded = createWeek();
+
+        // Remove the second standup and add a new event on another day.
+        loaded.remove(2);
+        loaded.add(createEvent(4, START_DAY + 5, 18 * 60, 19 * 60, "dinner"));
+        int[] changedDays = new int[2];
+
+        assertEquals(2, Event.mergeEvents(current, loaded, changedDays));
+        assertEquals(START_DAY + 2, changedDays[0]);
+        assertEquals(START_DAY + 5, changedDays[1]);
+        assertSame(current.get(0), loaded.get(0));
+        assertSame(current.get(3), loaded.get(2));
+    }
+
+    @SmallTest
+    public void testMergeLaysOutLoadedEventsThatWereNotLaidOut() {
+        ArrayList<Event> current = createWeek();
+        Event.computePositions(current);
+
+        // Reloads for a merge are not laid out.  An event added over the
+        // lunch has to push it into a column of its own.
+        ArrayList<Event> loaded = createWeek();
+        loaded.add(2, createEvent(5, START_DAY + 1, 12 * 60 + 30, 14 * 60, "call"));
+        ArrayList<Event> expected = createWeek();
+        expected.add(2, createEvent(5, START_DAY + 1, 12 * 60 + 30, 14 * 60, "call"));
+        Event.computePositions(expected);
+
+        assertEquals(1, Event.mergeEvents(current, loaded, null));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getColumn(), loaded.get(i).getColumn());
+            assertEquals(expected.get(i).getMaxColumns(), loaded.get(i).getMaxColumns());
+        }
+        assertEquals(2, loaded.get(1).getMaxColumns());
+    }
+
+    @SmallTest
+    public void testMergeIntoEmptyList() {
+        ArrayList<Event> loaded = createWeek();
+        assertEquals(loaded.size(), Event.mergeEvents(null, loaded, null));
+    }
+
+    /**
+     * Creates a cursor with the same columns as an Instances query, holding
+     * numRows timed events spread over a week.
+     */
+    private static MatrixCursor createInstancesCursor(int numRows) {
+        MatrixCursor c = new MatrixCursor(Event.PROJECTION);
+        addInstanceRows(c, numRows);
+        return c;
+    }
+
+    private static void addInstanceRows(MatrixCursor c, int numRows) {
+        for (int i = 0; i < numRows; i++) {
+            int day = START_DAY + i % 7;
+            int startMinute = (i * 37) % (23 * 60);
+            long startMillis = (day - START_DAY) * 24L * 60 * 60 * 1000
+                    + startMinute * 60L * 1000;
+            c.addRow(new Object[] {
+                    0,                                   // all day
+                    (long) i,                            // event id
+                    startMillis,                         // begin
+                    startMillis + 30 * 60 * 1000,        // end
+                    day,                                 // start day
+                    day,                                 // end day
+                    startMinute,                         // start minute
+                    startMinute + 30,                    // end minute
+                    0,                                   // self attendee status
+                    (i % 5 == 0) ? null : "event " + i,  // title
+                    "room " + (i % 3),                   // location
+                    (i % 2 == 0) ? null : 0xffff0000,    // color
+                    (i % 4 == 0) ? 1 : 0,                // has alarm
+                    (i % 3 == 0) ? "FREQ=WEEKLY" : null, // rrule
+                    null,                                // rdate
+                    "owner@example.com",                 // organizer
+                    1,                                   // guests can modify
+            });
+        }
+    }
+
+    private static void reload(MatrixCursor c, ArrayList<Event> events) {
+        reload(c, events, Event.PROFILE_FULL);
+    }
+
+    private static void reload(MatrixCursor c, ArrayList<Event> events, int profile) {
+        Event.recycleEvents(events);
+        c.moveToPosition(-1);
+        assertTrue(Event.readEvents(c, events, profile, START_DAY, START_DAY + 7, NO_TITLE,
+                DEFAULT_COLOR, REQUEST_ID, sNeverCancelled));
+        Event.computePositions(events);
+    }
+
+    @SmallTest
+    public void testReadEvents() {
+        MatrixCursor c = createInstancesCursor(20);
+        ArrayList<Event> events = new ArrayList<Event>();
+        reload(c, events);
+        c.close();
+
+        assertEquals(20, events.size());
+        assertEquals(NO_TITLE, events.get(0).title);
+        assertEquals(DEFAULT_COLOR, events.get(0).color);
+        assertEquals("event 1", events.get(1).title);
+        assertEquals(0xffff0000, events.get(1).color);
+        assertEquals(START_DAY + 1, events.get(1).startDay);
+        assertTrue(events.get(0).hasAlarm);
+        assertTrue(events.get(0).isRepeating);
+        assertEquals("owner@example.com", events.get(1).organizer);
+        assertEquals(Event.PROFILE_FULL, events.get(1).getProfile());
+    }
+
+    @SmallTest
+    public void testReadEventsWithSmallerProfiles() {
+        MatrixCursor c = createInstancesCursor(20);
+        ArrayList<Event> events = new ArrayList<Event>();
+
+        reload(c, events, Event.PROFILE_GRID);
+        Event e = events.get(1);
+        assertEquals(Event.PROFILE_GRID, e.getProfile());
+        assertEquals("event 1", e.title);
+        assertEquals(0xffff0000, e.color);
+        assertNull(e.organizer);
+
+        // The day and week popup shows the alarm and repeat icons.
+        assertTrue(events.get(0).hasAlarm);
+        assertTrue(events.get(0).isRepeating);
+
+        reload(c, events, Event.PROFILE_BUSY_BITS);
+        c.close();
+        e = events.get(1);
+        assertEquals(Event.PROFILE_BUSY_BITS, e.getProfile());
+
+        // The month popup shows the title.
+        assertEquals("event 1", e.title);
+        assertEquals(NO_TITLE, events.get(0).title);
+        assertNull(e.location);
+        assertFalse(events.get(0).hasAlarm);
+        assertEquals(START_DAY + 1, e.startDay);
+        assertEquals(37, e.startTime);
+        assertEquals(67, e.endTime);
+    }
+
+    @SmallTest
+    public void testMergeIgnoresDetailsLoadedSinceLastLoad() {
+        MatrixCursor c = createInstancesCursor(20);
+        ArrayList<Event> current = new ArrayList<Event>();
+
+        // As if loadDetails() was called on every displayed event.
+        reload(c, current, Event.PROFILE_FULL);
+        Event shown = current.get(3);
+
+        ArrayList<Event> loaded = new ArrayList<Event>();
+        reload(c, loaded, Event.PROFILE_GRID);
+        c.close();
+
+        assertEquals(0, Event.mergeEvents(current, loaded, null));
+        assertSame(shown, loaded.get(3));
+        assertEquals(Event.PROFILE_GRID, shown.getProfile());
+        assertNull(shown.organizer);
+    }
+
+    @SmallTest
+    public void testRecycledEventsAreReused() {
+        MatrixCursor c = createInstancesCursor(20);
+        ArrayList<Event> events = new ArrayList<Event>();
+        reload(c, events);
+        ArrayList<Event> first = new ArrayList<Event>(events);
+
+        reload(c, events);
+        c.close();
+
+        assertEquals(first.size(), events.size());
+        for (Event e : events) {
+            assertTrue(first.contains(e));
+        }
+    }
+
+    @SmallTest
+    public void testSteadyStateReloadAllocations() {
+        MatrixCursor c = createInstancesCursor(200);
+        ArrayList<Event> events = new ArrayList<Event>();
+
+        // Fill the pool and grow the list to its final size.
+        reload(c, events);
+        reload(c, events);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        reload(c, events);
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+        c.close();
+
+        assertEquals(200, events.size());
+        assertTrue("reload allocated " + allocations + " objects",
+                allocations <= MAX_RELOAD_ALLOCATIONS);
+    }
+
+    /**
+     * An instances cursor that counts the rows read and, optionally, makes a
+     * newer load request once a given number of rows have been read.
+     */
+    private static class CountingCursor extends MatrixCursor {
+        private final AtomicInteger mSequenceNumber;
+        private final int mNewRequestAtRow;
+        int mRowsRead;
+
+        CountingCursor(int numRows, AtomicInteger sequenceNumber, int newRequestAtRow) {
+            super(Event.PROJECTION);
+            mSequenceNumber = sequenceNumber;
+            mNewRequestAtRow = newRequestAtRow;
+            addInstanceRows(this, numRows);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            if (mRowsRead == mNewRequestAtRow) {
+                mSequenceNumber.incrementAndGet();
+            }
+            boolean hasNext = super.moveToNext();
+            if (hasNext) {
+                mRowsRead++;
+            }
+            return hasNext;
+        }
+    }
+
+    @SmallTest
+    public void testReadEventsStopsWhenNewerRequestArrives() {
+        AtomicInteger sequenceNumber = new AtomicInteger(REQUEST_ID);
+        CountingCursor c = new CountingCursor(500, sequenceNumber, 100);
+        ArrayList<Event> events = new ArrayList<Event>();
+
+        assertFalse(Event.readEvents(c, events, Event.PROFILE_FULL, START_DAY, START_DAY + 7,
+                NO_TITLE, DEFAULT_COLOR, REQUEST_ID, sequenceNumber));
+        assertTrue("read " + c.mRowsRead + " rows",
+                c.mRowsRead <= 100 + Event.CANCEL_CHECK_INTERVAL);
+        c.close();
+        Event.recycleEvents(events);
+    }
+
+    @SmallTest
+    public void testBurstOfRequestsOnlyReadsTheLast() {
+        final int numRequests = 10;
+        final int numRows = 300;
+
+        // All the requests are made before the loader gets to any of them,
+        // as when the user flings through several weeks.
+        AtomicInteger sequenceNumber = new AtomicInteger();
+        int[] ids = new int[numRequests];
+        for (int i = 0; i < numRequests; i++) {
+            ids[i] = sequenceNumber.incrementAndGet();
+        }
+
+        int totalRowsRead = 0;
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < numRequests; i++) {
+            CountingCursor c = new CountingCursor(numRows, sequenceNumber, -1);
+            boolean complete = Event.readEvents(c, events, Event.PROFILE_FULL, START_DAY,
+                    START_DAY + 7, NO_TITLE, DEFAULT_COLOR, ids[i], sequenceNumber);
+            assertEquals(i == numRequests - 1, complete);
+            totalRowsRead += c.mRowsRead;
+            c.close();
+            if (!complete) {
+                assertEquals(0, events.size());
+            }
+        }
+
+        // The stale requests each read only the row before their first check.
+        assertEquals(numRows + numRequests - 1, totalRowsRead);
+        assertEquals(numRows, events.size());
+        Event.recycleEvents(events);
+    }
+
+    @SmallTest
+    public void testDrawTextIsSanitizedOnce() {
+        // Only events taken from the pool are given back to it.
+        Event e = Event.obtain();
+        e.title = "Lunch\t at\nnoon\n";
+        e.location = "cafe";
+        assertEquals("Lunch  at noon, cafe", e.getDrawText());
+        assertSame(e.getDrawText(), e.getDrawText());
+
+        // Copies share the text; a recycled event computes it again.
+        Event copy = new Event();
+        e.copyTo(copy);
+        assertSame(e.getDrawText(), copy.getDrawText());
+        e.recycle();
+        Event other = Event.obtain();
+        other.title = "Review";
+        assertEquals("Review", other.getDrawText());
+        other.recycle();
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.provider.Calendar.Attendees;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Test class for verifying the busy time computed by FreeBusy against a
+ * minute-by-minute reference.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.FreeBusyTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class FreeBusyTest extends TestCase {
+
+    private static final int FIRST_DAY = 2455000;
+    private static final int NUM_DAYS = 7;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * Creates events over the week and a couple of days before it, some
+     * declined, some all-day, some spanning midnight and a few empty.
+     */
+    private static ArrayList<Event> createEvents(Random random, int numEvents) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < numEvents; i++) {
+            Event e = new Event();
+            e.id = i;
+            e.allDay = random.nextInt(10) == 0;
+            e.startDay = FIRST_DAY - 2 + random.nextInt(NUM_DAYS + 2);
+            e.endDay = e.startDay + (random.nextInt(8) == 0 ? 1 + random.nextInt(3) : 0);
+            if (e.allDay) {
+                e.startTime = 0;
+                e.endTime = MINUTES_PER_DAY;
+            } else {
+                e.startTime = random.nextInt(24) * 60 + random.nextInt(4) * 15;
+                e.endTime = e.endDay > e.startDay ? random.nextInt(MINUTES_PER_DAY)
+                        : Math.min(e.startTime + random.nextInt(8) * 15, MINUTES_PER_DAY);
+            }
+            if (random.nextInt(6) == 0) {
+                e.selfAttendeeStatus = Attendees.ATTENDEE_STATUS_DECLINED;
+            }
+            events.add(e);
+        }
+        Collections.sort(events);
+        return events;
+    }
+
+    /**
+     * Marks every busy minute of the week, one event at a time.
+     */
+    private static boolean[][] referenceBusy(ArrayList<Event> events) {
+        return referenceBusy(events, false);
+    }
+
+    private static boolean[][] referenceBusy(ArrayList<Event> events, boolean declinedBusy) {
+        boolean[][] busy = new boolean[NUM_DAYS][MINUTES_PER_DAY];
+        for (Event e : events) {
+            if (e.allDay || (!declinedBusy
+                    && e.selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED)) {
+                continue;
+            }
+            for (int day = e.startDay; day <= e.endDay; day++) {
+                int d = day - FIRST_DAY;
+                if (d < 0 || d >= NUM_DAYS) {
+                    continue;
+                }
+                int start = day == e.startDay ? e.startTime : 0;
+                int end = day == e.endDay ? e.endTime : MINUTES_PER_DAY;
+                for (int m = start; m < end; m++) {
+                    busy[d][m] = true;
+                }
+            }
+        }
+        return busy;
+    }
+
+    /**
+     * Checks that exactly the days with an all-day event the user has not
+     * declined are marked as having one.
+     */
+    private static void assertAllDayMatches(ArrayList<Event> events, FreeBusy freeBusy) {
+        assertAllDayMatches(events, freeBusy, false);
+    }
+
+    private static void assertAllDayMatches(ArrayList<Event> events, FreeBusy freeBusy,
+            boolean declinedBusy) {
+        boolean[] allDay = new boolean[NUM_DAYS];
+        for (Event e : events) {
+            if (!e.allDay || (!declinedBusy
+                    && e.selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED)) {
+                continue;
+            }
+            for (int day = Math.max(e.startDay, FIRST_DAY);
+                    day <= Math.min(e.endDay, FIRST_DAY + NUM_DAYS - 1); day++) {
+                allDay[day - FIRST_DAY] = true;
+            }
+        }
+        for (int d = 0; d < NUM_DAYS; d++) {
+            assertEquals("day " + d, allDay[d], freeBusy.hasAllDay(FIRST_DAY + d));
+        }
+        assertFalse(freeBusy.hasAllDay(FIRST_DAY - 1));
+        assertFalse(freeBusy.hasAllDay(FIRST_DAY + NUM_DAYS));
+    }
+
+    private static void assertMatches(boolean[][] busy, FreeBusy freeBusy) {
+        for (int d = 0; d < NUM_DAYS; d++) {
+            int day = FIRST_DAY + d;
+
+            // The intervals are sorted, disjoint and not touching, and
+            // cover exactly the busy minutes.
+            boolean[] covered = new boolean[MINUTES_PER_DAY];
+            int count = freeBusy.getNumIntervals(day);
+            for (int k = 0; k < count; k++) {
+                int start = freeBusy.getStart(day, k);
+                int end = freeBusy.getEnd(day, k);
+                assertTrue(start < end);
+                if (k > 0) {
+                    assertTrue(freeBusy.getEnd(day, k - 1) < start);
+                }
+                for (int m = start; m < end; m++) {
+                    covered[m] = true;
+                }
+            }
+            for (int m = 0; m < MINUTES_PER_DAY; m++) {
+                assertEquals("day " + d + " minute " + m, busy[d][m], covered[m]);
+                assertEquals(busy[d][m], freeBusy.isBusy(day, m));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testBusyMatchesReference() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 20; trial++) {
+            ArrayList<Event> events = createEvents(random, 10 + trial * 5);
+            EventStore store = new EventStore();
+            store.set(events, FIRST_DAY, NUM_DAYS);
+            FreeBusy freeBusy = new FreeBusy();
+            freeBusy.set(store);
+            assertMatches(referenceBusy(events), freeBusy);
+            assertAllDayMatches(events, freeBusy);
+        }
+    }
+
+    @SmallTest
+    public void testDeclinedEventsCountWhenAsked() {
+        Random random = new Random(4);
+        ArrayList<Event> events = createEvents(random, 80);
+        EventStore store = new EventStore();
+        store.set(events, FIRST_DAY, NUM_DAYS);
+
+        // The month view's busy bits show declined events, as they did
+        // before the busy time was merged.
+        FreeBusy declinedBusy = new FreeBusy(true);
+        declinedBusy.set(store);
+        assertMatches(referenceBusy(events, true), declinedBusy);
+        assertAllDayMatches(events, declinedBusy, true);
+
+        // Looking for free time treats them as free.
+        FreeBusy declinedFree = new FreeBusy();
+        declinedFree.set(store);
+        assertMatches(referenceBusy(events, false), declinedFree);
+        assertAllDayMatches(events, declinedFree, false);
+    }
+
+    @SmallTest
+    public void testFreeSlotsMatchReference() {
+        Random random = new Random(2);
+        ArrayList<Event> events = createEvents(random, 60);
+        EventStore store = new EventStore();
+        store.set(events, FIRST_DAY, NUM_DAYS);
+        FreeBusy freeBusy = new FreeBusy();
+        freeBusy.set(store);
+        boolean[][] busy = referenceBusy(events);
+
+        for (int i = 0; i < 500; i++) {
+            int d = random.nextInt(NUM_DAYS);
+            int from = random.nextInt(MINUTES_PER_DAY);
+            int duration = 15 + random.nextInt(8) * 15;
+
+            // The earliest start at or after from with duration free minutes.
+            int expected = -1;
+            for (int start = from; start + duration <= MINUTES_PER_DAY; start++) {
+                boolean free = true;
+                for (int m = start; m < start + duration && free; m++) {
+                    free = !busy[d][m];
+                }
+                if (free) {
+                    expected = start;
+                    break;
+                }
+            }
+            assertEquals(expected, freeBusy.findFreeSlot(FIRST_DAY + d, from, duration));
+
+            int end = Math.min(from + duration, MINUTES_PER_DAY);
+            boolean free = true;
+            for (int m = from; m < end; m++) {
+                free &= !busy[d][m];
+            }
+            assertEquals(free, freeBusy.isFree(FIRST_DAY + d, from, end));
+        }
+
+        // Days outside the span are free.
+        assertFalse(freeBusy.isBusy(FIRST_DAY - 1, 600));
+        assertTrue(freeBusy.isFree(FIRST_DAY + NUM_DAYS, 0, MINUTES_PER_DAY));
+        assertEquals(90, freeBusy.findFreeSlot(FIRST_DAY - 1, 90, 60));
+        assertEquals(-1, freeBusy.findFreeSlot(FIRST_DAY - 1, MINUTES_PER_DAY - 30, 60));
+    }
+
+    @SmallTest
+    public void testUpdateRebuildsChangedDays() {
+        Random random = new Random(3);
+        ArrayList<Event> events = createEvents(random, 60);
+        EventStore store = new EventStore();
+        store.set(events, FIRST_DAY, NUM_DAYS);
+        FreeBusy freeBusy = new FreeBusy();
+        freeBusy.set(store);
+
+        // Decline every event of the third day and add one on it.
+        int changedDay = FIRST_DAY + 2;
+        ArrayList<Event> changed = new ArrayList<Event>(events);
+        for (Event e : changed) {
+            if (e.startDay == changedDay && e.endDay == changedDay) {
+                e.selfAttendeeStatus = Attendees.ATTENDEE_STATUS_DECLINED;
+            }
+        }
+        Event added = new Event();
+        added.startDay = changedDay;
+        added.endDay = changedDay;
+        added.startTime = 600;
+        added.endTime = 720;
+        changed.add(added);
+        Collections.sort(changed);
+        store.set(changed);
+        freeBusy.update(store, changedDay, changedDay);
+
+        assertMatches(referenceBusy(changed), freeBusy);
+        assertAllDayMatches(changed, freeBusy);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.graphics.Canvas;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Test class for verifying which tiles GridTiles draws as the viewport
+ * scrolls and parts of the content change.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.GridTilesTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class GridTilesTest extends TestCase {
+
+    private static final int WIDTH = 50;
+    private static final int TILE_HEIGHT = 10;
+    private static final int CONTENT_HEIGHT = 24 * TILE_HEIGHT + 5;
+    private static final int VIEWPORT_HEIGHT = 35;
+
+    /**
+     * Records the top of every tile drawn.
+     */
+    private static class RecordingRenderer implements GridTiles.Renderer {
+        ArrayList<Integer> mTops = new ArrayList<Integer>();
+
+        public void drawTile(Canvas canvas, int top, int bottom) {
+            assertTrue(top < bottom);
+            mTops.add(top);
+        }
+
+        void assertDrawn(int... tiles) {
+            assertEquals(tiles.length, mTops.size());
+            for (int i = 0; i < tiles.length; i++) {
+                assertTrue("tile " + tiles[i] + " drawn", mTops.contains(tiles[i] * TILE_HEIGHT));
+            }
+            mTops.clear();
+        }
+    }
+
+    private RecordingRenderer mRenderer;
+    private GridTiles mTiles;
+    private Canvas mCanvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new RecordingRenderer();
+        mTiles = new GridTiles(mRenderer);
+        mTiles.setSize(WIDTH, CONTENT_HEIGHT, TILE_HEIGHT, VIEWPORT_HEIGHT);
+        mCanvas = new Canvas();
+    }
+
+    @SmallTest
+    public void testDrawsOnlyTilesNearViewport() {
+        // The viewport shows tiles 10 to 13, plus one either side.
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn(9, 10, 11, 12, 13, 14);
+
+        // Drawing again with nothing changed draws no tiles.
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn();
+
+        // The bitmaps held scale with the viewport, not the content.
+        assertEquals(VIEWPORT_HEIGHT / TILE_HEIGHT + 4, mTiles.getNumSlots());
+    }
+
+    @SmallTest
+    public void testScrollingReusesTiles() {
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.mTops.clear();
+
+        // Within the prefetched tiles nothing is drawn.
+        mTiles.draw(mCanvas, 105, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn();
+
+        // Scrolling a tile down draws only the one coming into range.
+        mTiles.draw(mCanvas, 115, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn(15);
+        mTiles.draw(mCanvas, 95, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn(8, 9);
+
+        // Both ends of the content.
+        mTiles.draw(mCanvas, 0, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn(0, 1, 2, 3, 4);
+        mTiles.draw(mCanvas, CONTENT_HEIGHT - VIEWPORT_HEIGHT, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn(20, 21, 22, 23, 24);
+    }
+
+    @SmallTest
+    public void testInvalidateRedrawsOverlappingTiles() {
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.mTops.clear();
+
+        mTiles.invalidate(112, 125);
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn(11, 12);
+
+        // A band out of range leaves the drawn tiles alone.
+        mTiles.invalidate(0, 50);
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn();
+
+        mTiles.invalidateAll();
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn(9, 10, 11, 12, 13, 14);
+    }
+
+    @SmallTest
+    public void testSetSizeKeepsTilesUnlessChanged() {
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.mTops.clear();
+
+        mTiles.setSize(WIDTH, CONTENT_HEIGHT, TILE_HEIGHT, VIEWPORT_HEIGHT);
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        mRenderer.assertDrawn();
+
+        mTiles.setSize(WIDTH, CONTENT_HEIGHT, TILE_HEIGHT + 1, VIEWPORT_HEIGHT);
+        mTiles.draw(mCanvas, 100, VIEWPORT_HEIGHT, 0);
+        assertEquals(6, mRenderer.mTops.size());
+    }
+}
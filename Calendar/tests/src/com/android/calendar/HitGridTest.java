@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Test class for verifying the touch hit-testing buckets of HitGrid.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.HitGridTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class HitGridTest extends TestCase {
+
+    private static final int FIRST_DAY = 2455000;
+    private static final int NUM_DAYS = 7;
+    private static final int CELL_WIDTH = 60;
+    private static final int CELL_HEIGHT = 40;
+    private static final int HOUR_GAP = 1;
+    private static final int SLOP = 10;
+
+    private EventStore mStore;
+    private EventGeometry mGeometry;
+    private HitGrid mGrid;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGeometry = new EventGeometry();
+        mGeometry.setHourGap(HOUR_GAP);
+        mGeometry.setHourHeight(CELL_HEIGHT);
+        mGeometry.setMinEventHeight(15);
+        mStore = new EventStore();
+        mGrid = new HitGrid();
+    }
+
+    /**
+     * Creates a busy week, with several events spanning midnight, lays it
+     * out and files every day's rectangles in the grid, as a draw does.
+     */
+    private void fillWeek(long seed) {
+        Random random = new Random(seed);
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 300; i++) {
+            Event e = new Event();
+            e.id = i;
+            e.startDay = FIRST_DAY + random.nextInt(NUM_DAYS);
+            e.endDay = e.startDay + (random.nextInt(15) == 0 ? 1 : 0);
+            e.startTime = random.nextInt(24 * 60);
+            e.endTime = e.endDay > e.startDay ? random.nextInt(24 * 60)
+                    : Math.min(e.startTime + 15 + random.nextInt(180), 24 * 60);
+            e.startMillis = (e.startDay - FIRST_DAY) * 24L * 60 * 60 * 1000
+                    + e.startTime * 60L * 1000;
+            e.endMillis = (e.endDay - FIRST_DAY) * 24L * 60 * 60 * 1000
+                    + e.endTime * 60L * 1000;
+            events.add(e);
+        }
+        Collections.sort(events);
+        Event.computePositions(events);
+
+        mStore.set(events, FIRST_DAY, NUM_DAYS);
+        mStore.computeDayRects(mGeometry, 0, CELL_WIDTH + 1, HOUR_GAP, CELL_WIDTH);
+        mGrid.reset(FIRST_DAY, NUM_DAYS, CELL_HEIGHT + HOUR_GAP);
+        for (int day = FIRST_DAY; day < FIRST_DAY + NUM_DAYS; day++) {
+            mGrid.setDay(day, mStore);
+        }
+    }
+
+    private boolean rectNear(int entry, float y) {
+        int offset = entry * EventStore.RECT_SIZE;
+        float top = mStore.dayRects[offset + EventStore.RECT_TOP];
+        float bottom = mStore.dayRects[offset + EventStore.RECT_BOTTOM];
+        return top < y + SLOP && bottom >= y - SLOP;
+    }
+
+    @SmallTest
+    public void testEventsNearFindsEveryIntersectingEvent() {
+        fillWeek(1);
+        Random random = new Random(2);
+        for (int touch = 0; touch < 500; touch++) {
+            int day = FIRST_DAY + random.nextInt(NUM_DAYS);
+            float y = random.nextInt(24 * (CELL_HEIGHT + HOUR_GAP));
+
+            int count = mGrid.eventsNear(day, y, SLOP);
+            int[] near = mGrid.hits;
+            for (int k = 1; k < count; k++) {
+                assertTrue(near[k - 1] < near[k]);
+            }
+
+            // Every event drawn on this day within the band is a candidate.
+            int expected = 0;
+            for (int p = mStore.dayStart(day); p < mStore.dayEnd(day); p++) {
+                if (mStore.hasDayRect(p) && rectNear(p, y)) {
+                    boolean found = false;
+                    for (int k = 0; k < count; k++) {
+                        found |= near[k] == p;
+                    }
+                    assertTrue("entry " + p + " missed at y " + y, found);
+                    expected++;
+                }
+            }
+            assertTrue(count >= expected);
+        }
+    }
+
+    @SmallTest
+    public void testInvalidatedDaysFindNothing() {
+        fillWeek(3);
+        assertTrue(mGrid.isDayValid(FIRST_DAY));
+        assertFalse(mGrid.isDayValid(FIRST_DAY + NUM_DAYS));
+
+        mGrid.invalidate();
+        assertFalse(mGrid.isDayValid(FIRST_DAY));
+        assertEquals(0, mGrid.eventsNear(FIRST_DAY, 12 * CELL_HEIGHT, SLOP));
+
+        fillWeek(3);
+        mGrid.setRowHeight(CELL_HEIGHT * 2);
+        assertFalse(mGrid.isDayValid(FIRST_DAY));
+    }
+
+    @SmallTest
+    public void testSquaredDistanceOrdersLikeDistance() {
+        Event e = new Event();
+        e.left = 10;
+        e.top = 20;
+        e.right = 50;
+        e.bottom = 80;
+        Random random = new Random(4);
+        for (int i = 0; i < 200; i++) {
+            float x = random.nextInt(100) - 20;
+            float y = random.nextInt(140) - 20;
+            float dist = mGeometry.pointToEvent(x, y, e);
+            assertEquals(dist * dist, mGeometry.pointToEventSquared(x, y, e), 0.01f);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Test class for verifying the memoized layouts of LayoutCache.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.LayoutCacheTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class LayoutCacheTest extends TestCase {
+
+    private static final int START_DAY = 2455000;
+    private static final long MINUTE = 60 * 1000;
+
+    private LayoutCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new LayoutCache();
+    }
+
+    private static Event createEvent(long id, long startMinute, long endMinute) {
+        Event e = new Event();
+        e.id = id;
+        e.setStartMillis(startMinute * MINUTE);
+        e.setEndMillis(endMinute * MINUTE);
+        return e;
+    }
+
+    /**
+     * Creates a week with a few overlapping meetings every day.
+     */
+    private static ArrayList<Event> createWeek() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int day = 0; day < 7; day++) {
+            long dayStart = day * 24 * 60;
+            for (int i = 0; i < 4; i++) {
+                long start = dayStart + 9 * 60 + i * 20;
+                events.add(createEvent(day * 10 + i, start, start + 60));
+            }
+        }
+        return events;
+    }
+
+    private static void assertSameLayout(ArrayList<Event> expected, ArrayList<Event> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getColumn(), actual.get(i).getColumn());
+            assertEquals(expected.get(i).getMaxColumns(), actual.get(i).getMaxColumns());
+        }
+    }
+
+    @SmallTest
+    public void testRevisitCopiesLayout() {
+        ArrayList<Event> first = createWeek();
+        mCache.computePositions(first, START_DAY, 7);
+        assertEquals(1, mCache.getMissCount());
+
+        // The other CalendarView loads the same week.
+        ArrayList<Event> second = createWeek();
+        mCache.computePositions(second, START_DAY, 7);
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+        assertSameLayout(first, second);
+    }
+
+    @SmallTest
+    public void testChangedEventIsLaidOutAgain() {
+        mCache.computePositions(createWeek(), START_DAY, 7);
+
+        ArrayList<Event> moved = createWeek();
+        moved.get(1).setEndMillis(moved.get(1).getEndMillis() + 5 * MINUTE);
+        mCache.computePositions(moved, START_DAY, 7);
+        assertEquals(2, mCache.getMissCount());
+
+        ArrayList<Event> expected = createWeek();
+        expected.get(1).setEndMillis(expected.get(1).getEndMillis() + 5 * MINUTE);
+        Event.computePositions(expected);
+        assertSameLayout(expected, moved);
+    }
+
+    @SmallTest
+    public void testSpanIsPartOfKey() {
+        mCache.computePositions(createWeek(), START_DAY, 7);
+        mCache.computePositions(createWeek(), START_DAY + 7, 7);
+        mCache.computePositions(createWeek(), START_DAY, 1);
+        assertEquals(3, mCache.getMissCount());
+        assertEquals(0, mCache.getHitCount());
+    }
+
+    @SmallTest
+    public void testFingerprintCoversIdsAndTimes() {
+        ArrayList<Event> events = createWeek();
+        long fingerprint = LayoutCache.fingerprint(events, START_DAY, 7);
+        assertEquals(fingerprint, LayoutCache.fingerprint(createWeek(), START_DAY, 7));
+
+        events.get(5).id = 99;
+        assertTrue(fingerprint != LayoutCache.fingerprint(events, START_DAY, 7));
+
+        events = createWeek();
+        events.get(5).setStartMillis(events.get(5).getStartMillis() + MINUTE);
+        assertTrue(fingerprint != LayoutCache.fingerprint(events, START_DAY, 7));
+
+        events = createWeek();
+        events.get(5).allDay = true;
+        assertTrue(fingerprint != LayoutCache.fingerprint(events, START_DAY, 7));
+
+        events = createWeek();
+        events.remove(27);
+        assertTrue(fingerprint != LayoutCache.fingerprint(events, START_DAY, 7));
+    }
+
+    @SmallTest
+    public void testEvictsLeastRecentlyUsed() {
+        int weeks = LayoutCache.MAX_CACHED_EVENTS / createWeek().size() + 1;
+        for (int i = 0; i < weeks; i++) {
+            mCache.computePositions(createWeek(), START_DAY + 7 * i, 7);
+        }
+        assertEquals(weeks, mCache.getMissCount());
+
+        // The first week was evicted, the last one is still there.
+        mCache.computePositions(createWeek(), START_DAY + 7 * (weeks - 1), 7);
+        assertEquals(1, mCache.getHitCount());
+        mCache.computePositions(createWeek(), START_DAY, 7);
+        assertEquals(weeks + 1, mCache.getMissCount());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for verifying the lanes of the LoadScheduler.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.LoadSchedulerTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class LoadSchedulerTest extends TestCase {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private LoadScheduler mScheduler;
+    private List<String> mProcessed;
+    private List<String> mSkipped;
+
+    private class TestRequest implements LoadScheduler.Request {
+        final String mName;
+        final CountDownLatch mDone = new CountDownLatch(1);
+        CountDownLatch mBlock;
+
+        TestRequest(String name) {
+            mName = name;
+        }
+
+        public void processRequest() {
+            if (mBlock != null) {
+                try {
+                    mBlock.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Fall through and finish.
+                }
+            }
+            mProcessed.add(mName);
+            mDone.countDown();
+        }
+
+        public void skipRequest() {
+            mSkipped.add(mName);
+            mDone.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(mName + " timed out", mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mScheduler = new LoadScheduler(2);
+        mProcessed = Collections.synchronizedList(new ArrayList<String>());
+        mSkipped = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mScheduler.stop();
+        super.tearDown();
+    }
+
+    private TestRequest queue(int lane, String name) {
+        TestRequest request = new TestRequest(name);
+        mScheduler.queue(lane, request);
+        return request;
+    }
+
+    @SmallTest
+    public void testLanesRunAtDecreasingPriority() {
+        // Lower values are more favorable.
+        assertTrue(mScheduler.getThreadPriority(LoadScheduler.LANE_VISIBLE)
+                < mScheduler.getThreadPriority(LoadScheduler.LANE_DAYS));
+        assertTrue(mScheduler.getThreadPriority(LoadScheduler.LANE_DAYS)
+                < mScheduler.getThreadPriority(LoadScheduler.LANE_PREFETCH));
+    }
+
+    @SmallTest
+    public void testNewestVisibleRequestReplacesQueuedOnes() throws Exception {
+        queue(LoadScheduler.LANE_VISIBLE, "week 1");
+        queue(LoadScheduler.LANE_VISIBLE, "week 2");
+        TestRequest last = queue(LoadScheduler.LANE_VISIBLE, "week 3");
+        assertEquals(1, mScheduler.getQueueDepth(LoadScheduler.LANE_VISIBLE));
+
+        mScheduler.start();
+        last.await();
+
+        assertEquals(Collections.singletonList("week 3"), mProcessed);
+        assertEquals(2, mSkipped.size());
+        assertEquals(2, mScheduler.getSkippedCount(LoadScheduler.LANE_VISIBLE));
+    }
+
+    @SmallTest
+    public void testLanesDoNotCancelEachOther() throws Exception {
+        TestRequest week = queue(LoadScheduler.LANE_VISIBLE, "week");
+        TestRequest month = queue(LoadScheduler.LANE_DAYS, "month days");
+
+        mScheduler.start();
+        week.await();
+        month.await();
+
+        assertTrue(mProcessed.contains("week"));
+        assertTrue(mProcessed.contains("month days"));
+        assertTrue(mSkipped.isEmpty());
+    }
+
+    @SmallTest
+    public void testPrefetchLaneKeepsOrder() throws Exception {
+        TestRequest last = null;
+        for (int i = 0; i < 6; i++) {
+            last = queue(LoadScheduler.LANE_PREFETCH, "range " + i);
+        }
+
+        mScheduler.start();
+        last.await();
+
+        // Only the oldest ones beyond the lane's limit are dropped.
+        assertEquals(2, mSkipped.size());
+        assertEquals(4, mProcessed.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("range " + (i + 2), mProcessed.get(i));
+        }
+    }
+
+    @SmallTest
+    public void testSlowPrefetchDoesNotBlockVisibleLoad() throws Exception {
+        mScheduler.start();
+        TestRequest prefetch = new TestRequest("prefetch");
+        prefetch.mBlock = new CountDownLatch(1);
+        mScheduler.queue(LoadScheduler.LANE_PREFETCH, prefetch);
+
+        TestRequest week = queue(LoadScheduler.LANE_VISIBLE, "week");
+        week.await();
+        assertEquals(Collections.singletonList("week"), mProcessed);
+
+        prefetch.mBlock.countDown();
+        prefetch.await();
+        assertEquals(2, mProcessed.size());
+        assertEquals("prefetch", mProcessed.get(1));
+    }
+
+    @SmallTest
+    public void testStopSkipsQueuedRequests() throws Exception {
+        queue(LoadScheduler.LANE_VISIBLE, "week");
+        queue(LoadScheduler.LANE_DAYS, "month days");
+        queue(LoadScheduler.LANE_PREFETCH, "next week");
+
+        mScheduler.stop();
+
+        assertEquals(3, mSkipped.size());
+        assertTrue(mProcessed.isEmpty());
+        for (int lane = 0; lane < LoadScheduler.NUM_LANES; lane++) {
+            assertEquals(0, mScheduler.getQueueDepth(lane));
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Test class for verifying the keyboard and trackball links computed by
+ * NeighborIndex against the exhaustive search it replaced.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.NeighborIndexTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class NeighborIndexTest extends TestCase {
+
+    private static final int BOX_TOP = 100;
+    private static final int BOX_BOTTOM = 400;
+
+    /**
+     * Creates timed events on a coarse grid so that ties in every direction
+     * are common, including a few zero-length events.
+     */
+    private ArrayList<Event> makeTimedEvents(Random random, int count) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < count; i++) {
+            Event e = new Event();
+            e.id = i;
+            e.startTime = random.nextInt(24) * 60;
+            e.endTime = e.startTime + (random.nextInt(10) == 0 ? 0 : random.nextInt(6) * 30);
+            int column = random.nextInt(7);
+            int width = 20 + random.nextInt(3) * 20;
+            e.left = column * 30;
+            e.right = e.left + width;
+            e.top = e.startTime / 3;
+            e.bottom = e.endTime / 3;
+            events.add(e);
+        }
+        return events;
+    }
+
+    @SmallTest
+    public void testLinksMatchExhaustiveSearch() {
+        Random random = new Random(1);
+        NeighborIndex index = new NeighborIndex();
+        for (int trial = 0; trial < 50; trial++) {
+            ArrayList<Event> events = makeTimedEvents(random, 1 + random.nextInt(80));
+            index.computeLinks(events, BOX_TOP, BOX_BOTTOM);
+            Event[][] links = saveLinks(events);
+
+            referenceLinks(events, BOX_TOP, BOX_BOTTOM);
+            assertLinks(links, events);
+        }
+    }
+
+    @SmallTest
+    public void testAllDayLinksMatchExhaustiveSearch() {
+        Random random = new Random(2);
+        NeighborIndex index = new NeighborIndex();
+        for (int trial = 0; trial < 50; trial++) {
+            ArrayList<Event> events = new ArrayList<Event>();
+            int count = 1 + random.nextInt(20);
+            for (int i = 0; i < count; i++) {
+                Event e = new Event();
+                e.id = i;
+                e.allDay = true;
+                e.setColumn(random.nextInt(6));
+                events.add(e);
+            }
+            index.computeAllDayLinks(events);
+            Event[][] links = saveLinks(events);
+
+            referenceAllDayLinks(events);
+            assertLinks(links, events);
+        }
+    }
+
+    @SmallTest
+    public void testUnchangedSelectionIsNotRecomputed() {
+        ArrayList<Event> events = makeTimedEvents(new Random(3), 40);
+        NeighborIndex index = new NeighborIndex();
+        index.computeLinks(events, BOX_TOP, BOX_BOTTOM);
+        Event[][] links = saveLinks(events);
+
+        // Scribble on the links; an unchanged selection keeps them as is.
+        Event first = events.get(0);
+        Event marker = new Event();
+        first.nextUp = marker;
+        index.computeLinks(events, BOX_TOP, BOX_BOTTOM);
+        assertSame(marker, first.nextUp);
+
+        // A new selection box, a moved event or an invalidate recomputes.
+        index.computeLinks(events, BOX_TOP, BOX_BOTTOM + 1);
+        assertSame(links[0][0], first.nextUp);
+
+        first.nextUp = marker;
+        first.left += 1;
+        index.computeLinks(events, BOX_TOP, BOX_BOTTOM + 1);
+        assertNotSame(marker, first.nextUp);
+
+        first.nextUp = marker;
+        index.invalidate();
+        index.computeLinks(events, BOX_TOP, BOX_BOTTOM + 1);
+        assertNotSame(marker, first.nextUp);
+    }
+
+    private static Event[][] saveLinks(ArrayList<Event> events) {
+        int size = events.size();
+        Event[][] links = new Event[size][];
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            links[i] = new Event[] { e.nextUp, e.nextDown, e.nextLeft, e.nextRight };
+        }
+        return links;
+    }
+
+    private static void assertLinks(Event[][] links, ArrayList<Event> events) {
+        String[] names = { "up", "down", "left", "right" };
+        Event[][] expected = saveLinks(events);
+        for (int i = 0; i < links.length; i++) {
+            for (int d = 0; d < names.length; d++) {
+                assertSame("event " + i + " " + names[d], expected[i][d], links[i][d]);
+            }
+        }
+    }
+
+    /**
+     * The all-day search CalendarView did before NeighborIndex.
+     */
+    private static void referenceAllDayLinks(ArrayList<Event> events) {
+        int len = events.size();
+        for (int ii = 0; ii < len; ii++) {
+            Event ev = events.get(ii);
+            ev.nextUp = null;
+            ev.nextDown = null;
+            ev.nextLeft = null;
+            ev.nextRight = null;
+        }
+        for (int ii = 0; ii < len; ii++) {
+            Event ev = events.get(ii);
+            int position = ev.getColumn();
+            for (int jj = 0; jj < len; jj++) {
+                if (jj == ii) {
+                    continue;
+                }
+                Event neighbor = events.get(jj);
+                int neighborPosition = neighbor.getColumn();
+                if (neighborPosition == position - 1) {
+                    ev.nextUp = neighbor;
+                } else if (neighborPosition == position + 1) {
+                    ev.nextDown = neighbor;
+                }
+            }
+        }
+    }
+
+    private static int distanceToSpan(int point, int start, int end) {
+        if (end <= point) {
+            return point - end;
+        } else if (start >= point) {
+            return start - point;
+        }
+        return 0;
+    }
+
+    /**
+     * The timed search CalendarView did before NeighborIndex, comparing
+     * every event with every other one.
+     */
+    private static void referenceLinks(ArrayList<Event> events, int boxTop, int boxBottom) {
+        int len = events.size();
+        for (int ii = 0; ii < len; ii++) {
+            Event ev = events.get(ii);
+            int startTime = ev.startTime;
+            int endTime = ev.endTime;
+            int left = (int) ev.left;
+            int right = (int) ev.right;
+            int top = Math.max((int) ev.top, boxTop);
+            int bottom = Math.min((int) ev.bottom, boxBottom);
+            int upDistanceMin = 10000;
+            int downDistanceMin = 10000;
+            int leftDistanceMin = 10000;
+            int rightDistanceMin = 10000;
+            Event upEvent = null;
+            Event downEvent = null;
+            Event leftEvent = null;
+            Event rightEvent = null;
+
+            for (int jj = 0; jj < len; jj++) {
+                if (jj == ii) {
+                    continue;
+                }
+                Event neighbor = events.get(jj);
+                int neighborLeft = (int) neighbor.left;
+                int neighborRight = (int) neighbor.right;
+                int center = (left + right) / 2;
+                if (neighbor.endTime <= startTime) {
+                    if (neighborLeft < right && neighborRight > left) {
+                        int distance = startTime - neighbor.endTime;
+                        if (distance < upDistanceMin) {
+                            upDistanceMin = distance;
+                            upEvent = neighbor;
+                        } else if (distance == upDistanceMin
+                                && distanceToSpan(center, neighborLeft, neighborRight)
+                                < distanceToSpan(center, (int) upEvent.left,
+                                        (int) upEvent.right)) {
+                            upEvent = neighbor;
+                        }
+                    }
+                } else if (neighbor.startTime >= endTime) {
+                    if (neighborLeft < right && neighborRight > left) {
+                        int distance = neighbor.startTime - endTime;
+                        if (distance < downDistanceMin) {
+                            downDistanceMin = distance;
+                            downEvent = neighbor;
+                        } else if (distance == downDistanceMin
+                                && distanceToSpan(center, neighborLeft, neighborRight)
+                                < distanceToSpan(center, (int) downEvent.left,
+                                        (int) downEvent.right)) {
+                            downEvent = neighbor;
+                        }
+                    }
+                }
+
+                int middle = (top + bottom) / 2;
+                int neighborTop = (int) neighbor.top;
+                int neighborBottom = (int) neighbor.bottom;
+                if (neighborLeft >= right) {
+                    int distance = distanceToSpan(middle, neighborTop, neighborBottom);
+                    if (distance < rightDistanceMin) {
+                        rightDistanceMin = distance;
+                        rightEvent = neighbor;
+                    } else if (distance == rightDistanceMin
+                            && neighborLeft - right < (int) rightEvent.left - right) {
+                        rightEvent = neighbor;
+                    }
+                } else if (neighborRight <= left) {
+                    int distance = distanceToSpan(middle, neighborTop, neighborBottom);
+                    if (distance < leftDistanceMin) {
+                        leftDistanceMin = distance;
+                        leftEvent = neighbor;
+                    } else if (distance == leftDistanceMin
+                            && left - neighborRight < left - (int) leftEvent.right) {
+                        leftEvent = neighbor;
+                    }
+                }
+            }
+            ev.nextUp = upEvent;
+            ev.nextDown = downEvent;
+            ev.nextLeft = leftEvent;
+            ev.nextRight = rightEvent;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.os.Debug;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Test class for verifying the line breaking and caching of
+ * TextLayoutCache.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.TextLayoutCacheTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class TextLayoutCacheTest extends TestCase {
+
+    private static final int LINE_HEIGHT = 12;
+    private static final float TEXT_SIZE = 10;
+
+    private static final String[] WORDS = {
+        "a", "to", "lunch", "meeting", "with", "the", "team,", "building",
+        "42", "supercalifragilistic", "", " ",
+    };
+
+    /**
+     * Builds a text from random words, with the odd double space.
+     */
+    private static String createText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int numWords = random.nextInt(12);
+        for (int i = 0; i < numWords; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static float[] createWidths(Random random, int len) {
+        float[] widths = new float[len];
+        for (int i = 0; i < len; i++) {
+            widths[i] = 3 + random.nextInt(5);
+        }
+        return widths;
+    }
+
+    /**
+     * The line breaking drawEventText() used to do, returning the lines.
+     */
+    private static ArrayList<String> referenceLines(String text, int len, float[] widths,
+            float width, float height) {
+        ArrayList<String> lines = new ArrayList<String>();
+        int lineHeight = LINE_HEIGHT;
+        String fragment = text;
+        int start = 0;
+        while (start < len && height >= (lineHeight + 1)) {
+            boolean lastLine = (height < 2 * lineHeight + 1);
+            do {
+                char c = text.charAt(start);
+                if (c != ' ') break;
+                start += 1;
+            } while (start < len);
+
+            float sum = 0;
+            int end = start;
+            for (int ii = start; ii < len; ii++) {
+                char c = text.charAt(ii);
+                if (c == ' ') {
+                    end = ii;
+                }
+                sum += widths[ii];
+                if (sum > width) {
+                    if (end > start && !lastLine) {
+                        fragment = text.substring(start, end);
+                        start = end;
+                        break;
+                    }
+                    fragment = text.substring(start, ii);
+                    start = ii;
+                    break;
+                }
+            }
+            if (sum <= width) {
+                fragment = text.substring(start, len);
+                start = len;
+            }
+            lines.add(fragment);
+            height -= lineHeight;
+        }
+        return lines;
+    }
+
+    private static void assertLines(ArrayList<String> expected, String text,
+            TextLayoutCache.Layout layout) {
+        assertEquals(expected.size(), layout.numLines);
+        for (int k = 0; k < layout.numLines; k++) {
+            assertEquals(expected.get(k),
+                    text.substring(layout.lineStarts[k], layout.lineEnds[k]));
+        }
+    }
+
+    @SmallTest
+    public void testBreakLinesMatchesReference() {
+        Random random = new Random(1);
+        TextLayoutCache.Layout layout = new TextLayoutCache.Layout();
+        for (int i = 0; i < 2000; i++) {
+            String text = createText(random);
+            int len = text.length();
+            if (len > 0 && random.nextInt(4) == 0) {
+                len = random.nextInt(len);
+            }
+            float[] widths = createWidths(random, text.length());
+            float width = 10 + random.nextInt(120);
+            float height = random.nextInt(8 * LINE_HEIGHT);
+
+            TextLayoutCache.breakLines(text, len, widths, width, height, LINE_HEIGHT, layout);
+            assertLines(referenceLines(text, len, widths, width, height), text, layout);
+        }
+    }
+
+    @SmallTest
+    public void testCacheKeys() {
+        Random random = new Random(2);
+        String text = "Lunch with the team, building 42";
+        float[] widths = createWidths(random, text.length());
+        TextLayoutCache cache = new TextLayoutCache();
+
+        assertNull(cache.get(7, text, 60, 50, TEXT_SIZE));
+        TextLayoutCache.Layout layout = cache.put(7, text, 60, 50, TEXT_SIZE, widths,
+                text.length(), LINE_HEIGHT);
+        assertLines(referenceLines(text, text.length(), widths, 60, 50), text, layout);
+        assertSame(layout, cache.get(7, text, 60, 50, TEXT_SIZE));
+        assertEquals(1, cache.getHitCount());
+
+        // Any part of the key differing misses, including a reloaded text
+        // that is equal but not the same.
+        assertNull(cache.get(8, text, 60, 50, TEXT_SIZE));
+        assertNull(cache.get(7, text, 61, 50, TEXT_SIZE));
+        assertNull(cache.get(7, text, 60, 49, TEXT_SIZE));
+        assertNull(cache.get(7, text, 60, 50, TEXT_SIZE + 1));
+        assertNull(cache.get(7, new String(text), 60, 50, TEXT_SIZE));
+        assertEquals(6, cache.getMissCount());
+    }
+
+    @SmallTest
+    public void testCachedLayoutsStayCorrect() {
+        // Many more layouts than slots: whatever is found must still be
+        // the layout of what was asked for.
+        Random random = new Random(3);
+        TextLayoutCache cache = new TextLayoutCache();
+        String[] texts = new String[TextLayoutCache.CAPACITY * 2];
+        float[][] widths = new float[texts.length][];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = createText(random);
+            widths[i] = createWidths(random, texts[i].length());
+        }
+        for (int i = 0; i < 5000; i++) {
+            int id = random.nextInt(texts.length);
+            float width = 40 + random.nextInt(3) * 20;
+            String text = texts[id];
+            TextLayoutCache.Layout layout = cache.get(id, text, width, 60, TEXT_SIZE);
+            if (layout == null) {
+                layout = cache.put(id, text, width, 60, TEXT_SIZE, widths[id], text.length(),
+                        LINE_HEIGHT);
+            }
+            assertLines(referenceLines(text, text.length(), widths[id], width, 60), text,
+                    layout);
+        }
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @SmallTest
+    public void testHitsDoNotAllocate() {
+        String text = "Lunch with the team, building 42";
+        float[] widths = createWidths(new Random(4), text.length());
+        TextLayoutCache cache = new TextLayoutCache();
+        for (int id = 0; id < 50; id++) {
+            cache.put(id, text, 60, 50, TEXT_SIZE, widths, text.length(), LINE_HEIGHT);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        int found = 0;
+        for (int id = 0; id < 50; id++) {
+            if (cache.get(id, text, 60, 50, TEXT_SIZE) != null) {
+                found++;
+            }
+        }
+        Debug.stopAllocCounting();
+        assertEquals(0, Debug.getThreadAllocCount());
+        assertTrue(found > 0);
+    }
+}